@@ -0,0 +1,102 @@
+package it.polito.emergency.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.polito.emergency.EmergencyApp;
+import it.polito.emergency.EmergencyException;
+import it.polito.emergency.Patient;
+
+/**
+ * Latency of {@code getPatient} by fiscal code on patients moved to the
+ * archive of a persistent registry. With {@code skew} above 1 a few patients
+ * get most of the lookups and are served by the cache; with {@code skew} 1
+ * the lookups are uniform and most of them read the disk. The hit ratio is
+ * printed at the end of each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArchiveBenchmark {
+
+    @Param({"500000"})
+    int patients;
+
+    @Param({"1", "4"})
+    double skew;
+
+    EmergencyApp app;
+    Path directory;
+    String[] lookups;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("emergency-bench");
+        app = EmergencyApp.open(directory);
+        SyntheticRegistry.fill(app, patients, 10, 1, 0);
+        // no bed is free, so every patient is discharged
+        for (int i = 0; i < patients; i++) {
+            try {
+                app.dischargeOrHospitalize(SyntheticRegistry.fiscalCode(i), SyntheticRegistry.department(0));
+            } catch (EmergencyException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        app.archivePatients(SyntheticRegistry.FIRST_DAY.plusDays(SyntheticRegistry.DAYS).toString());
+        Random random = new Random(42);
+        lookups = new String[1 << 16];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = SyntheticRegistry.fiscalCode((int) (patients * Math.pow(random.nextDouble(), skew)));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void hitRatio() {
+        String metrics = app.getMetrics().toText();
+        System.out.println(metrics.lines().filter(l -> l.startsWith("emergency_archive_cache")).toList());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        app.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> {
+                try {
+                    Files.delete(f);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public List<Patient> getArchivedPatient() throws EmergencyException {
+        return app.getPatient(lookups[next++ & (lookups.length - 1)]);
+    }
+}
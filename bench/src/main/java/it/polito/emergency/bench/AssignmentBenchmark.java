@@ -0,0 +1,71 @@
+package it.polito.emergency.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.polito.emergency.EmergencyApp;
+import it.polito.emergency.EmergencyApp.AssignmentPolicy;
+import it.polito.emergency.EmergencyException;
+
+/**
+ * Latency of assigning a patient while many assigned patients are still
+ * waiting in the emergency room, for every assignment policy.
+ * Every operation assigns a patient and sends an older one to a department,
+ * so the number of active patients stays the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssignmentBenchmark {
+
+    @Param({"100000"})
+    int activePatients;
+
+    @Param({"5000"})
+    int professionals;
+
+    @Param({"FIRST_BY_ID", "LEAST_LOADED", "ROUND_ROBIN"})
+    AssignmentPolicy policy;
+
+    EmergencyApp app;
+    int next;
+
+    @Setup(Level.Iteration)
+    public void setup() throws EmergencyException {
+        app = SyntheticRegistry.build(0, professionals, 1, Integer.MAX_VALUE);
+        app.setAssignmentPolicy(policy);
+        for (next = 0; next < activePatients; next++) admitAndAssign(next);
+    }
+
+    private String admitAndAssign(int i) throws EmergencyException {
+        SyntheticRegistry.addPatient(app, i);
+        try {
+            return app.assignPatientToProfessional(SyntheticRegistry.fiscalCode(i), SyntheticRegistry.specialization(i));
+        } catch (EmergencyException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public String assignPatientToProfessional() throws EmergencyException {
+        int i = next++;
+        String id = admitAndAssign(i);
+        app.dischargeOrHospitalize(SyntheticRegistry.fiscalCode(i - activePatients), SyntheticRegistry.department(0));
+        return id;
+    }
+}
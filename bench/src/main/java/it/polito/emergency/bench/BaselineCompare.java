@@ -0,0 +1,92 @@
+package it.polito.emergency.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares a CSV result file of {@link BenchmarkMain} with a baseline and
+ * exits with status 1 if any score got worse by more than the tolerance.
+ * Scores whose unit ends with {@code /op} (time or bytes per operation) are
+ * better when lower, the others (operations per time) when higher.
+ * Among the secondary results only the normalized allocation rate is compared.
+ * <p>
+ * Usage: {@code BaselineCompare baseline.csv results.csv [tolerance]}, the
+ * tolerance being a fraction (default 0.10).
+ */
+public class BaselineCompare {
+
+    private static final String ALLOCATION = ":gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineCompare baseline.csv results.csv [tolerance]");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+        Map<String, String[]> baseline = read(Path.of(args[0]));
+        Map<String, String[]> results = read(Path.of(args[1]));
+
+        int regressions = 0;
+        for (Map.Entry<String, String[]> e : results.entrySet()) {
+            String[] before = baseline.get(e.getKey());
+            if (before == null) continue;
+            String unit = e.getValue()[1];
+            double old = Double.parseDouble(before[0]);
+            double now = Double.parseDouble(e.getValue()[0]);
+            boolean lowerIsBetter = unit.endsWith("/op");
+            double change = old == 0 ? 0 : (now - old) / old;
+            boolean worse = lowerIsBetter ? change > tolerance : change < -tolerance;
+            System.out.printf("%s %-90s %14.3f -> %14.3f %s (%+.1f%%)%n",
+                              worse ? "!!" : "  ", e.getKey(), old, now, unit, 100 * change);
+            if (worse) regressions++;
+        }
+        System.out.println(regressions + " regression(s)");
+        if (regressions > 0) System.exit(1);
+    }
+
+    /**
+     * Reads a JMH CSV file.
+     *
+     * @return For every benchmark and parameter combination, its score and unit.
+     */
+    private static Map<String, String[]> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        List<String> header = fields(lines.get(0));
+        int score = header.indexOf("Score");
+        int unit = header.indexOf("Unit");
+        Map<String, String[]> rows = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) continue;
+            List<String> f = fields(line);
+            String name = f.get(0);
+            if (name.contains(":") && !name.endsWith(ALLOCATION)) continue;
+            StringBuilder key = new StringBuilder(name);
+            for (int i = unit + 1; i < f.size(); i++) {
+                if (!f.get(i).isEmpty()) key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(f.get(i));
+            }
+            rows.put(key.toString(), new String[] {f.get(score), f.get(unit)});
+        }
+        return rows;
+    }
+
+    private static List<String> fields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') quoted = !quoted;
+            else if (c == ',' && !quoted) {
+                fields.add(cur.toString());
+                cur.setLength(0);
+            } else cur.append(c);
+        }
+        fields.add(cur.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,153 @@
+package it.polito.emergency.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.polito.emergency.EmergencyApp;
+import it.polito.emergency.EmergencyApp.PatientStatus;
+import it.polito.emergency.EmergencyException;
+import it.polito.emergency.Patient;
+
+/**
+ * Batch admissions and discharges against the same work done one call at a
+ * time, on an in-memory and on a persistent registry. Every operation handles
+ * {@code batch} patients never seen before; they are prepared, and admitted
+ * for the discharge benchmarks, before the operation starts. The batches pay
+ * off most on the persistent registry, where they wait for the journal once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+
+    @Param({"1000"})
+    int batch;
+
+    @Param({"100000"})
+    int patients;
+
+    @Param({"20"})
+    int departments;
+
+    @Param({"false", "true"})
+    boolean persistent;
+
+    EmergencyApp app;
+    Path directory;
+    int next;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        if (persistent) {
+            directory = Files.createTempDirectory("emergency-bench");
+            app = EmergencyApp.open(directory);
+        } else {
+            app = new EmergencyApp();
+        }
+        SyntheticRegistry.fill(app, patients, 100, departments, patients / departments / 2);
+        next = patients;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        app.close();
+        if (directory == null) return;
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> {
+                try {
+                    Files.delete(f);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        directory = null;
+    }
+
+    /** The next batch of patients, not yet registered. */
+    @State(Scope.Benchmark)
+    public static class Admissions {
+        List<Patient> patients;
+
+        @Setup(Level.Invocation)
+        public void prepare(BatchBenchmark b) {
+            patients = new ArrayList<>(b.batch);
+            for (int k = 0; k < b.batch; k++, b.next++) {
+                int i = b.next;
+                patients.add(new Patient(SyntheticRegistry.fiscalCode(i), "1980-01-01", "Name" + i, "reason " + (i % 40),
+                                         PatientStatus.ADMITTED, SyntheticRegistry.surname(i), SyntheticRegistry.acceptanceDate(i)));
+            }
+        }
+    }
+
+    /** The next batch of patients, already admitted, and the departments requested for them. */
+    @State(Scope.Benchmark)
+    public static class Requests {
+        List<Map.Entry<String, String>> requests;
+
+        @Setup(Level.Invocation)
+        public void prepare(BatchBenchmark b) {
+            requests = new ArrayList<>(b.batch);
+            for (int k = 0; k < b.batch; k++, b.next++) {
+                int i = b.next;
+                SyntheticRegistry.addPatient(b.app, i);
+                requests.add(Map.entry(SyntheticRegistry.fiscalCode(i), SyntheticRegistry.department(i % b.departments)));
+            }
+        }
+    }
+
+    @Benchmark
+    public int addPatientLoop(Admissions batch) {
+        int n = 0;
+        for (Patient p : batch.patients) {
+            app.addPatient(p.getFiscalCode(), p.getName(), p.getSurname(), p.getDateOfBirth(), p.getReason(), p.getDateTimeAccepted());
+            n++;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int addPatients(Admissions batch) {
+        return app.addPatients(batch.patients).size();
+    }
+
+    @Benchmark
+    public int dischargeOrHospitalizeLoop(Requests batch) throws EmergencyException {
+        int n = 0;
+        for (Map.Entry<String, String> r : batch.requests) {
+            app.dischargeOrHospitalize(r.getKey(), r.getValue());
+            n++;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int dischargeOrHospitalizeAll(Requests batch) {
+        return app.dischargeOrHospitalizeAll(batch.requests).size();
+    }
+}
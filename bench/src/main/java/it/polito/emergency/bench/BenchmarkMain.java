@@ -0,0 +1,28 @@
+package it.polito.emergency.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so that every score comes with
+ * its allocation rate, and writes the results as CSV.
+ * The usual JMH command line options are accepted, for instance
+ * {@code -p patients=100000} to change the size of the datasets.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                        .parent(cmd)
+                        .include(cmd.getIncludes().isEmpty() ? "it\\.polito\\.emergency\\.bench\\..*" : cmd.getIncludes().get(0))
+                        .addProfiler(GCProfiler.class)
+                        .resultFormat(cmd.getResultFormat().orElse(ResultFormatType.CSV))
+                        .result(cmd.getResult().orElse("bench/results.csv"))
+                        .build())
+            .run();
+    }
+}
@@ -0,0 +1,87 @@
+package it.polito.emergency.bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.polito.emergency.EmergencyApp;
+
+/**
+ * Loading professionals and departments, through the Reader-based readers
+ * and through the parallel bulk readers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvBenchmark {
+
+    @Param({"100000"})
+    int professionals;
+
+    @Param({"1000"})
+    int departments;
+
+    String professionalsCsv;
+    String departmentsCsv;
+    Path professionalsFile;
+    Path departmentsFile;
+
+    @Setup
+    public void setup() throws IOException {
+        professionalsCsv = SyntheticRegistry.professionalsCsv(professionals);
+        departmentsCsv = SyntheticRegistry.departmentsCsv(departments, 20);
+        professionalsFile = Files.createTempFile("professionals", ".csv");
+        departmentsFile = Files.createTempFile("departments", ".csv");
+        Files.writeString(professionalsFile, professionalsCsv);
+        Files.writeString(departmentsFile, departmentsCsv);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(professionalsFile);
+        Files.deleteIfExists(departmentsFile);
+    }
+
+    @Benchmark
+    public int readFromFileProfessionals() throws IOException {
+        return new EmergencyApp().readFromFileProfessionals(new StringReader(professionalsCsv));
+    }
+
+    @Benchmark
+    public int readFromFileProfessionalsBulk() throws IOException {
+        return new EmergencyApp().readFromFileProfessionals(professionalsFile, false);
+    }
+
+    @Benchmark
+    public int readFromFileProfessionalsMapped() throws IOException {
+        return new EmergencyApp().readFromFileProfessionals(professionalsFile, true);
+    }
+
+    @Benchmark
+    public int readFromFileDepartments() throws IOException {
+        return new EmergencyApp().readFromFileDepartments(new StringReader(departmentsCsv));
+    }
+
+    @Benchmark
+    public int readFromFileDepartmentsBulk() throws IOException {
+        return new EmergencyApp().readFromFileDepartments(departmentsFile, false);
+    }
+}
@@ -0,0 +1,68 @@
+package it.polito.emergency.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.polito.emergency.EmergencyApp;
+import it.polito.emergency.EmergencyException;
+
+/**
+ * Patients per second handled by 16 reception desks sharing a registry:
+ * each one admits a patient, assigns it, writes its report and discharges or
+ * hospitalizes it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class DeskBenchmark {
+
+    @Param({"1000"})
+    int professionals;
+
+    @Param({"20"})
+    int departments;
+
+    EmergencyApp app;
+    AtomicInteger next;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        app = SyntheticRegistry.build(0, professionals, departments, 1000);
+        next = new AtomicInteger();
+    }
+
+    @Benchmark
+    public int patient() throws EmergencyException {
+        int i = next.getAndIncrement();
+        String fiscalCode = SyntheticRegistry.fiscalCode(i);
+        SyntheticRegistry.addPatient(app, i);
+        String professionalId;
+        try {
+            professionalId = app.assignPatientToProfessional(fiscalCode, SyntheticRegistry.specialization(i));
+        } catch (EmergencyException e) {
+            // nobody in service on the day of the patient
+            professionalId = String.format("%08d", i % professionals);
+        }
+        app.saveReport(professionalId, fiscalCode, SyntheticRegistry.acceptanceDate(i), "report of the visit");
+        app.dischargeOrHospitalize(fiscalCode, SyntheticRegistry.department(i % departments));
+        return app.verifyPatient(fiscalCode);
+    }
+}
@@ -0,0 +1,68 @@
+package it.polito.emergency.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import it.polito.emergency.EmergencyApp;
+import it.polito.emergency.EmergencyApp.BackpressurePolicy;
+import it.polito.emergency.Patient;
+
+/**
+ * Latency that publishing the change events adds to an admission.
+ * {@code NONE} has no listener, so nothing is published; the other cases
+ * have a listener that consumes about {@code listenerNanos} per event, under
+ * each backpressure policy. With a listener slower than the admissions,
+ * {@code DROP} must stay close to {@code NONE} while {@code BLOCK} follows the listener.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventBenchmark {
+
+    @Param({"NONE", "BLOCK", "DROP"})
+    String listener;
+
+    @Param({"100", "10000"})
+    long listenerNanos;
+
+    EmergencyApp app;
+    int next;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        app = SyntheticRegistry.build(0, 10, 1, 10);
+        next = 0;
+        if (listener.equals("NONE")) return;
+        app.setBackpressurePolicy(BackpressurePolicy.valueOf(listener));
+        app.subscribe(events -> Blackhole.consumeCPU(events.size() * listenerNanos / 4));
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        app.close();
+    }
+
+    @Benchmark
+    public Patient addPatient() {
+        int i = next++;
+        return app.addPatient(SyntheticRegistry.fiscalCode(i), "Name", SyntheticRegistry.surname(i),
+                              "1980-01-01", "reason", SyntheticRegistry.acceptanceDate(i));
+    }
+}
@@ -0,0 +1,82 @@
+package it.polito.emergency.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.polito.emergency.EmergencyException;
+import it.polito.emergency.EmergencyNetwork;
+
+/**
+ * Throughput of admissions followed by an assignment on a network of
+ * {@code sites} sites, one thread each. Every invocation submits
+ * {@value #BATCH} patients and waits for all of them, so the throughput
+ * should grow with the sites until they run out of processors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetworkBenchmark {
+
+    static final int BATCH = 1000;
+
+    @Param({"1", "2", "4", "8"})
+    int sites;
+
+    @Param({"600"})
+    int professionals;
+
+    EmergencyNetwork network;
+    int next;
+
+    @Setup(Level.Iteration)
+    public void setup() throws EmergencyException {
+        List<String> names = new ArrayList<>();
+        for (int s = 0; s < sites; s++) names.add("Site" + s);
+        network = new EmergencyNetwork(names, 1);
+        // the professionals are spread over the sites, so some assignments go to a neighbour
+        for (int s = 0; s < sites; s++) {
+            SyntheticRegistry.fill(network.getSite(names.get(s)), 0, Math.max(1, professionals / sites), 0, 0);
+        }
+        next = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        network.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void admitAndAssign() {
+        CompletableFuture<?>[] done = new CompletableFuture<?>[BATCH];
+        for (int k = 0; k < BATCH; k++) {
+            int i = next++;
+            String fiscalCode = SyntheticRegistry.fiscalCode(i);
+            done[k] = network.addPatient(fiscalCode, "Name" + i, SyntheticRegistry.surname(i), "1980-01-01",
+                                         "reason", SyntheticRegistry.acceptanceDate(i))
+                             .thenCompose(p -> network.assignPatientToProfessional(fiscalCode, SyntheticRegistry.specialization(i)))
+                             .exceptionally(e -> null);
+        }
+        CompletableFuture.allOf(done).join();
+    }
+}
@@ -0,0 +1,120 @@
+package it.polito.emergency.bench;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.polito.emergency.Period;
+import it.polito.emergency.Professional;
+
+/**
+ * Availability checks of professionals with one or more shifts each.
+ * Run through {@link BenchmarkMain}, {@code gc.alloc.rate.norm} must be 0
+ * for {@code isInServicePeriod} and {@code isInServiceDay}, and for
+ * {@code isInServiceText} once the query periods are cached.
+ * {@code parseEveryTime} parses the period on each call, as done before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PeriodBenchmark {
+
+    @Param({"10000"})
+    int professionals;
+
+    @Param({"1", "4"})
+    int shifts;
+
+    Professional[] staff;
+    String[] queryTexts;
+    Period[] queries;
+    long[] days;
+    int next;
+
+    @Setup
+    public void setup() {
+        staff = new Professional[professionals];
+        for (int i = 0; i < professionals; i++) {
+            StringBuilder period = new StringBuilder();
+            for (int s = 0; s < shifts; s++) {
+                LocalDate start = SyntheticRegistry.FIRST_DAY.plusDays((i * 7L + s * 90L) % SyntheticRegistry.DAYS);
+                if (s > 0) period.append("; ");
+                period.append(start).append(" to ").append(start.plusDays(20 + i % 40));
+            }
+            staff[i] = new Professional(String.format("%08d", i), "Name" + i, period.toString(),
+                                        SyntheticRegistry.specialization(i), "Surname" + i, "24");
+        }
+        queryTexts = new String[SyntheticRegistry.DAYS];
+        queries = new Period[SyntheticRegistry.DAYS];
+        days = new long[SyntheticRegistry.DAYS];
+        for (int d = 0; d < SyntheticRegistry.DAYS; d++) {
+            LocalDate start = SyntheticRegistry.FIRST_DAY.plusDays(d);
+            queryTexts[d] = start + " to " + start.plusDays(3);
+            queries[d] = Period.parse(queryTexts[d]);
+            days[d] = start.toEpochDay();
+        }
+    }
+
+    private int nextQuery() {
+        int q = next;
+        next = q + 1 == SyntheticRegistry.DAYS ? 0 : q + 1;
+        return q;
+    }
+
+    @Benchmark
+    public int isInServicePeriod() {
+        Period period = queries[nextQuery()];
+        int count = 0;
+        for (Professional p : staff) {
+            if (p.isInService(period)) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int isInServiceDay() {
+        long day = days[nextQuery()];
+        int count = 0;
+        for (Professional p : staff) {
+            if (p.isInService(day)) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int isInServiceText() {
+        String period = queryTexts[nextQuery()];
+        int count = 0;
+        for (Professional p : staff) {
+            if (p.isInService(period)) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int parseEveryTime() {
+        String period = queryTexts[nextQuery()];
+        int count = 0;
+        for (Professional p : staff) {
+            String[] tokens = period.split("\\s*to\\s*");
+            long from = LocalDate.parse(tokens[0]).toEpochDay();
+            long to = LocalDate.parse(tokens[1]).toEpochDay();
+            if (p.isInService(from) && p.isInService(to)) count++;
+        }
+        return count;
+    }
+}
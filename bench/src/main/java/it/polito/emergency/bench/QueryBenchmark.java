@@ -0,0 +1,118 @@
+package it.polito.emergency.bench;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.polito.emergency.EmergencyApp;
+import it.polito.emergency.EmergencyException;
+import it.polito.emergency.Patient;
+
+/**
+ * Read-only operations of a populated registry: patient lookups,
+ * professional assignment, the R5 statistics and the forecasts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({"10000", "1000000"})
+    int patients;
+
+    @Param({"1000", "50000"})
+    int professionals;
+
+    @Param({"20"})
+    int departments;
+
+    EmergencyApp app;
+
+    @Setup
+    public void setup() throws EmergencyException {
+        app = SyntheticRegistry.build(patients, professionals, departments, patients);
+        // a tenth of the patients leave the emergency room, so that the counters have something to count
+        for (int i = 0; i < patients; i += 10) {
+            app.dischargeOrHospitalize(SyntheticRegistry.fiscalCode(i), SyntheticRegistry.department(i % departments));
+        }
+    }
+
+    private int randomPatient() {
+        return ThreadLocalRandom.current().nextInt(patients);
+    }
+
+    @Benchmark
+    public List<Patient> getPatientByFiscalCode() throws EmergencyException {
+        return app.getPatient(SyntheticRegistry.fiscalCode(randomPatient()));
+    }
+
+    @Benchmark
+    public List<Patient> getPatientBySurname() throws EmergencyException {
+        return app.getPatient(SyntheticRegistry.surname(randomPatient()));
+    }
+
+    @Benchmark
+    public List<String> getPatientsByDate() {
+        return app.getPatientsByDate(SyntheticRegistry.acceptanceDate(randomPatient()));
+    }
+
+    @Benchmark
+    public String assignPatientToProfessional() {
+        int i = randomPatient();
+        try {
+            return app.assignPatientToProfessional(SyntheticRegistry.fiscalCode(i), SyntheticRegistry.specialization(i));
+        } catch (EmergencyException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public int getNumberOfPatients() {
+        return app.getNumberOfPatients();
+    }
+
+    @Benchmark
+    public int getNumberOfPatientsByDate() {
+        return app.getNumberOfPatientsByDate(SyntheticRegistry.acceptanceDate(randomPatient()));
+    }
+
+    @Benchmark
+    public int getNumberOfPatientsHospitalizedByDepartment() throws EmergencyException {
+        return app.getNumberOfPatientsHospitalizedByDepartment(SyntheticRegistry.department(randomPatient() % departments));
+    }
+
+    @Benchmark
+    public int getNumberOfPatientsDischarged() {
+        return app.getNumberOfPatientsDischarged();
+    }
+
+    @Benchmark
+    public int getNumberOfPatientsAssignedToProfessionalDischarged() {
+        return app.getNumberOfPatientsAssignedToProfessionalDischarged(SyntheticRegistry.specialization(randomPatient()));
+    }
+
+    @Benchmark
+    public double getHoursUntilFull() throws EmergencyException {
+        return app.getHoursUntilFull(SyntheticRegistry.department(randomPatient() % departments));
+    }
+
+    @Benchmark
+    public double getExpectedAdmissions() {
+        return app.getExpectedAdmissions("reason " + (randomPatient() % 40));
+    }
+}
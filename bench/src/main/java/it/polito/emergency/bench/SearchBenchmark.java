@@ -0,0 +1,95 @@
+package it.polito.emergency.bench;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.polito.emergency.EmergencyApp;
+import it.polito.emergency.EmergencyException;
+import it.polito.emergency.Report;
+
+/**
+ * Full-text searches over the report descriptions and the admission reasons:
+ * a rare word together with a common one, alternatives with a prefix, and
+ * an exclusion, each over a month of data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class SearchBenchmark {
+
+    static final String[] WORDS = {
+        "fracture", "sprain", "wrist", "ankle", "pain", "fever", "suspected", "confirmed", "left", "right"
+    };
+
+    @Param({"1000000", "10000000"})
+    int reports;
+
+    @Param({"100000"})
+    int patients;
+
+    EmergencyApp app;
+
+    @Setup
+    public void setup() throws EmergencyException {
+        app = SyntheticRegistry.build(patients, 100, 1, 0);
+        String professional = app.getProfessionals(SyntheticRegistry.specialization(0)).get(0);
+        for (int i = 0; i < reports; i++) {
+            // word k appears in about one report in k + 1
+            StringBuilder description = new StringBuilder("report");
+            for (int k = 0; k < WORDS.length; k++) {
+                if (i % (k + 1) == 0 && (i / 7 + k) % 3 != 0) description.append(' ').append(WORDS[k]);
+            }
+            app.saveReport(professional, SyntheticRegistry.fiscalCode(i % patients),
+                           SyntheticRegistry.acceptanceDate(i), description.toString());
+        }
+    }
+
+    private String month() {
+        return SyntheticRegistry.FIRST_DAY.plusMonths(ThreadLocalRandom.current().nextInt(11)).toString();
+    }
+
+    private String monthEnd(String start) {
+        return LocalDate.parse(start).plusMonths(1).minusDays(1).toString();
+    }
+
+    @Benchmark
+    public List<Report> rareAndCommon() {
+        String from = month();
+        return app.searchReports("right fracture", from, monthEnd(from), 100);
+    }
+
+    @Benchmark
+    public List<Report> prefixAlternatives() {
+        String from = month();
+        return app.searchReports("sprain* ankle OR conf* left", from, monthEnd(from), 100);
+    }
+
+    @Benchmark
+    public List<Report> exclusion() {
+        String from = month();
+        return app.searchReports("pain -fever", from, monthEnd(from), 100);
+    }
+
+    @Benchmark
+    public List<String> patientsByReason() {
+        String from = month();
+        return app.searchPatientsByReason("reason 3*", from, monthEnd(from), 100);
+    }
+}
@@ -0,0 +1,103 @@
+package it.polito.emergency.bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalDate;
+
+import it.polito.emergency.EmergencyApp;
+
+/**
+ * Builds emergency registries filled with deterministic synthetic data.
+ * Patient {@code i} has fiscal code {@link #fiscalCode(int)}, professionals and
+ * departments are loaded through the CSV readers.
+ */
+public class SyntheticRegistry {
+
+    static final String[] SPECIALIZATIONS = {
+        "Cardiology", "Orthopedics", "Neurology", "Pediatrics", "Surgery", "Radiology"
+    };
+    static final LocalDate FIRST_DAY = LocalDate.of(2024, 1, 1);
+    static final int DAYS = 365;
+
+    private SyntheticRegistry() {
+    }
+
+    static String fiscalCode(int i) {
+        return String.format("FC%010d", i);
+    }
+
+    static String surname(int i) {
+        return "Surname" + (i % 5000);
+    }
+
+    static String acceptanceDate(int i) {
+        return FIRST_DAY.plusDays(i % DAYS).toString();
+    }
+
+    static String specialization(int i) {
+        return SPECIALIZATIONS[i % SPECIALIZATIONS.length];
+    }
+
+    static String department(int i) {
+        return "Department" + i;
+    }
+
+    /**
+     * @param n Number of professionals.
+     * @return A professionals CSV file, header included.
+     */
+    static String professionalsCsv(int n) {
+        StringBuilder sb = new StringBuilder("id,name,surname,specialization,period,\n");
+        for (int i = 0; i < n; i++) {
+            LocalDate start = FIRST_DAY.plusDays((i * 7L) % DAYS);
+            LocalDate end = start.plusDays(30 + i % 60);
+            sb.append(String.format("%08d", i)).append(",Name").append(i).append(",Surname").append(i)
+              .append(',').append(specialization(i)).append(',').append(start).append(" to ").append(end).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param n Number of departments.
+     * @param beds Beds of each department.
+     * @return A departments CSV file, header included.
+     */
+    static String departmentsCsv(int n, int beds) {
+        StringBuilder sb = new StringBuilder("departmentName,maxPatients\n");
+        for (int i = 0; i < n; i++) sb.append(department(i)).append(',').append(beds).append('\n');
+        return sb.toString();
+    }
+
+    static void addPatient(EmergencyApp app, int i) {
+        app.addPatient(fiscalCode(i), "Name" + i, surname(i), "1980-01-01", "reason " + (i % 40), acceptanceDate(i));
+    }
+
+    /**
+     * Builds a registry.
+     *
+     * @param patients Number of admitted patients.
+     * @param professionals Number of professionals.
+     * @param departments Number of departments.
+     * @param beds Beds of each department.
+     * @return The registry.
+     */
+    static EmergencyApp build(int patients, int professionals, int departments, int beds) {
+        return fill(new EmergencyApp(), patients, professionals, departments, beds);
+    }
+
+    /**
+     * Fills an empty registry, as {@link #build(int, int, int, int)} does.
+     *
+     * @return The registry.
+     */
+    static EmergencyApp fill(EmergencyApp app, int patients, int professionals, int departments, int beds) {
+        try {
+            app.readFromFileProfessionals(new StringReader(professionalsCsv(professionals)));
+            app.readFromFileDepartments(new StringReader(departmentsCsv(departments, beds)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < patients; i++) addPatient(app, i);
+        return app;
+    }
+}
@@ -0,0 +1,72 @@
+package it.polito.emergency.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.polito.emergency.EmergencyApp;
+import it.polito.emergency.EmergencyException;
+
+/**
+ * Writing a whole registry with {@code exportRegistry} and loading it back
+ * with {@code importRegistry}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class TransferBenchmark {
+
+    @Param({"1000000", "10000000"})
+    int patients;
+
+    @Param({"10000"})
+    int professionals;
+
+    @Param({"100"})
+    int departments;
+
+    EmergencyApp app;
+    Path file;
+
+    @Setup
+    public void setup() throws IOException, EmergencyException {
+        app = SyntheticRegistry.build(patients, professionals, departments, patients / departments / 2);
+        for (int i = 0; i < patients; i += 4) {
+            app.dischargeOrHospitalize(SyntheticRegistry.fiscalCode(i), SyntheticRegistry.department(i % departments));
+        }
+        file = Files.createTempFile("registry", ".bin");
+        app.exportRegistry(file);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void exportRegistry() throws IOException {
+        app.exportRegistry(file);
+    }
+
+    @Benchmark
+    public EmergencyApp importRegistry() throws IOException {
+        return EmergencyApp.importRegistry(file);
+    }
+}
@@ -0,0 +1,74 @@
+package it.polito.emergency.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.polito.emergency.EmergencyApp;
+import it.polito.emergency.EmergencyException;
+import it.polito.emergency.Patient;
+import it.polito.emergency.Report;
+
+/**
+ * Operations that change the registry. The registry is rebuilt before every
+ * iteration, so each iteration starts from the same population.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateBenchmark {
+
+    @Param({"10000", "1000000"})
+    int patients;
+
+    @Param({"1000"})
+    int professionals;
+
+    @Param({"20"})
+    int departments;
+
+    EmergencyApp app;
+    int next;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        app = SyntheticRegistry.build(patients, professionals, departments, patients / departments / 2);
+        next = 0;
+    }
+
+    @Benchmark
+    public Patient addPatient() {
+        int i = patients + next++;
+        return app.addPatient(SyntheticRegistry.fiscalCode(i), "Name", SyntheticRegistry.surname(i),
+                              "1980-01-01", "reason", SyntheticRegistry.acceptanceDate(i));
+    }
+
+    @Benchmark
+    public int dischargeOrHospitalize() throws EmergencyException {
+        int i = next++ % patients;
+        String fiscalCode = SyntheticRegistry.fiscalCode(i);
+        app.dischargeOrHospitalize(fiscalCode, SyntheticRegistry.department(i % departments));
+        return app.verifyPatient(fiscalCode);
+    }
+
+    @Benchmark
+    public Report saveReport() throws EmergencyException {
+        int i = next++ % patients;
+        return app.saveReport(String.format("%08d", i % professionals), SyntheticRegistry.fiscalCode(i),
+                              SyntheticRegistry.acceptanceDate(i), "report of the visit");
+    }
+}
@@ -0,0 +1,63 @@
+package it.polito.emergency;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Daily admissions, in total and for each reason, by acceptance date.
+ * The days are those of the patients, not of the clock: the forecast is for
+ * the day after the latest acceptance date recorded.
+ * A patient without a reason counts under the empty reason. The number of
+ * reasons is capped: once it is reached, the admissions for new reasons only
+ * count in the total.
+ */
+class AdmissionForecast {
+
+    /** Number of days kept by each series. */
+    static final int DAYS = 90;
+    /** Number of days the forecast mostly averages. */
+    static final int SPAN = 7;
+    /** Maximum number of reasons with a series of their own. */
+    static final int MAX_REASONS = 1 << 12;
+
+    private final TimeSeries total = new TimeSeries(DAYS, SPAN);
+    private final Map<String, TimeSeries> byReason = new ConcurrentHashMap<>();
+
+    /**
+     * Records the admission of a patient.
+     *
+     * @param patient The patient.
+     */
+    void admitted(Patient patient) {
+        long day = patient.getAcceptanceEpochDay();
+        total.add(day, 1);
+        String reason = patient.getReason() == null ? "" : patient.getReason();
+        TimeSeries s = byReason.get(reason);
+        if (s == null) {
+            if (byReason.size() >= MAX_REASONS) return;
+            s = byReason.computeIfAbsent(reason, r -> new TimeSeries(DAYS, SPAN));
+        }
+        s.add(day, 1);
+    }
+
+    /**
+     * @param reason A reason, or null for all the admissions.
+     * @return The expected admissions on the day after the latest acceptance date.
+     */
+    double expected(String reason) {
+        TimeSeries s = reason == null ? total : byReason.get(reason);
+        long latest = total.latest();
+        return s == null || latest == Long.MIN_VALUE ? 0 : s.forecast(latest);
+    }
+
+    /**
+     * @param reason A reason, or null for all the admissions.
+     * @param days The number of days, up to the latest acceptance date included.
+     * @return The average daily admissions over those days.
+     */
+    double average(String reason, int days) {
+        TimeSeries s = reason == null ? total : byReason.get(reason);
+        long latest = total.latest();
+        return s == null || latest == Long.MIN_VALUE ? 0 : s.movingAverage(latest + 1, days);
+    }
+}
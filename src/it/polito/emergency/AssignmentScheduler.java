@@ -0,0 +1,134 @@
+package it.polito.emergency;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.polito.emergency.EmergencyApp.AssignmentPolicy;
+
+/**
+ * Chooses the professional a patient is assigned to.
+ * Besides the availability index it keeps, for every specialization, the
+ * professionals ordered by active caseload (the assigned patients still
+ * waiting in the emergency room). The ordering holds immutable snapshots of
+ * the caseloads: when a caseload changes, the new snapshot is added before
+ * the stale one is removed, in O(log n), so a professional never leaves the
+ * ordering. The least loaded professional in service is the first of the
+ * ordering that is available on the day; after {@link #WALK} professionals
+ * out of service, the ones in service are taken from the index instead.
+ */
+class AssignmentScheduler {
+
+    /** Number of professionals of the ordering visited before asking the index. */
+    static final int WALK = 32;
+
+    private static final Comparator<Load> BY_LOAD = Comparator.<Load>comparingInt(l -> l.caseload)
+                                                              .thenComparing(l -> l.professional.getId());
+
+    private final ProfessionalIndex index;
+    private final Map<String, NavigableSet<Load>> byLoad = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<Professional, Load> loads = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> turns = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+    private volatile AssignmentPolicy policy = AssignmentPolicy.FIRST_BY_ID;
+
+    AssignmentScheduler(ProfessionalIndex index) {
+        this.index = index;
+    }
+
+    void setPolicy(AssignmentPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Registers a professional; its caseload changes are tracked from now on.
+     */
+    void add(Professional professional) {
+        NavigableSet<Load> set = byLoad.computeIfAbsent(professional.getSpecialization(),
+                                                        s -> new ConcurrentSkipListSet<>(BY_LOAD));
+        synchronized (professional) {
+            Load load = new Load(professional);
+            set.add(load);
+            loads.put(professional, load);
+            professional.attach(this);
+        }
+    }
+
+    /**
+     * Unregisters a professional.
+     */
+    void remove(Professional professional) {
+        synchronized (professional) {
+            professional.attach(null);
+            Load load = loads.remove(professional);
+            NavigableSet<Load> set = byLoad.get(professional.getSpecialization());
+            if (set != null && load != null) set.remove(load);
+        }
+    }
+
+    /**
+     * Called by the professional, holding its lock, right after its caseload changed.
+     */
+    void loadChanged(Professional professional) {
+        NavigableSet<Load> set = byLoad.get(professional.getSpecialization());
+        Load stale = loads.get(professional);
+        if (set == null || stale == null || stale.caseload == professional.getActiveCaseload()) return;
+        Load fresh = new Load(professional);
+        set.add(fresh);
+        loads.put(professional, fresh);
+        set.remove(stale);
+    }
+
+    /**
+     * Chooses a professional in service on a day, according to the current policy.
+     *
+     * @param specialization The specialization, compared ignoring case.
+     * @param day The day, as an epoch day.
+     * @return The professional, or {@code null} if no one is in service.
+     */
+    Professional select(String specialization, long day) {
+        switch (policy) {
+            case LEAST_LOADED: {
+                NavigableSet<Load> set = byLoad.get(specialization);
+                if (set == null) return null;
+                int visited = 0;
+                for (Load l : set) {
+                    if (l.professional.isInService(day)) return l.professional;
+                    if (++visited == WALK) break;
+                }
+                // few are in service, or one was moved behind the walk while it was running
+                Professional best = null;
+                for (Professional p : index.getInService(specialization, day)) {
+                    if (best == null || p.getActiveCaseload() < best.getActiveCaseload()) best = p;
+                }
+                return best;
+            }
+            case ROUND_ROBIN: {
+                List<Professional> candidates = index.getInService(specialization, day);
+                if (candidates.isEmpty()) return null;
+                int turn = turns.computeIfAbsent(specialization, s -> new AtomicInteger())
+                                .getAndIncrement();
+                return candidates.get(Math.floorMod(turn, candidates.size()));
+            }
+            default:
+                return index.getFirstInService(specialization, day);
+        }
+    }
+
+    /**
+     * The caseload of a professional when it was last changed.
+     */
+    private static final class Load {
+        final int caseload;
+        final Professional professional;
+
+        Load(Professional professional) {
+            this.caseload = professional.getActiveCaseload();
+            this.professional = professional;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package it.polito.emergency;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * The departments of the hospital and the beds of their patients.
+ * It remembers where each hospitalized or waiting patient is, so a bed is
+ * released and a wait is withdrawn knowing only the patient.
+ */
+class BedManager {
+
+    /** The outcome of a request for a bed. */
+    enum Claim {
+        /** The patient got a bed. */
+        GRANTED,
+        /** The department is full. */
+        FULL,
+        /** The patient already has a bed, and keeps it. */
+        HELD
+    }
+
+    private final Map<String, Department> departments = new ConcurrentHashMap<>();
+    private final Map<String, Department> beds = new ConcurrentHashMap<>();
+    private final Map<String, Department> waiting = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a department, or changes the capacity of an existing one.
+     *
+     * @return The department.
+     */
+    Department add(String name, int capacity) {
+        Department d = departments.computeIfAbsent(name, n -> new Department(n, capacity));
+        d.setCapacity(capacity);
+        return d;
+    }
+
+    Department get(String name) {
+        return departments.get(name);
+    }
+
+    Set<String> names() {
+        return departments.keySet();
+    }
+
+    Map<String, Department> all() {
+        return departments;
+    }
+
+    /**
+     * @return The department of each hospitalized patient, by fiscal code.
+     */
+    Map<String, Department> beds() {
+        return beds;
+    }
+
+    /**
+     * @return The department where the patient has a bed, or null.
+     */
+    Department bedOf(Patient patient) {
+        return beds.get(patient.getFiscalCode());
+    }
+
+    /**
+     * Gives a free bed of a department to a patient. The bed is claimed
+     * atomically: if the patient got a bed meanwhile, the one just taken
+     * is given back.
+     *
+     * @return The outcome of the request.
+     */
+    Claim tryOccupy(Patient patient, Department department) {
+        if (!department.tryOccupy()) return bedOf(patient) != null ? Claim.HELD : Claim.FULL;
+        if (beds.putIfAbsent(patient.getFiscalCode(), department) == null) return Claim.GRANTED;
+        department.cancelOccupy(1);
+        return Claim.HELD;
+    }
+
+    /**
+     * Gives the free beds of a department to the first of several patients,
+     * updating the occupancy once. The beds taken for patients that got one
+     * meanwhile go to the patients after them, or are given back.
+     *
+     * @return The outcome of the request of each patient, in the same order.
+     */
+    Claim[] tryOccupy(List<Patient> patients, Department department) {
+        int granted = department.tryOccupy(patients.size());
+        Claim[] claims = new Claim[patients.size()];
+        int given = 0;
+        for (int i = 0; i < claims.length; i++) {
+            String fiscalCode = patients.get(i).getFiscalCode();
+            if (given < granted && beds.putIfAbsent(fiscalCode, department) == null) {
+                claims[i] = Claim.GRANTED;
+                given++;
+            } else {
+                claims[i] = beds.containsKey(fiscalCode) ? Claim.HELD : Claim.FULL;
+            }
+        }
+        if (given < granted) department.cancelOccupy(granted - given);
+        return claims;
+    }
+
+    /**
+     * Gives a free bed of a department to a patient, or puts the patient in its waitlist.
+     *
+     * @return The outcome of the request; {@link Claim#FULL} if the patient is waiting.
+     */
+    Claim occupyOrWait(Patient patient, Department department) {
+        // registered first, so a release can never hand a bed to an unknown waiter
+        waiting.put(patient.getFiscalCode(), department);
+        if (department.occupyOrWait(patient)) {
+            waiting.remove(patient.getFiscalCode(), department);
+            if (beds.putIfAbsent(patient.getFiscalCode(), department) == null) return Claim.GRANTED;
+            department.cancelOccupy(1);
+            return Claim.HELD;
+        }
+        return Claim.FULL;
+    }
+
+    /**
+     * Releases the bed of a patient, handing it to the first waiting patient, if any.
+     * The bed is taken away atomically, so it is released once.
+     *
+     * @param patient The patient.
+     * @param next Receives the patient that got the bed, if any.
+     * @return The department of the bed, or null if the patient has no bed,
+     *         e.g. because it has already been released.
+     */
+    Department release(Patient patient, Consumer<Patient> next) {
+        Department d = beds.remove(patient.getFiscalCode());
+        if (d == null) return null;
+        Patient waiter = d.release();
+        if (waiter != null) {
+            moved(waiter, d);
+            next.accept(waiter);
+        }
+        return d;
+    }
+
+    /**
+     * Gives the new beds of a department to the patients waiting for it.
+     *
+     * @param admitted Receives each patient that got a bed.
+     */
+    void admitWaiting(Department department, Consumer<Patient> admitted) {
+        Patient next;
+        while ((next = department.admitWaiting()) != null) {
+            moved(next, department);
+            admitted.accept(next);
+        }
+    }
+
+    /**
+     * Withdraws the patient from the waitlist it is in, if any.
+     */
+    void leaveWaitlist(Patient patient) {
+        Department d = waiting.remove(patient.getFiscalCode());
+        if (d != null) d.leaveWaitlist(patient);
+    }
+
+    // restoring recorded events, see EmergencyApp.Recovery
+
+    void occupy(Patient patient, Department department) {
+        department.occupy();
+        beds.put(patient.getFiscalCode(), department);
+    }
+
+    void enqueue(Patient patient, Department department) {
+        waiting.put(patient.getFiscalCode(), department);
+        department.enqueue(patient);
+    }
+
+    void release(Patient patient, Patient next) {
+        Department d = beds.remove(patient.getFiscalCode());
+        if (d == null) return;
+        if (next == null) {
+            d.vacate();
+        } else {
+            d.handOver(next);
+            moved(next, d);
+        }
+    }
+
+    private void moved(Patient patient, Department department) {
+        waiting.remove(patient.getFiscalCode(), department);
+        beds.put(patient.getFiscalCode(), department);
+    }
+}
@@ -0,0 +1,447 @@
+package it.polito.emergency;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only columnar copy of the registry, written by
+ * {@link EmergencyApp#exportColumns(Path)}, with a small scan engine.
+ * <p>
+ * The file can be memory mapped, so opening it costs only the parsing of the
+ * dictionaries; the int columns are then read in place, each through its own
+ * mapping, so the file may exceed the 2 GB of a single buffer. A query filters the
+ * rows with ranges and sets of values and counts them by group: the filters
+ * on strings are turned into sets of dictionary codes beforehand and the
+ * groups into a dense array of counters, so the scan is a tight loop over
+ * int arrays, run in parallel over chunks of rows.
+ * <pre>
+ * ColumnStore store = ColumnStore.open(file, true);
+ * Map&lt;List&lt;Object&gt;, Long&gt; weekly = store.table("patients").query()
+ *         .between("acceptance_day", from, to)
+ *         .groupBy("reason")
+ *         .groupBy("acceptance_day", 7)
+ *         .count();
+ * </pre>
+ */
+public class ColumnStore {
+
+    private static final int CHUNK = 1 << 16;
+    // above this number of groups the counters are kept in a map
+    private static final int DENSE_GROUPS = 1 << 20;
+
+    private final Map<String, Table> tables = new LinkedHashMap<>();
+
+    private ColumnStore() {
+    }
+
+    /**
+     * Opens a file written by {@link EmergencyApp#exportColumns(Path)}.
+     *
+     * @param file The file.
+     * @param memoryMapped true to map the file instead of reading it in memory.
+     * @return The store.
+     * @throws IOException If the file cannot be read or is not a columnar export.
+     */
+    public static ColumnStore open(Path file, boolean memoryMapped) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            Input in = new Input(ch, memoryMapped);
+            if (in.getInt() != ColumnarWriter.MAGIC) throw new IOException("Not a columnar export: " + file);
+            if (in.getInt() != ColumnarWriter.VERSION) throw new IOException("Unsupported columnar export version: " + file);
+            ColumnStore store = new ColumnStore();
+            for (int t = in.getInt(); t > 0; t--) {
+                Table table = new Table(in.getString(), in.getInt());
+                for (int c = in.getInt(); c > 0; c--) {
+                    Column col = readColumn(in, table.rows);
+                    table.columns.put(col.name, col);
+                }
+                store.tables.put(table.name, table);
+            }
+            return store;
+        }
+    }
+
+    private static Column readColumn(Input in, int rows) throws IOException {
+        String name = in.getString();
+        byte type = in.getByte();
+        if (type == ColumnarWriter.INT) {
+            in.align();
+            int min = in.getInt();
+            int max = in.getInt();
+            return new Column(name, null, min, max, in.values(name, rows * 4L).asIntBuffer(), null);
+        }
+        String[] labels = new String[in.getInt()];
+        for (int i = 0; i < labels.length; i++) labels[i] = in.getString();
+        if (type == ColumnarWriter.BYTE) {
+            ByteBuffer values = in.values(name, rows);
+            in.align();
+            return new Column(name, labels, 0, labels.length - 1, null, values);
+        }
+        in.align();
+        return new Column(name, labels, 0, labels.length - 1, in.values(name, rows * 4L).asIntBuffer(), null);
+    }
+
+    /**
+     * Reads the headers and the dictionaries through a small buffer, and the
+     * values of each column through a mapping of their own, or a copy.
+     */
+    private static class Input {
+        private final FileChannel channel;
+        private final boolean memoryMapped;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 16).limit(0);
+        // the position in the file of the start of the buffer
+        private long base;
+
+        Input(FileChannel channel, boolean memoryMapped) {
+            this.channel = channel;
+            this.memoryMapped = memoryMapped;
+        }
+
+        int getInt() throws IOException {
+            need(4);
+            return buf.getInt();
+        }
+
+        byte getByte() throws IOException {
+            need(1);
+            return buf.get();
+        }
+
+        String getString() throws IOException {
+            byte[] bytes = new byte[getInt()];
+            for (int off = 0; off < bytes.length; ) {
+                need(1);
+                int n = Math.min(buf.remaining(), bytes.length - off);
+                buf.get(bytes, off, n);
+                off += n;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        void align() {
+            skip(-(base + buf.position()) & 3);
+        }
+
+        /**
+         * Returns the next {@code length} bytes, which hold the values of a column.
+         */
+        ByteBuffer values(String column, long length) throws IOException {
+            if (length > Integer.MAX_VALUE) throw new IOException("Column too large: " + column);
+            long position = base + buf.position();
+            if (position + length > channel.size()) throw new EOFException("Truncated columnar export");
+            ByteBuffer values;
+            if (memoryMapped) {
+                values = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            } else {
+                values = ByteBuffer.allocate((int) length);
+                while (values.hasRemaining()) {
+                    if (channel.read(values, position + values.position()) < 0) throw new EOFException("Truncated columnar export");
+                }
+                values.flip();
+            }
+            skip(length);
+            return values;
+        }
+
+        private void skip(long n) {
+            if (n <= buf.remaining()) {
+                buf.position(buf.position() + (int) n);
+            } else {
+                base += buf.position() + n;
+                buf.clear().limit(0);
+            }
+        }
+
+        private void need(int n) throws IOException {
+            if (buf.remaining() >= n) return;
+            base += buf.position();
+            buf.compact();
+            while (buf.position() < n) {
+                if (channel.read(buf, base + buf.position()) < 0) throw new EOFException("Truncated columnar export");
+            }
+            buf.flip();
+        }
+    }
+
+    /**
+     * @return The names of the tables: {@code patients}, {@code assignments} and {@code reports}.
+     */
+    public List<String> getTables() {
+        return List.copyOf(tables.keySet());
+    }
+
+    /**
+     * @param name The name of the table.
+     * @return The table.
+     * @throws IllegalArgumentException If there is no such table.
+     */
+    public Table table(String name) {
+        Table t = tables.get(name);
+        if (t == null) throw new IllegalArgumentException("No such table: " + name);
+        return t;
+    }
+
+    /**
+     * A column: ints, or codes of a dictionary of labels (stored as ints or bytes).
+     * The codes of the labels are looked up only by the filters, so their map is
+     * built by the first one: a key such as the fiscal code has a label per row.
+     */
+    private static class Column {
+        final String name;
+        final String[] labels;
+        private Map<String, Integer> codes;
+        final int min;
+        final int max;
+        final IntBuffer ints;
+        final ByteBuffer bytes;
+
+        Column(String name, String[] labels, int min, int max, IntBuffer ints, ByteBuffer bytes) {
+            this.name = name;
+            this.labels = labels;
+            this.min = min;
+            this.max = max;
+            this.ints = ints;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return The code of a label, or null if the column does not have it.
+         */
+        synchronized Integer code(String label) {
+            if (codes == null) {
+                codes = new HashMap<>(labels.length * 4 / 3 + 1);
+                for (int i = 0; i < labels.length; i++) codes.put(labels[i], i);
+            }
+            return codes.get(label);
+        }
+
+        /**
+         * Copies the values of {@code n} rows from {@code start}.
+         */
+        void read(int start, int[] values, int n) {
+            if (ints != null) {
+                ints.get(start, values, 0, n);
+            } else {
+                for (int i = 0; i < n; i++) values[i] = bytes.get(start + i) & 0xFF;
+            }
+        }
+    }
+
+    /**
+     * A table of the store.
+     */
+    public static class Table {
+        private final String name;
+        private final int rows;
+        private final Map<String, Column> columns = new LinkedHashMap<>();
+
+        Table(String name, int rows) {
+            this.name = name;
+            this.rows = rows;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public List<String> getColumns() {
+            return List.copyOf(columns.keySet());
+        }
+
+        /**
+         * @return A new query over all the rows of the table.
+         */
+        public Query query() {
+            return new Query(this);
+        }
+
+        Column column(String name) {
+            Column c = columns.get(name);
+            if (c == null) throw new IllegalArgumentException("No such column: " + this.name + "." + name);
+            return c;
+        }
+    }
+
+    /**
+     * Filters and counts the rows of a table. The filters are all required.
+     */
+    public static class Query {
+        private final Table table;
+        private final List<Column> ranged = new ArrayList<>();
+        private final List<int[]> ranges = new ArrayList<>();
+        private final List<Column> matched = new ArrayList<>();
+        private final List<boolean[]> accepted = new ArrayList<>();
+        private final List<Column> groups = new ArrayList<>();
+        private final List<Integer> widths = new ArrayList<>();
+
+        Query(Table table) {
+            this.table = table;
+        }
+
+        /**
+         * Keeps the rows whose int column is between two values, both included.
+         */
+        public Query between(String column, int from, int to) {
+            Column c = table.column(column);
+            if (c.labels != null) throw new IllegalArgumentException("Not an int column: " + column);
+            ranged.add(c);
+            ranges.add(new int[] {from, to});
+            return this;
+        }
+
+        /**
+         * Keeps the rows whose string or status column has one of the values.
+         */
+        public Query in(String column, String... values) {
+            Column c = table.column(column);
+            if (c.labels == null) throw new IllegalArgumentException("Not a string column: " + column);
+            boolean[] set = new boolean[c.labels.length];
+            for (String v : values) {
+                Integer code = c.code(v);
+                if (code != null) set[code] = true;
+            }
+            matched.add(c);
+            accepted.add(set);
+            return this;
+        }
+
+        /**
+         * Counts the rows by the values of a column.
+         */
+        public Query groupBy(String column) {
+            return groupBy(column, 1);
+        }
+
+        /**
+         * Counts the rows by ranges of {@code width} values of an int column,
+         * e.g. by week for a day column and a width of 7.
+         * The key of a range is its first value, counting from the smallest value of the column.
+         */
+        public Query groupBy(String column, int width) {
+            Column c = table.column(column);
+            if (width < 1 || (c.labels != null && width != 1)) throw new IllegalArgumentException("Invalid width " + width);
+            groups.add(c);
+            widths.add(width);
+            return this;
+        }
+
+        /**
+         * @return The number of rows that pass the filters.
+         */
+        public long countAll() {
+            return count().values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        /**
+         * Runs the query.
+         *
+         * @return The number of rows of each group that pass the filters, by the values
+         *         of the grouping columns: a string for the string and status columns,
+         *         an Integer for the int columns. Groups without rows are left out.
+         */
+        public Map<List<Object>, Long> count() {
+            int g = groups.size();
+            long[] radix = new long[g + 1];
+            radix[g] = 1;
+            for (int i = g - 1; i >= 0; i--) {
+                Column c = groups.get(i);
+                long span = c.max < c.min ? 1 : ((long) c.max - c.min) / widths.get(i) + 1;
+                try {
+                    radix[i] = Math.multiplyExact(radix[i + 1], span);
+                } catch (ArithmeticException e) {
+                    throw new IllegalArgumentException("Too many groups");
+                }
+            }
+            boolean dense = radix[0] <= DENSE_GROUPS;
+            int chunks = (table.rows + CHUNK - 1) / CHUNK;
+            Map<List<Object>, Long> result = new LinkedHashMap<>();
+            if (dense) {
+                // each worker counts its chunks in an array of its own, summed at the end
+                long[] total = IntStream.range(0, chunks).parallel()
+                                        .collect(() -> new long[(int) radix[0]],
+                                                 (counts, k) -> scan(k, radix, (key, n) -> counts[(int) key] += n),
+                                                 ColumnStore::add);
+                for (int key = 0; key < total.length; key++) if (total[key] > 0) result.put(labels(key, radix), total[key]);
+            } else {
+                Map<Long, Long> counts = IntStream.range(0, chunks).parallel()
+                                                  .collect(HashMap::new,
+                                                           (part, k) -> scan(k, radix, (key, n) -> part.merge(key, n, Long::sum)),
+                                                           (a, b) -> b.forEach((key, n) -> a.merge(key, n, Long::sum)));
+                counts.forEach((key, n) -> result.put(labels(key, radix), n));
+            }
+            return result;
+        }
+
+        /** Receives the rows of a group that pass the filters. */
+        private interface Counter {
+            void add(long key, long n);
+        }
+
+        /**
+         * Scans a chunk of rows a column at a time: each filter clears the
+         * rows it rejects, each grouping column adds its part of the group
+         * keys, and the counters are updated in a last pass. Every pass is a
+         * loop without branches over int arrays, which the compiler can vectorize.
+         */
+        private void scan(int chunk, long[] radix, Counter counter) {
+            int start = chunk * CHUNK;
+            int n = Math.min(CHUNK, table.rows - start);
+            int[] values = new int[n];
+            int[] pass = new int[n];
+            Arrays.fill(pass, 1);
+            for (int f = 0; f < ranged.size(); f++) {
+                ranged.get(f).read(start, values, n);
+                int lo = ranges.get(f)[0];
+                int hi = ranges.get(f)[1];
+                for (int i = 0; i < n; i++) pass[i] &= (values[i] >= lo & values[i] <= hi) ? 1 : 0;
+            }
+            for (int f = 0; f < matched.size(); f++) {
+                matched.get(f).read(start, values, n);
+                boolean[] set = accepted.get(f);
+                for (int i = 0; i < n; i++) pass[i] &= set[values[i]] ? 1 : 0;
+            }
+            long[] keys = new long[n];
+            for (int g = 0; g < groups.size(); g++) {
+                Column c = groups.get(g);
+                c.read(start, values, n);
+                int min = c.min;
+                int width = widths.get(g);
+                long r = radix[g + 1];
+                for (int i = 0; i < n; i++) keys[i] += (long) ((values[i] - min) / width) * r;
+            }
+            if (groups.isEmpty()) {
+                long total = 0;
+                for (int i = 0; i < n; i++) total += pass[i];
+                counter.add(0, total);
+                return;
+            }
+            for (int i = 0; i < n; i++) if (pass[i] != 0) counter.add(keys[i], 1);
+        }
+
+        private List<Object> labels(long key, long[] radix) {
+            List<Object> labels = new ArrayList<>(groups.size());
+            for (int i = 0; i < groups.size(); i++) {
+                Column c = groups.get(i);
+                int value = (int) (key / radix[i + 1] % (radix[i] / radix[i + 1]));
+                labels.add(c.labels != null ? c.labels[value] : (Object) (c.min + value * widths.get(i)));
+            }
+            return labels;
+        }
+    }
+
+    private static void add(long[] sum, long[] b) {
+        for (int i = 0; i < sum.length; i++) sum[i] += b[i];
+    }
+}
@@ -0,0 +1,252 @@
+package it.polito.emergency;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.polito.emergency.EmergencyApp.PatientStatus;
+import it.polito.emergency.RegistrySnapshot.PatientRecord;
+
+/**
+ * Writes the registry in the columnar format read by {@link ColumnStore}.
+ * <p>
+ * The file is a sequence of tables, each a sequence of columns of the same
+ * number of rows. A string column is dictionary encoded: the distinct values
+ * once, then an int code per row; a day is an int (epoch day); a status is a
+ * byte, with the names of the values in the header. Every array starts at a
+ * multiple of four bytes, so it can be read in place as an {@code IntBuffer}.
+ */
+class ColumnarWriter {
+
+    static final int MAGIC = 0x45434f4c;
+    static final int VERSION = 1;
+    static final byte INT = 0;
+    static final byte BYTE = 1;
+    static final byte DICTIONARY = 2;
+
+    private static final String[] STATUSES = Arrays.stream(PatientStatus.values()).map(Enum::name).toArray(String[]::new);
+
+    private final List<Table> tables = new ArrayList<>();
+
+    private static class Table {
+        final String name;
+        final int rows;
+        final List<Column> columns = new ArrayList<>();
+
+        Table(String name, int rows) {
+            this.name = name;
+            this.rows = rows;
+        }
+    }
+
+    private abstract static class Column {
+        final String name;
+
+        Column(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class IntColumn extends Column {
+        final int[] values;
+        int size;
+
+        IntColumn(String name, int rows) {
+            super(name);
+            values = new int[rows];
+        }
+
+        void add(int v) {
+            values[size++] = v;
+        }
+    }
+
+    private static class ByteColumn extends Column {
+        final byte[] values;
+        final String[] labels;
+        int size;
+
+        ByteColumn(String name, int rows, String[] labels) {
+            super(name);
+            this.values = new byte[rows];
+            this.labels = labels;
+        }
+
+        void add(int v) {
+            values[size++] = (byte) v;
+        }
+    }
+
+    private static class DictionaryColumn extends Column {
+        final Map<String, Integer> codes = new HashMap<>();
+        final List<String> dictionary = new ArrayList<>();
+        final int[] values;
+        int size;
+
+        DictionaryColumn(String name, int rows) {
+            super(name);
+            values = new int[rows];
+        }
+
+        void add(String v) {
+            String key = v == null ? "" : v;
+            Integer code = codes.get(key);
+            if (code == null) {
+                code = dictionary.size();
+                codes.put(key, code);
+                dictionary.add(key);
+            }
+            values[size++] = code;
+        }
+    }
+
+    /**
+     * Adds the patients of a snapshot, and their assignments to the professionals.
+     */
+    void addPatients(RegistrySnapshot snapshot) {
+        List<PatientRecord> records = snapshot.patients().toList();
+        Table patients = new Table("patients", records.size());
+        DictionaryColumn fiscalCode = new DictionaryColumn("fiscal_code", records.size());
+        DictionaryColumn surname = new DictionaryColumn("surname", records.size());
+        DictionaryColumn reason = new DictionaryColumn("reason", records.size());
+        IntColumn day = new IntColumn("acceptance_day", records.size());
+        ByteColumn status = new ByteColumn("status", records.size(), STATUSES);
+        DictionaryColumn department = new DictionaryColumn("department", records.size());
+        int assignments = 0;
+        for (PatientRecord r : records) {
+            fiscalCode.add(r.getFiscalCode());
+            surname.add(r.getSurname());
+            reason.add(r.getReason());
+            day.add(r.getAcceptanceEpochDay());
+            status.add(r.getStatus().ordinal());
+            department.add(r.getDepartment());
+            assignments += r.getProfessionalIds().size();
+        }
+        patients.columns.addAll(List.of(fiscalCode, surname, reason, day, status, department));
+        tables.add(patients);
+
+        Table assigned = new Table("assignments", assignments);
+        DictionaryColumn patient = new DictionaryColumn("fiscal_code", assignments);
+        DictionaryColumn professional = new DictionaryColumn("professional_id", assignments);
+        DictionaryColumn specialization = new DictionaryColumn("specialization", assignments);
+        IntColumn acceptance = new IntColumn("acceptance_day", assignments);
+        ByteColumn patientStatus = new ByteColumn("status", assignments, STATUSES);
+        for (PatientRecord r : records) {
+            for (String id : r.getProfessionalIds()) {
+                patient.add(r.getFiscalCode());
+                professional.add(id);
+                specialization.add(snapshot.getSpecialization(id));
+                acceptance.add(r.getAcceptanceEpochDay());
+                patientStatus.add(r.getStatus().ordinal());
+            }
+        }
+        assigned.columns.addAll(List.of(patient, professional, specialization, acceptance, patientStatus));
+        tables.add(assigned);
+    }
+
+    /**
+     * Adds the reports.
+     */
+    void addReports(List<Report> reports) {
+        Table table = new Table("reports", reports.size());
+        IntColumn id = new IntColumn("id", reports.size());
+        DictionaryColumn fiscalCode = new DictionaryColumn("fiscal_code", reports.size());
+        DictionaryColumn professional = new DictionaryColumn("professional_id", reports.size());
+        IntColumn day = new IntColumn("day", reports.size());
+        for (Report r : reports) {
+            id.add(r.getNumericId());
+            fiscalCode.add(r.getFiscalCode());
+            professional.add(r.getProfessionalId());
+            day.add(r.getEpochDay());
+        }
+        table.columns.addAll(List.of(id, fiscalCode, professional, day));
+        tables.add(table);
+    }
+
+    /**
+     * Writes the tables to a file, replacing it atomically.
+     */
+    void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Position position = new Position(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16));
+        try (DataOutputStream out = new DataOutputStream(position)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tables.size());
+            for (Table t : tables) {
+                RegistryJournal.writeString(out, t.name);
+                out.writeInt(t.rows);
+                out.writeInt(t.columns.size());
+                for (Column c : t.columns) writeColumn(out, position, c);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeColumn(DataOutputStream out, Position position, Column c) throws IOException {
+        RegistryJournal.writeString(out, c.name);
+        if (c instanceof IntColumn ic) {
+            out.writeByte(INT);
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int i = 0; i < ic.size; i++) {
+                min = Math.min(min, ic.values[i]);
+                max = Math.max(max, ic.values[i]);
+            }
+            align(out, position);
+            out.writeInt(min);
+            out.writeInt(max);
+            for (int i = 0; i < ic.size; i++) out.writeInt(ic.values[i]);
+        } else if (c instanceof ByteColumn bc) {
+            out.writeByte(BYTE);
+            out.writeInt(bc.labels.length);
+            for (String l : bc.labels) RegistryJournal.writeString(out, l);
+            out.write(bc.values, 0, bc.size);
+            align(out, position);
+        } else {
+            DictionaryColumn dc = (DictionaryColumn) c;
+            out.writeByte(DICTIONARY);
+            out.writeInt(dc.dictionary.size());
+            for (String v : dc.dictionary) RegistryJournal.writeString(out, v);
+            align(out, position);
+            for (int i = 0; i < dc.size; i++) out.writeInt(dc.values[i]);
+        }
+    }
+
+    private static void align(DataOutputStream out, Position position) throws IOException {
+        while (position.bytes % 4 != 0) out.writeByte(0);
+    }
+
+    /**
+     * Counts the bytes written as a long: {@link DataOutputStream#size()}
+     * stops at {@code Integer.MAX_VALUE}, and the arrays after it would be misaligned.
+     */
+    private static class Position extends FilterOutputStream {
+        long bytes;
+
+        Position(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytes += len;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package it.polito.emergency;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Reads large CSV files in parallel.
+ * The file is cut into chunks that end on a line boundary, every chunk is read
+ * (or memory mapped) and parsed on its own thread, and the rows are returned
+ * chunk by chunk in file order so that the caller can merge them as if the
+ * file had been read sequentially. The first line of the file is the header
+ * and is skipped, as are the blank lines and those with the wrong number of fields.
+ */
+class CsvBulkReader {
+
+    private static final int MIN_CHUNK = 1 << 20;
+    private static final int MAX_CHUNK = 1 << 28;
+
+    private final int fields;
+    private final boolean memoryMapped;
+
+    /**
+     * @param fields Number of fields of a valid row.
+     * @param memoryMapped Whether the chunks are memory mapped instead of read into the heap.
+     */
+    CsvBulkReader(int fields, boolean memoryMapped) {
+        this.fields = fields;
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Parses the file, converting every valid row.
+     *
+     * @param file The CSV file.
+     * @param mapper Converts the fields of a row, called concurrently.
+     * @return The converted rows of each chunk, in file order.
+     * @throws IOException If the file cannot be read.
+     */
+    <T> List<List<T>> read(Path file, Function<String[], T> mapper) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(ch);
+            List<List<T>> chunks = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.length; i++) chunks.add(null);
+            try {
+                IntStream.range(0, chunks.size()).parallel().forEach(i -> {
+                    try {
+                        chunks.set(i, parse(load(ch, bounds[i], bounds[i + 1]), i == 0, mapper));
+                    } catch (IOException e) {
+                        throw new ChunkException(e);
+                    }
+                });
+            } catch (ChunkException e) {
+                throw e.getCause();
+            }
+            return chunks;
+        }
+    }
+
+    /**
+     * Computes the chunk offsets: every chunk but the last ends right after a newline.
+     */
+    private long[] chunkBounds(FileChannel ch) throws IOException {
+        long size = ch.size();
+        long target = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK,
+                            size / Runtime.getRuntime().availableProcessors()));
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long pos = target;
+        while (pos < size) {
+            long next = nextLine(ch, pos, probe);
+            if (next >= size) break;
+            bounds.add(next);
+            pos = next + target;
+        }
+        bounds.add(size);
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static long nextLine(FileChannel ch, long pos, ByteBuffer probe) throws IOException {
+        while (true) {
+            probe.clear();
+            int n = ch.read(probe, pos);
+            if (n <= 0) return ch.size();
+            for (int i = 0; i < n; i++) {
+                if (probe.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+    }
+
+    private ByteBuffer load(FileChannel ch, long from, long to) throws IOException {
+        int len = (int) (to - from);
+        if (memoryMapped) return ch.map(FileChannel.MapMode.READ_ONLY, from, len);
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, from + buf.position()) < 0) break;
+        }
+        return buf.flip();
+    }
+
+    private <T> List<T> parse(ByteBuffer buf, boolean header, Function<String[], T> mapper) {
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        String[] row = new String[fields];
+        List<T> result = new ArrayList<>();
+        int limit = buf.limit();
+        int start = 0;
+        boolean skip = header;
+        for (int i = 0; i <= limit; i++) {
+            if (i < limit && buf.get(i) != '\n') continue;
+            if (i == limit && start == limit) break;
+            if (skip) {
+                skip = false;
+            } else if (tokenizer.split(buf, start, i, row)) {
+                result.add(mapper.apply(row));
+            }
+            start = i + 1;
+        }
+        return result;
+    }
+
+    private static class ChunkException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ChunkException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
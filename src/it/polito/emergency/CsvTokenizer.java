@@ -0,0 +1,95 @@
+package it.polito.emergency;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits CSV lines on commas, trimming the blanks around every field.
+ * It behaves like {@code line.trim().split("\\s*,\\s*")}, including dropping
+ * the trailing empty fields, but it does not use regular expressions and
+ * only allocates the strings of the fields it returns.
+ */
+class CsvTokenizer {
+
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Splits a line into exactly {@code fields.length} fields.
+     *
+     * @param line The line to split.
+     * @param fields Array receiving the fields.
+     * @return {@code true} if the line has exactly {@code fields.length} fields.
+     */
+    boolean split(String line, String[] fields) {
+        int from = 0, to = line.length();
+        while (from < to && line.charAt(from) <= ' ') from++;
+        while (to > from && line.charAt(to - 1) <= ' ') to--;
+        if (from == to) return false;
+
+        int count = 0;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i < to && line.charAt(i) != ',') continue;
+            int s = start, e = i;
+            while (s < e && line.charAt(s) <= ' ') s++;
+            while (e > s && line.charAt(e - 1) <= ' ') e--;
+            if (count < fields.length) fields[count] = line.substring(s, e);
+            else if (s < e) return false;
+            count++;
+            start = i + 1;
+        }
+        return trailing(fields, count);
+    }
+
+    /**
+     * Splits the line held in {@code buf} between {@code from} (inclusive) and
+     * {@code to} (exclusive) into exactly {@code fields.length} fields.
+     * The bytes are decoded as UTF-8: commas and blanks never occur inside
+     * a multi-byte sequence, so the line can be split before decoding.
+     *
+     * @param buf The buffer holding the line.
+     * @param from Absolute index of the first byte of the line.
+     * @param to Absolute index past the last byte of the line.
+     * @param fields Array receiving the fields.
+     * @return {@code true} if the line has exactly {@code fields.length} fields.
+     */
+    boolean split(ByteBuffer buf, int from, int to, String[] fields) {
+        while (from < to && (buf.get(from) & 0xff) <= ' ') from++;
+        while (to > from && (buf.get(to - 1) & 0xff) <= ' ') to--;
+        if (from == to) return false;
+
+        int count = 0;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i < to && buf.get(i) != ',') continue;
+            int s = start, e = i;
+            while (s < e && (buf.get(s) & 0xff) <= ' ') s++;
+            while (e > s && (buf.get(e - 1) & 0xff) <= ' ') e--;
+            if (count < fields.length) fields[count] = decode(buf, s, e);
+            else if (s < e) return false;
+            count++;
+            start = i + 1;
+        }
+        return trailing(fields, count);
+    }
+
+    /**
+     * Checks the field count once the trailing empty fields are dropped.
+     */
+    private static boolean trailing(String[] fields, int count) {
+        int n = Math.min(count, fields.length);
+        while (n > 0 && fields[n - 1].isEmpty()) n--;
+        return n == fields.length;
+    }
+
+    private String decode(ByteBuffer buf, int from, int to) {
+        int len = to - from;
+        if (len == 0) return "";
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + from, len, StandardCharsets.UTF_8);
+        }
+        if (scratch.length < len) scratch = new byte[Math.max(len, 2 * scratch.length)];
+        buf.get(from, scratch, 0, len);
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+}
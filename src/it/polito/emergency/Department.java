@@ -0,0 +1,312 @@
+package it.polito.emergency;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.polito.emergency.EmergencyApp.PatientStatus;
+
+/**
+ * The beds of a hospital department.
+ * Capacity, occupancy and the number of patients ever hospitalized are plain
+ * counters, so every query is O(1). A bed is taken with a compare-and-set,
+ * so concurrent desks can never overbook the department. Patients that found
+ * no bed may wait in a FIFO list: a released bed goes straight to the first
+ * of them, so free beds and waiting patients never coexist.
+ * <p>
+ * The beds taken and released are counted by hour, so as to forecast when
+ * the department will be full. Restoring a recorded registry does not count
+ * them, since it happens at another time than the recorded events.
+ */
+class Department {
+
+    /** Number of hours of bed flows kept. */
+    static final int FLOW_HOURS = 7 * 24;
+    /** Number of hours the forecast of the bed flows mostly averages. */
+    static final int FLOW_SPAN = 12;
+
+    private final String name;
+    private volatile int capacity;
+    private final AtomicInteger occupied = new AtomicInteger();
+    private final AtomicInteger hospitalized = new AtomicInteger();
+    // guarded by this, as are the releases that hand beds over
+    private final LinkedHashSet<Patient> waitlist = new LinkedHashSet<>();
+    private volatile int waiting;
+    private final OccupancyHistory history = new OccupancyHistory();
+    private final TimeSeries inflow = new TimeSeries(FLOW_HOURS, FLOW_SPAN);
+    private final TimeSeries outflow = new TimeSeries(FLOW_HOURS, FLOW_SPAN);
+
+    Department(String name, int capacity) {
+        this.name = name;
+        this.capacity = capacity;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Changes the capacity. Patients in excess keep their beds, but no one
+     * else is admitted until the occupancy drops below it; when it grows the
+     * caller hands the new beds to the waiting patients with {@link #admitWaiting()}.
+     */
+    void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    int getOccupied() {
+        return occupied.get();
+    }
+
+    int getFree() {
+        return Math.max(0, capacity - occupied.get());
+    }
+
+    int getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * @return The number of patients ever hospitalized in the department.
+     */
+    int getHospitalized() {
+        return hospitalized.get();
+    }
+
+    /**
+     * Takes a free bed, if any.
+     *
+     * @return false if the department is full.
+     */
+    boolean tryOccupy() {
+        int o;
+        do {
+            o = occupied.get();
+            if (o >= capacity) return false;
+        } while (!occupied.compareAndSet(o, o + 1));
+        hospitalized.incrementAndGet();
+        history.record(occupied);
+        inflow.add(currentHour(), 1);
+        return true;
+    }
+
+    /**
+     * Takes up to {@code wanted} free beds at once.
+     *
+     * @return The number of beds taken.
+     */
+    int tryOccupy(int wanted) {
+        int o, granted;
+        do {
+            o = occupied.get();
+            granted = Math.max(0, Math.min(wanted, capacity - o));
+            if (granted == 0) return 0;
+        } while (!occupied.compareAndSet(o, o + granted));
+        hospitalized.addAndGet(granted);
+        history.record(occupied);
+        inflow.add(currentHour(), granted);
+        return granted;
+    }
+
+    /**
+     * Gives back beds just taken by {@link #tryOccupy()} for patients that had one already.
+     */
+    void cancelOccupy(int n) {
+        occupied.addAndGet(-n);
+        hospitalized.addAndGet(-n);
+        history.record(occupied);
+        inflow.add(currentHour(), -n);
+    }
+
+    /**
+     * Takes a bed regardless of the capacity, to restore a recorded hospitalization.
+     */
+    void occupy() {
+        occupied.incrementAndGet();
+        hospitalized.incrementAndGet();
+        history.record(occupied);
+    }
+
+    /**
+     * Takes a free bed or, if there is none, puts the patient at the end of the waitlist.
+     *
+     * @return true if the patient got a bed.
+     */
+    synchronized boolean occupyOrWait(Patient patient) {
+        if (tryOccupy()) return true;
+        enqueue(patient);
+        return false;
+    }
+
+    /**
+     * Frees a bed, handing it to the first waiting patient still admitted.
+     *
+     * @return The patient that got the bed, or null if the bed is now free.
+     */
+    synchronized Patient release() {
+        Iterator<Patient> it = waitlist.iterator();
+        while (it.hasNext()) {
+            Patient next = it.next();
+            it.remove();
+            waiting--;
+            if (next.getStatus() == PatientStatus.ADMITTED) {
+                hospitalized.incrementAndGet();
+                long hour = currentHour();
+                outflow.add(hour, 1);
+                inflow.add(hour, 1);
+                return next;
+            }
+        }
+        occupied.decrementAndGet();
+        history.record(occupied);
+        outflow.add(currentHour(), 1);
+        return null;
+    }
+
+    /**
+     * Frees a bed without handing it over, to restore a recorded release.
+     */
+    void vacate() {
+        occupied.decrementAndGet();
+        history.record(occupied);
+    }
+
+    /**
+     * Sets the number of patients ever hospitalized, to restore a snapshot.
+     */
+    void restoreHospitalized(int n) {
+        hospitalized.set(n);
+    }
+
+    /**
+     * Puts a patient at the end of the waitlist, to restore a recorded wait.
+     */
+    synchronized void enqueue(Patient patient) {
+        if (waitlist.add(patient)) waiting++;
+    }
+
+    /**
+     * Gives the bed of a released patient to a waiting one, to restore a recorded release.
+     */
+    synchronized void handOver(Patient patient) {
+        leaveWaitlist(patient);
+        hospitalized.incrementAndGet();
+    }
+
+    /**
+     * Gives a free bed to the first waiting patient still admitted, if there
+     * are both, as happens when the capacity grows.
+     *
+     * @return The patient that got the bed, or null.
+     */
+    synchronized Patient admitWaiting() {
+        Iterator<Patient> it = waitlist.iterator();
+        while (it.hasNext()) {
+            Patient next = it.next();
+            if (next.getStatus() != PatientStatus.ADMITTED) {
+                it.remove();
+                waiting--;
+                continue;
+            }
+            if (!tryOccupy()) return null;
+            it.remove();
+            waiting--;
+            return next;
+        }
+        return null;
+    }
+
+    /**
+     * Removes a patient from the waitlist, if there.
+     */
+    synchronized void leaveWaitlist(Patient patient) {
+        if (waitlist.remove(patient)) waiting--;
+    }
+
+    synchronized Patient[] getWaitlist() {
+        return waitlist.toArray(new Patient[0]);
+    }
+
+    SortedMap<Instant, Integer> getHistory() {
+        return history.toMap();
+    }
+
+    /**
+     * Forecasts when the free beds run out, assuming the beds keep being
+     * taken and released at the smoothed hourly rates.
+     *
+     * @return The hours until the department is full: 0 if it is full already,
+     *         infinity if the beds are released at least as fast as they are taken.
+     */
+    double hoursUntilFull() {
+        int free = getFree();
+        if (free == 0) return 0;
+        long hour = currentHour();
+        double net = inflow.forecast(hour) - outflow.forecast(hour);
+        return net <= 0 ? Double.POSITIVE_INFINITY : free / net;
+    }
+
+    private static long currentHour() {
+        return System.currentTimeMillis() / 3_600_000;
+    }
+
+    /**
+     * Occupancy over time, one sample per minute in which it changed, holding
+     * the occupancy at the end of that minute. Each sample is packed in a long
+     * (minute since the epoch in the high half, occupancy in the low half) and
+     * only the most recent {@link #MAX_SAMPLES} are kept.
+     */
+    static class OccupancyHistory {
+
+        static final int MAX_SAMPLES = 4096;
+
+        private long[] samples = new long[16];
+        private int first;
+        private int size;
+
+        /**
+         * Records the current value of the occupancy. The value is read while
+         * holding the history lock, so the last sample is never stale.
+         */
+        synchronized void record(AtomicInteger occupancy) {
+            long minute = System.currentTimeMillis() / 60_000;
+            long sample = minute << 32 | occupancy.get() & 0xFFFFFFFFL;
+            if (size > 0) {
+                int last = (first + size - 1) % samples.length;
+                if (samples[last] >>> 32 == minute) {
+                    samples[last] = sample;
+                    return;
+                }
+            }
+            if (size == samples.length) {
+                if (samples.length < MAX_SAMPLES) {
+                    long[] grown = new long[samples.length * 2];
+                    for (int i = 0; i < size; i++) grown[i] = samples[(first + i) % samples.length];
+                    samples = grown;
+                    first = 0;
+                } else {
+                    first = (first + 1) % samples.length;
+                    size--;
+                }
+            }
+            samples[(first + size) % samples.length] = sample;
+            size++;
+        }
+
+        synchronized SortedMap<Instant, Integer> toMap() {
+            SortedMap<Instant, Integer> map = new TreeMap<>();
+            for (int i = 0; i < size; i++) {
+                long sample = samples[(first + i) % samples.length];
+                map.put(Instant.ofEpochSecond((sample >>> 32) * 60), (int) sample);
+            }
+            return map;
+        }
+    }
+}
@@ -1,27 +1,74 @@
 package it.polito.emergency;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.stream.Collectors;
-
-public class EmergencyApp {
-
-    private Map<String, Professional> professionals = new TreeMap<>();
-    private Map<String, Integer> departments = new HashMap<>(); 
-    private Map<String, Patient> patients = new HashMap<>();
-    private Map<String, List<Patient>> patientsBysurname = new TreeMap<>();
-    private Map<Integer, Report> reports = new TreeMap<>();
-    private Map<String, List<Patient>> deptPat = new TreeMap<>();
-    private int reportId = 0;
-    private int dischargedPatients = 0;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.UnaryOperator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import it.polito.emergency.RegistryMetrics.Operation;
+
+/**
+ * Emergency room registry.
+ * All the methods can be called concurrently by several reception desks:
+ * the state is kept in concurrent maps, report IDs come from an atomic
+ * sequence and the beds of each department are atomic counters.
+ * <p>
+ * An instance created with {@link #open(Path)} is persistent: every update
+ * is written to a journal in the given directory before the method returns,
+ * and the registry is recovered from there when it is opened again.
+ */
+public class EmergencyApp implements Closeable {
+
+    private Map<String, Professional> professionals = new ConcurrentSkipListMap<>();
+    private ProfessionalIndex professionalIndex = new ProfessionalIndex();
+    private AssignmentScheduler scheduler = new AssignmentScheduler(professionalIndex);
+    private BedManager beds = new BedManager();
+    private Map<String, Patient> patients = new ConcurrentHashMap<>();
+    private PatientNameIndex patientsBysurname = new PatientNameIndex();
+    private PatientDateIndex patientsByDate = new PatientDateIndex();
+    private TextIndex<String> patientsByReason = new TextIndex<>();
+    private ReportStore reports = new ReportStore();
+    private TriageQueue triage = new TriageQueue();
+    private volatile boolean compressReports;
+    private final AtomicInteger reportId = new AtomicInteger();
+    private final AtomicInteger dischargedPatients = new AtomicInteger();
+    private final PatientStatistics statistics = new PatientStatistics();
+    private final EventStream events = new EventStream();
+    private final RegistryMetrics metrics = newMetrics();
+    private final AtomicReference<RegistrySnapshot> published = new AtomicReference<>(RegistrySnapshot.EMPTY);
+    private RegistryJournal journal;
+    private PatientArchive archive;
+    // changed only by the recovery and by archive(), which run alone
+    private RegistrySnapshot.Archived archivedTotals = RegistrySnapshot.Archived.NONE;
+    private ScheduledExecutorService checkpointer;
+    // patient updates share it, professionals, departments and checkpoints take it exclusively
+    private final ReadWriteLock journalLock = new ReentrantReadWriteLock();
     
 
     public enum PatientStatus {
@@ -29,6 +76,115 @@ public class EmergencyApp {
         DISCHARGED,
         HOSPITALIZED
     }
+
+    /**
+     * How {@link EmergencyApp#assignPatientToProfessional(String, String)} chooses
+     * among the professionals in service.
+     */
+    public enum AssignmentPolicy {
+        /** The first professional in order of ID. */
+        FIRST_BY_ID,
+        /** The professional with the fewest assigned patients still in the emergency room. */
+        LEAST_LOADED,
+        /** Each professional in turn. */
+        ROUND_ROBIN
+    }
+
+    /**
+     * What publishing a change does when the {@link RegistryListener}s fall so
+     * far behind that the event buffer is full.
+     */
+    public enum BackpressurePolicy {
+        /**
+         * The operation waits for room in the buffer, for at most 100 ms; past that,
+         * or when a listener itself updates the registry, the event is dropped.
+         */
+        BLOCK,
+        /** The event is dropped; the operation never waits for the listeners. */
+        DROP
+    }
+
+    /**
+     * Opens a persistent emergency registry kept in a directory.
+     * The latest snapshot is loaded and the journal records written after it
+     * are replayed; a snapshot is then taken periodically as the journal grows.
+     *
+     * @param directory The directory of the registry, created if missing.
+     * @return The recovered registry.
+     * @throws IOException If the registry cannot be read.
+     */
+    public static EmergencyApp open(Path directory) throws IOException {
+        EmergencyApp app = new EmergencyApp();
+        Files.createDirectories(directory);
+        app.archive = PatientArchive.open(directory, app.professionals::get, PatientArchive.DEFAULT_CACHE_SIZE);
+        try {
+            app.journal = RegistryJournal.open(directory, app.new Recovery());
+        } catch (IOException | RuntimeException e) {
+            app.archive.close();
+            throw e;
+        }
+        // the snapshot loaded by the recovery changed the patients directly
+        app.published.set(RegistrySnapshot.of(0, app.professionals.values(), app.beds.all().values(),
+                                              app.patients.values(), app.beds, app.dischargedPatients.get(), app.archivedTotals));
+        app.checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "registry-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        app.checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                if(app.journal.size() > RegistryJournal.SNAPSHOT_THRESHOLD) app.checkpoint();
+            } catch (IOException e) {
+                // the journal still holds every update, the snapshot is retried later
+            }
+        }, 10, 10, TimeUnit.SECONDS);
+        return app;
+    }
+
+    /**
+     * Writes a snapshot of a persistent registry, so that the journal records
+     * it includes do not need to be replayed anymore. Does nothing on an
+     * in-memory registry.
+     *
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public synchronized void checkpoint() throws IOException {
+        if(journal == null) return;
+        long t0 = metrics.start();
+        try {
+            long lsn;
+            RegistryJournal.SnapshotWriter writer;
+            journalLock.writeLock().lock();
+            try {
+                journal.rotate();
+                lsn = journal.lastLsn();
+                writer = captureSnapshot();
+            } finally {
+                journalLock.writeLock().unlock();
+            }
+            journal.snapshot(lsn, writer);
+        } finally {
+            metrics.stop(Operation.CHECKPOINT, t0);
+        }
+    }
+
+    /**
+     * Closes the journal of a persistent registry, waiting for the pending updates
+     * to reach the disk. Does nothing on an in-memory registry.
+     *
+     * @throws IOException If the journal cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        events.close();
+        if(journal == null) return;
+        checkpointer.shutdownNow();
+        try {
+            journal.close();
+        } finally {
+            archive.close();
+        }
+    }
     
     /**
      * Add a professional working in the emergency room
@@ -41,9 +197,32 @@ public class EmergencyApp {
      * @param workingHours
      */
     public void addProfessional(String id, String name, String surname, String specialization, String period) {
-    
-        
-        professionals.put(id, new Professional(id, name, period, specialization, surname, "24")) ;
+        long t0 = metrics.start();
+        try {
+            sync(putProfessional(new Professional(id, name, period, specialization, surname, "24"))) ;
+        } finally {
+            metrics.stop(Operation.ADD_PROFESSIONAL, t0);
+        }
+    }
+
+    private long putProfessional(Professional professional) {
+        beginUpdate(true);
+        try {
+            professionals.compute(professional.getId(), (id, previous) -> {
+                if (previous != null) {
+                    professionalIndex.remove(previous);
+                    scheduler.remove(previous);
+                }
+                professionalIndex.add(professional);
+                scheduler.add(professional);
+                return professional;
+            });
+            publish(v -> v.withProfessional(professional));
+            return log(RegistryJournal.PROFESSIONAL, professional.getId(), professional.getName(),
+                       professional.getSurname(), professional.getSpecialization(), professional.getPeriod());
+        } finally {
+            endUpdate(true);
+        }
     }
 
     /**
@@ -54,8 +233,14 @@ public class EmergencyApp {
      * @throws EmergencyException If no professional is found.
      */    
     public Professional getProfessionalById(String id) throws EmergencyException {
-       if(!professionals.containsKey(id)) throw new EmergencyException("No such professional ");
-        return professionals.get(id);
+        long t0 = metrics.start();
+        try {
+            Professional p = professionals.get(id);
+            if(p == null) throw new EmergencyException("No such professional ");
+            return p;
+        } finally {
+            metrics.stop(Operation.GET_PROFESSIONAL, t0);
+        }
     }
 
     /**
@@ -66,16 +251,14 @@ public class EmergencyApp {
      * @throws EmergencyException If no professionals are found with the specified specialization.
      */    
     public List<String> getProfessionals(String specialization) throws EmergencyException {
-        if(!professionals.values().stream()
-                            .anyMatch(p-> p.getSpecialization()
-                                            .equalsIgnoreCase(specialization))){
-                                                throw new EmergencyException("No such spec");
- 
-                                            }
-        return professionals.values().stream()
-                                .filter(p-> p.getSpecialization().equalsIgnoreCase(specialization))
-                                .map(Professional::getId)
-                                .toList();
+        long t0 = metrics.start();
+        try {
+            List<String> ids = professionalIndex.getIds(specialization);
+            if(ids.isEmpty()) throw new EmergencyException("No such spec");
+            return ids;
+        } finally {
+            metrics.stop(Operation.GET_PROFESSIONALS, t0);
+        }
     }
 
     /**
@@ -87,19 +270,17 @@ public class EmergencyApp {
      * @throws EmergencyException If no professionals are found with the specified specialization and period.
      */    
     public List<String> getProfessionalsInService(String specialization, String period) throws EmergencyException {
-        if(!professionals.values().stream()
-                        .anyMatch(p-> p.getSpecialization()
-                        .equalsIgnoreCase(specialization) && p.isInService(period))){
-                            throw new EmergencyException("No such spec");
-
-                        }
-
-
-
-        return professionals.values().stream()
-                                    .filter(p-> p.getSpecialization().equalsIgnoreCase(specialization) && p.isInService(period))
-                                    .map(Professional::getId)
-                                    .toList();
+        long t0 = metrics.start();
+        try {
+            Period requested = Period.parse(period);
+            List<String> ids = professionalIndex.getIdsInService(specialization,
+                                                                requested.getStartEpochDay(),
+                                                                requested.getEndEpochDay());
+            if(ids.isEmpty()) throw new EmergencyException("No such spec");
+            return ids;
+        } finally {
+            metrics.stop(Operation.GET_PROFESSIONALS_IN_SERVICE, t0);
+        }
     }
 
     /**
@@ -110,7 +291,25 @@ public class EmergencyApp {
      * @throws EmergencyException If the department already exists.
      */
     public void addDepartment(String name, int maxPatients) {
-        departments.put(name, maxPatients);
+        long t0 = metrics.start();
+        try {
+            sync(putDepartment(name, maxPatients));
+        } finally {
+            metrics.stop(Operation.ADD_DEPARTMENT, t0);
+        }
+    }
+
+    private long putDepartment(String name, int maxPatients) {
+        beginUpdate(true);
+        try {
+            Department d = beds.add(StringPool.intern(name), maxPatients);
+            publish(v -> v.withDepartment(d.getName()));
+            // new beds go to the patients waiting for them; replaying this record does the same
+            beds.admitWaiting(d, p -> hospitalize(p, d));
+            return log(RegistryJournal.DEPARTMENT, name, Integer.toString(maxPatients));
+        } finally {
+            endUpdate(true);
+        }
     }
 
     /**
@@ -120,8 +319,13 @@ public class EmergencyApp {
      * @throws EmergencyException If no departments are found.
      */
     public List<String> getDepartments() throws EmergencyException {
-        if(departments.isEmpty()) throw new EmergencyException("No departments");
-        return departments.keySet().stream().toList();
+        long t0 = metrics.start();
+        try {
+            if(beds.names().isEmpty()) throw new EmergencyException("No departments");
+            return beds.names().stream().toList();
+        } finally {
+            metrics.stop(Operation.GET_DEPARTMENTS, t0);
+        }
     }
 
     /**
@@ -134,11 +338,23 @@ public class EmergencyApp {
      * @throws IOException If there is an error reading from the file or if the reader is null.
      */
     public int readFromFileProfessionals(Reader reader) throws IOException {
+        long t0 = metrics.start();
+        try {
+            return readProfessionals(reader);
+        } finally {
+            metrics.stop(Operation.READ_PROFESSIONALS, t0);
+        }
+    }
+
+    private int readProfessionals(Reader reader) throws IOException {
        if(reader == null) throw new IOException();
         BufferedReader br = new BufferedReader(reader);
         boolean first = true;
         String line;
         int validProf = 0;
+        long lsn = 0;
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        String[] parts = new String[5];
 
         
 
@@ -155,24 +371,52 @@ public class EmergencyApp {
 				continue;
 			}   
 
-			String[] parts = line.split("\\s*,\\s*") ; //con s* indichiamo che prima e dopo del punto e virgola possono esserci 0 o più caratteri di spazio 
-			
-			if(parts.length > 5 || parts.length < 5){
+			if(!tokenizer.split(line, parts)){
 				continue;
-			}; 
-
-            if(parts.length > 0){
-                ++validProf;
-                professionals.put(parts[0], new Professional(parts[0], parts[1],  parts[4], parts[3], parts[2], "24"));
 			}
 
+            ++validProf;
+            lsn = putProfessional(new Professional(parts[0], parts[1],  parts[4], parts[3], parts[2], "24"));
 		}
+        sync(lsn);
 
 
 
         return validProf;
     }
 
+    /**
+     * Reads professional data from a large CSV file, parsing it in parallel chunks.
+     * The file has the same format accepted by {@link #readFromFileProfessionals(Reader)}.
+     * 
+     * @param file The path of the CSV file. Must not be null.
+     * @param memoryMapped Whether the file is memory mapped instead of being read into the heap.
+     * @return The number of professionals successfully read and stored from the file.
+     * @throws IOException If there is an error reading from the file or if the path is null.
+     */
+    public int readFromFileProfessionals(Path file, boolean memoryMapped) throws IOException {
+        long t0 = metrics.start();
+        try {
+            return readProfessionals(file, memoryMapped);
+        } finally {
+            metrics.stop(Operation.READ_PROFESSIONALS, t0);
+        }
+    }
+
+    private int readProfessionals(Path file, boolean memoryMapped) throws IOException {
+        if(file == null) throw new IOException();
+        List<List<Professional>> chunks = new CsvBulkReader(5, memoryMapped)
+                .read(file, parts -> new Professional(parts[0], parts[1],  parts[4], parts[3], parts[2], "24"));
+        int validProf = 0;
+        long lsn = 0;
+        for(List<Professional> chunk : chunks){
+            for(Professional p : chunk) lsn = putProfessional(p);
+            validProf += chunk.size();
+        }
+        sync(lsn);
+        return validProf;
+    }
+
     /**
      * Reads department data from a CSV file and stores it in the application.
      * Each line of the CSV should contain a department's name and the maximum number of patients it can accommodate.
@@ -183,11 +427,23 @@ public class EmergencyApp {
      * @throws IOException If there is an error reading from the file or if the reader is null.
      */    
     public int readFromFileDepartments(Reader reader) throws IOException {
+        long t0 = metrics.start();
+        try {
+            return readDepartments(reader);
+        } finally {
+            metrics.stop(Operation.READ_DEPARTMENTS, t0);
+        }
+    }
+
+    private int readDepartments(Reader reader) throws IOException {
         if(reader == null) throw new IOException();
         BufferedReader br = new BufferedReader(reader);
         boolean first = true;
         String line;
         int validDept = 0;
+        long lsn = 0;
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        String[] parts = new String[2];
 
        
         
@@ -204,18 +460,46 @@ public class EmergencyApp {
 				continue;
 			}   
 
-			String[] parts = line.split("\\s*,\\s*") ; //con s* indichiamo che prima e dopo del punto e virgola possono esserci 0 o più caratteri di spazio 
-			
-			if(parts.length > 2 || parts.length < 2){
+			if(!tokenizer.split(line, parts)){
 				continue;
-			}; 
-
-            if(parts.length > 0){
-                ++validDept;
-                departments.put(parts[0],Integer.parseInt(parts[1]));
 			}
 
+            ++validDept;
+            lsn = putDepartment(parts[0],Integer.parseInt(parts[1]));
 		}
+        sync(lsn);
+        return validDept;
+    }
+
+    /**
+     * Reads department data from a large CSV file, parsing it in parallel chunks.
+     * The file has the same format accepted by {@link #readFromFileDepartments(Reader)}.
+     * 
+     * @param file The path of the CSV file. Must not be null.
+     * @param memoryMapped Whether the file is memory mapped instead of being read into the heap.
+     * @return The number of departments successfully read and stored from the file.
+     * @throws IOException If there is an error reading from the file or if the path is null.
+     */
+    public int readFromFileDepartments(Path file, boolean memoryMapped) throws IOException {
+        long t0 = metrics.start();
+        try {
+            return readDepartments(file, memoryMapped);
+        } finally {
+            metrics.stop(Operation.READ_DEPARTMENTS, t0);
+        }
+    }
+
+    private int readDepartments(Path file, boolean memoryMapped) throws IOException {
+        if(file == null) throw new IOException();
+        List<List<String[]>> chunks = new CsvBulkReader(2, memoryMapped)
+                .read(file, parts -> new String[] {parts[0], parts[1]});
+        int validDept = 0;
+        long lsn = 0;
+        for(List<String[]> chunk : chunks){
+            for(String[] d : chunk) lsn = putDepartment(d[0], Integer.parseInt(d[1]));
+            validDept += chunk.size();
+        }
+        sync(lsn);
         return validDept;
     }
 
@@ -230,60 +514,238 @@ public class EmergencyApp {
      * @param dateTimeAccepted The date and time the patient was accepted into the emergency system.
      */
     public Patient addPatient(String fiscalCode, String name, String surname, String dateOfBirth, String reason, String dateTimeAccepted) {
-        if(patients.containsKey(fiscalCode)) return patients.get(fiscalCode);
-        
-        Patient p = new Patient(fiscalCode, dateOfBirth, name, reason, PatientStatus.ADMITTED, surname, dateTimeAccepted);
-        patients.put(fiscalCode, p );
-        patientsBysurname.putIfAbsent(surname, new ArrayList<>());
-        patientsBysurname.get(surname).add(p);
-        return p;
+        long t0 = metrics.start();
+        try {
+            Patient existing = patients.get(fiscalCode);
+            if(existing != null) return existing;
+
+            Patient p = new Patient(fiscalCode, dateOfBirth, name, reason, PatientStatus.ADMITTED, surname, dateTimeAccepted);
+            long[] lsn = new long[1];
+            beginUpdate(false);
+            try {
+                // the recovery runs before the journal is attached and keeps the patients it finds
+                if(journal != null && archive.contains(fiscalCode)) return archive.get(fiscalCode);
+                // journaled before it becomes visible, so every record about the patient follows this one
+                existing = patients.computeIfAbsent(fiscalCode, fc -> {
+                    lsn[0] = log(RegistryJournal.PATIENT, fc, name, surname, p.getDateOfBirth(), reason, p.getDateTimeAccepted());
+                    return p;
+                });
+                if(existing != p) return existing;
+                p.attach(statistics, events);
+                patientsByDate.add(p);
+                patientsBysurname.add(p);
+                indexReason(p);
+                events.publish(RegistryEvent.admitted(p));
+                publish(v -> v.withPatients(List.of(p)));
+            } finally {
+                endUpdate(false);
+            }
+            sync(lsn[0]);
+            return p;
+        } finally {
+            metrics.stop(Operation.ADD_PATIENT, t0);
+        }
+    }
+
+    /**
+     * Registers several patients at once, as {@link #addPatient} would do one by one.
+     * The indexes are updated once per surname and acceptance date, and a
+     * persistent registry waits for the journal only once, at the end.
+     *
+     * @param batch The patients to register; they are registered as admitted.
+     * @return For each patient of the batch, in the same order, the registered patient:
+     *         the one given, or the one already registered with the same fiscal code.
+     */
+    public List<Patient> addPatients(Collection<Patient> batch) {
+        long t0 = metrics.start();
+        try {
+            List<Patient> result = new ArrayList<>(batch.size());
+            List<Patient> added = new ArrayList<>(batch.size());
+            long[] lsn = new long[1];
+            beginUpdate(false);
+            try {
+                for(Patient p : batch) {
+                    if(journal != null && archive.contains(p.getFiscalCode())) {
+                        result.add(archive.get(p.getFiscalCode()));
+                        continue;
+                    }
+                    // journaled before it becomes visible, as in addPatient
+                    Patient existing = patients.computeIfAbsent(p.getFiscalCode(), fc -> {
+                        p.setStatus(PatientStatus.ADMITTED);
+                        lsn[0] = log(RegistryJournal.PATIENT, fc, p.getName(), p.getSurname(), p.getDateOfBirth(), p.getReason(), p.getDateTimeAccepted());
+                        return p;
+                    });
+                    if(existing != p) {
+                        result.add(existing);
+                        continue;
+                    }
+                    p.attach(statistics, events);
+                    added.add(p);
+                    result.add(p);
+                }
+                patientsByDate.addAll(added);
+                patientsBysurname.addAll(added);
+                for(Patient p : added) indexReason(p);
+                for(Patient p : added) events.publish(RegistryEvent.admitted(p));
+                publish(v -> v.withPatients(added));
+            } finally {
+                endUpdate(false);
+            }
+            sync(lsn[0]);
+            return result;
+        } finally {
+            metrics.stop(Operation.ADD_PATIENTS, t0);
+        }
     }
 
     /**
      * Retrieves a patient or patients based on a fiscal code or surname.
      *
      * @param identifier Either the fiscal code or the surname of the patient(s).
-     * @return A single patient if a fiscal code is provided, or a list of patients if a surname is provided.
+     * @return A single patient if a fiscal code is provided, or the patients with that surname,
+     *         sorted by name, if a surname is provided.
      *         Returns an empty collection if no match is found.
      */    
     public List<Patient> getPatient(String identifier) throws EmergencyException {
-        if(!patients.containsKey(identifier) && !patientsBysurname.containsKey(identifier)) return new  ArrayList<>();
-        List<Patient> pat = new ArrayList<>();
+        long t0 = metrics.start();
+        try {
+            Patient p = lookup(identifier);
+            if (p != null) return List.of(p);
+            return patientsBysurname.get(identifier);
+        } finally {
+            metrics.stop(Operation.GET_PATIENT, t0);
+        }
+    }
+
+    /**
+     * Searches the patients whose surname starts with a prefix, ignoring case.
+     * The results come one page at a time: the next page is requested
+     * passing the fiscal code of the last patient of the previous one.
+     *
+     * @param surnamePrefix The prefix of the surname.
+     * @param afterFiscalCode The fiscal code of the last patient of the previous page, or null for the first page.
+     * @param pageSize The maximum number of patients to return.
+     * @return The patients sorted by surname, then by name.
+     *         Returns an empty list if there are no more matches.
+     */
+    public List<Patient> searchPatients(String surnamePrefix, String afterFiscalCode, int pageSize) {
+        long t0 = metrics.start();
+        try {
+            Patient after = afterFiscalCode == null ? null : patients.get(afterFiscalCode);
+            if(afterFiscalCode != null && after == null) return List.of();
+            return patientsBysurname.startingWith(surnamePrefix, after)
+                                    .limit(pageSize)
+                                    .toList();
+        } finally {
+            metrics.stop(Operation.SEARCH_PATIENTS, t0);
+        }
+    }
 
-        if (patients.containsKey(identifier)){
-            pat.add(patients.get(identifier));
-            
-        } 
-           
-        if(patientsBysurname.containsKey(identifier)){
-            pat = patientsBysurname.values().stream()
-                                            .flatMap(List::stream)
-                                            .toList();
+    /**
+     * Searches the patients by the words of the reason of their admission,
+     * with the same queries as {@link #searchReports}. Patients moved to the
+     * archive are still found.
+     *
+     * @param query The query, e.g. {@code "chest pain"}.
+     * @param from The first acceptance date, included, formatted as "yyyy-MM-dd".
+     * @param to The last acceptance date, included, formatted as "yyyy-MM-dd".
+     * @param limit The maximum number of patients.
+     * @return The fiscal codes of the matching patients, in order of registration.
+     */
+    public List<String> searchPatientsByReason(String query, String from, String to, int limit) {
+        long t0 = metrics.start();
+        try {
+            return patientsByReason.search(query, (int) LocalDate.parse(from).toEpochDay(),
+                                           (int) LocalDate.parse(to).toEpochDay(), limit);
+        } finally {
+            metrics.stop(Operation.SEARCH_REASONS, t0);
         }
-       return pat;
     }
 
     /**
      * Retrieves the fiscal codes of patients accepted on a specific date, 
-     * sorted by acceptance time in descending order.
+     * sorted by surname and name.
      *
      * @param date The date of acceptance to filter the patients by, expected in the format "yyyy-MM-dd".
-     * @return A list of patient fiscal codes who were accepted on the given date, sorted from the most recent.
+     * @return A list of patient fiscal codes who were accepted on the given date, sorted by surname and name.
      *         Returns an empty list if no patients were accepted on that date.
      */
     public List<String> getPatientsByDate(String date) {
-        if(!patients.values().stream().anyMatch(p -> p.isAcceptanceDate(date))) return new ArrayList<>();
+        long t0 = metrics.start();
+        try {
+            return patientsByDate.getFiscalCodes(LocalDate.parse(date));
+        } finally {
+            metrics.stop(Operation.GET_PATIENTS_BY_DATE, t0);
+        }
+    }
 
-        return patients.values().stream()
-                                .filter(p -> p.isAcceptanceDate(date))
-                                .sorted(Comparator.comparing(Patient::getSurname)
-                                                    .thenComparing(Patient::getName))
-                                .map(Patient::getFiscalCode)
-                                .toList();
+    /**
+     * Retrieves the fiscal codes of patients accepted between two dates, both included.
+     *
+     * @param from The first date of acceptance, expected in the format "yyyy-MM-dd".
+     * @param to The last date of acceptance, expected in the format "yyyy-MM-dd".
+     * @return A list of patient fiscal codes sorted by date of acceptance, then by surname and name.
+     *         Returns an empty list if no patients were accepted in that range.
+     */
+    public List<String> getPatientsByDate(String from, String to) {
+        long t0 = metrics.start();
+        try {
+            return patientsByDate.getFiscalCodes(LocalDate.parse(from), LocalDate.parse(to));
+        } finally {
+            metrics.stop(Operation.GET_PATIENTS_BY_DATE, t0);
+        }
+    }
+
+    /**
+     * Subscribes a listener to the changes of the registry: admissions, status
+     * changes, reports, hospitalizations and discharges. The events are delivered
+     * asynchronously, in batches, so the listeners never slow down the operations
+     * unless the {@link BackpressurePolicy#BLOCK} policy makes them wait for room.
+     *
+     * @param listener The listener.
+     */
+    public void subscribe(RegistryListener listener) {
+        events.subscribe(listener);
+    }
+
+    /**
+     * @param listener A listener previously subscribed.
+     */
+    public void unsubscribe(RegistryListener listener) {
+        events.unsubscribe(listener);
+    }
+
+    /**
+     * Chooses what happens when the listeners fall behind and the event buffer is full.
+     * The default policy is {@link BackpressurePolicy#BLOCK}.
+     *
+     * @param policy The policy.
+     */
+    public void setBackpressurePolicy(BackpressurePolicy policy) {
+        events.setPolicy(policy);
+    }
+
+    /**
+     * @return The number of events dropped under the {@link BackpressurePolicy#DROP} policy.
+     */
+    public long getDroppedEvents() {
+        return events.dropped();
+    }
+
+    /**
+     * Chooses how patients are assigned to the professionals in service.
+     * The default policy is {@link AssignmentPolicy#FIRST_BY_ID}.
+     *
+     * @param policy The assignment policy.
+     */
+    public void setAssignmentPolicy(AssignmentPolicy policy) {
+        scheduler.setPolicy(policy);
     }
 
     /**
      * Assigns a patient to a professional based on the required specialization and checks availability during the request period.
+     * The professional is chosen according to the current {@link AssignmentPolicy} and the patient
+     * is recorded among the professional's patients.
      *
      * @param fiscalCode The fiscal code of the patient.
      * @param specialization The required specialization of the professional.
@@ -291,52 +753,540 @@ public class EmergencyApp {
      * @throws EmergencyException If the patient does not exist, if no professionals with the required specialization are found, or if none are available during the period of the request.
      */
     public String assignPatientToProfessional(String fiscalCode, String specialization) throws EmergencyException {
-        if(!patients.containsKey(fiscalCode)) throw new EmergencyException();
-        Patient p = patients.get(fiscalCode);
-        LocalDate acceptanceDate =LocalDate.parse(p.getDateTimeAccepted()) ;
+        long t0 = metrics.start();
+        try {
+            if(!patients.containsKey(fiscalCode)) throw new EmergencyException();
+            Patient p = patients.get(fiscalCode);
+
+            Professional pr = scheduler.select(specialization, p.getAcceptanceEpochDay());
+            if(pr == null) throw new EmergencyException(" no such prof service");
+
+            long lsn;
+            beginUpdate(false);
+            try {
+                assign(p, pr);
+                lsn = log(RegistryJournal.ASSIGNED, fiscalCode, pr.getId());
+            } finally {
+                endUpdate(false);
+            }
+            sync(lsn);
+            return pr.getId();
+        } finally {
+            metrics.stop(Operation.ASSIGN_PATIENT, t0);
+        }
+    }
+
+    /**
+     * Puts an admitted patient in the triage queue of a specialization.
+     * The severity is derived from the reason of the admission, from 1 (most urgent) to 5;
+     * a patient already waiting is moved to the queue of the new specialization.
+     *
+     * @param fiscalCode The fiscal code of the patient.
+     * @param specialization The specialization the patient is waiting for.
+     * @return The severity given to the patient.
+     * @throws EmergencyException If the patient does not exist or is no longer admitted.
+     */
+    public int triagePatient(String fiscalCode, String specialization) throws EmergencyException {
+        long t0 = metrics.start();
+        try {
+            Patient p = patients.get(fiscalCode);
+            if(p == null) throw new EmergencyException("No such patient");
+            if(p.getStatus() != PatientStatus.ADMITTED) throw new EmergencyException("Patient not admitted");
+            int severity = TriageQueue.severityOf(p.getReason());
+            triage.enqueue(p, specialization, severity);
+            // a discharge racing with the enqueue may have missed the new entry
+            if(p.getStatus() != PatientStatus.ADMITTED) triage.remove(fiscalCode);
+            return severity;
+        } finally {
+            metrics.stop(Operation.TRIAGE_PATIENT, t0);
+        }
+    }
+
+    /**
+     * Changes the severity of a patient waiting in a triage queue.
+     * Among patients with the same severity the acceptance order is kept.
+     *
+     * @param fiscalCode The fiscal code of the patient.
+     * @param severity The new severity, from 1 (most urgent) to 5.
+     * @throws EmergencyException If the severity is out of range or the patient is not waiting.
+     */
+    public void reprioritize(String fiscalCode, int severity) throws EmergencyException {
+        if(severity < TriageQueue.MOST_URGENT || severity > TriageQueue.LEAST_URGENT) throw new EmergencyException("Invalid severity");
+        if(!triage.reprioritize(fiscalCode, severity)) throw new EmergencyException("Patient not waiting");
+    }
 
-        if(!professionals.values().stream().anyMatch( pr-> pr.isInService(acceptanceDate) ) 
-        || professionals.values().stream()
-        .filter(pr-> pr.getSpecialization().equalsIgnoreCase(specialization))
-        .toList()
-        .isEmpty() || (!professionals.values().stream().anyMatch( pr-> pr.isInService(acceptanceDate) ) && professionals.values().stream()
-        .filter(pr-> pr.getSpecialization().equalsIgnoreCase(specialization))
-        .toList()
-        .isEmpty() ) ) throw new EmergencyException(" no such prof service");
+    /**
+     * Takes the next patient to visit for a specialization out of its triage queue:
+     * the most urgent one, and among those the one accepted first.
+     *
+     * @param specialization The specialization.
+     * @return The fiscal code of the patient, or null if nobody is waiting.
+     */
+    public String nextPatient(String specialization) {
+        long t0 = metrics.start();
+        try {
+            Patient p = triage.next(specialization);
+            return p == null ? null : p.getFiscalCode();
+        } finally {
+            metrics.stop(Operation.NEXT_PATIENT, t0);
+        }
+    }
 
-        return professionals.values().stream()
-                                    .filter(pr->pr.isInService(acceptanceDate) 
-                                    && pr.getSpecialization().equals(specialization))
-                                    .map(Professional::getId)
-                                    .toList().get(0);
+    /**
+     * @param specialization The specialization.
+     * @return The number of patients waiting in the triage queue of the specialization.
+     */
+    public int getNumberOfPatientsWaiting(String specialization) {
+        return triage.size(specialization);
     }
 
     public Report saveReport(String professionalId, String fiscalCode, String date, String description) throws EmergencyException {
-        if(!professionals.containsKey(professionalId) ) throw new EmergencyException();
-        Report rep = new Report(date, description, fiscalCode, Integer.toString(++reportId), professionalId);
-        reports.put(reportId, rep);
-        return rep;
+        long t0 = metrics.start();
+        try {
+            if(!professionals.containsKey(professionalId) ) throw new EmergencyException();
+            Report rep;
+            long lsn;
+            beginUpdate(false);
+            try {
+                int id = reportId.incrementAndGet();
+                rep = new Report(date, description, fiscalCode, Integer.toString(id), professionalId, compressReports);
+                reports.add(rep);
+                events.publish(RegistryEvent.reportSaved(rep));
+                lsn = log(RegistryJournal.REPORT, rep.getId(), professionalId, fiscalCode, rep.getDate(), description);
+            } finally {
+                endUpdate(false);
+            }
+            sync(lsn);
+            return rep;
+        } finally {
+            metrics.stop(Operation.SAVE_REPORT, t0);
+        }
+    }
+
+    /**
+     * Chooses whether the descriptions of the reports saved from now on are kept
+     * compressed in memory. Long descriptions take much less heap, at the cost
+     * of decompressing them on every {@link Report#getDescription()}.
+     *
+     * @param compress true to compress the descriptions.
+     */
+    public void setReportCompression(boolean compress) {
+        this.compressReports = compress;
+    }
+
+    /**
+     * Retrieves the reports of a patient, newest first, one page at a time.
+     * The next page is requested passing the ID of the last report of the previous one.
+     *
+     * @param fiscalCode The fiscal code of the patient.
+     * @param afterReportId The ID of the last report of the previous page, or null for the first page.
+     * @param pageSize The maximum number of reports to return.
+     * @return The reports; an empty list if there are no more.
+     */
+    public List<Report> getReportsByPatient(String fiscalCode, String afterReportId, int pageSize) {
+        long t0 = metrics.start();
+        try {
+            Report after = cursor(afterReportId);
+            if(afterReportId != null && after == null) return List.of();
+            return reports.byPatient(fiscalCode, after, pageSize);
+        } finally {
+            metrics.stop(Operation.GET_REPORTS, t0);
+        }
+    }
+
+    /**
+     * Retrieves the reports written by a professional in a date range, oldest first,
+     * one page at a time.
+     * The next page is requested passing the ID of the last report of the previous one.
+     *
+     * @param professionalId The ID of the professional.
+     * @param from The first date, included, in the format "yyyy-MM-dd".
+     * @param to The last date, included, in the format "yyyy-MM-dd".
+     * @param afterReportId The ID of the last report of the previous page, or null for the first page.
+     * @param pageSize The maximum number of reports to return.
+     * @return The reports; an empty list if there are no more.
+     */
+    public List<Report> getReportsByProfessional(String professionalId, String from, String to, String afterReportId, int pageSize) {
+        long t0 = metrics.start();
+        try {
+            Report after = cursor(afterReportId);
+            if(afterReportId != null && after == null) return List.of();
+            return reports.byProfessional(professionalId, LocalDate.parse(from), LocalDate.parse(to), after, pageSize);
+        } finally {
+            metrics.stop(Operation.GET_REPORTS, t0);
+        }
+    }
+
+    /**
+     * Retrieves the reports of a date range, oldest first, one page at a time.
+     * The next page is requested passing the ID of the last report of the previous one.
+     *
+     * @param from The first date, included, in the format "yyyy-MM-dd".
+     * @param to The last date, included, in the format "yyyy-MM-dd".
+     * @param afterReportId The ID of the last report of the previous page, or null for the first page.
+     * @param pageSize The maximum number of reports to return.
+     * @return The reports; an empty list if there are no more.
+     */
+    public List<Report> getReportsByDate(String from, String to, String afterReportId, int pageSize) {
+        long t0 = metrics.start();
+        try {
+            Report after = cursor(afterReportId);
+            if(afterReportId != null && after == null) return List.of();
+            return reports.byDate(LocalDate.parse(from), LocalDate.parse(to), after, pageSize);
+        } finally {
+            metrics.stop(Operation.GET_REPORTS, t0);
+        }
+    }
+
+    /**
+     * Finds the report a page of reports starts after.
+     *
+     * @return The report, or null if there is none with that ID, including an ID that is not a number.
+     */
+    private Report cursor(String afterReportId) {
+        if(afterReportId == null) return null;
+        try {
+            return reports.get(Integer.parseInt(afterReportId));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Searches the reports by the words of their description, ignoring case and accents.
+     * All the words of the query are required; {@code OR} separates alternatives,
+     * {@code -word} excludes the reports containing it and {@code word*} matches
+     * every word starting with it, e.g. {@code "fracture OR sprain* -finger"}.
+     *
+     * @param query The query.
+     * @param from The first day, included, formatted as "yyyy-MM-dd".
+     * @param to The last day, included, formatted as "yyyy-MM-dd".
+     * @param limit The maximum number of reports.
+     * @return The matching reports in the date range, in order of saving.
+     */
+    public List<Report> searchReports(String query, String from, String to, int limit) {
+        long t0 = metrics.start();
+        try {
+            return reports.search(query, LocalDate.parse(from), LocalDate.parse(to), limit);
+        } finally {
+            metrics.stop(Operation.SEARCH_REPORTS, t0);
+        }
     }
 
     /**
      * Either discharges a patient or hospitalizes them depending on the availability of space in the requested department.
+     * A patient that already has a bed keeps it and is left as it is.
      * 
      * @param fiscalCode The fiscal code of the patient to be discharged or hospitalized.
      * @param departmentName The name of the department to which the patient might be admitted.
      * @throws EmergencyException If the patient does not exist or if the department does not exist.
      */
     public void dischargeOrHospitalize(String fiscalCode, String departmentName) throws EmergencyException {
-        if(!patients.containsKey(fiscalCode) ) throw new EmergencyException("No such patient");
-        if(!departments.containsKey(departmentName)) throw new EmergencyException("No such dept");
+        long t0 = metrics.start();
+        try {
+            Patient p = patients.get(fiscalCode);
+            if(p == null) throw new EmergencyException("No such patient");
+            Department d = beds.get(departmentName);
+            if(d == null) throw new EmergencyException("No such dept");
+            if(beds.bedOf(p) != null) return;
+
+            long lsn;
+            beginUpdate(false);
+            try {
+                // the bed is claimed atomically, so two desks can never get the last one,
+                // nor two beds for the same patient
+                switch(beds.tryOccupy(p, d)) {
+                    case GRANTED -> {
+                        hospitalize(p, d);
+                        lsn = log(RegistryJournal.HOSPITALIZED, fiscalCode, departmentName);
+                    }
+                    case FULL -> {
+                        discharge(p, d);
+                        lsn = log(RegistryJournal.DISCHARGED, fiscalCode, departmentName);
+                    }
+                    default -> lsn = 0;
+                }
+            } finally {
+                endUpdate(false);
+            }
+            sync(lsn);
+        } finally {
+            metrics.stop(Operation.DISCHARGE_OR_HOSPITALIZE, t0);
+        }
+    }
+
+    /**
+     * Discharges or hospitalizes several patients at once, as {@link #dischargeOrHospitalize}
+     * would do one by one. The requests for each department take their beds with a
+     * single occupancy update, the earlier requests first; a persistent registry
+     * waits for the journal only once, at the end. Each patient is handled once,
+     * the first time it appears.
+     *
+     * @param requests The pairs of fiscal code and department name.
+     * @return For each request, in the same order, the status of the patient afterwards,
+     *         or null if the patient or the department does not exist.
+     */
+    public List<PatientStatus> dischargeOrHospitalizeAll(List<Map.Entry<String, String>> requests) {
+        long t0 = metrics.start();
+        try {
+            PatientStatus[] results = new PatientStatus[requests.size()];
+            Map<Department, List<Patient>> groups = new HashMap<>();
+            Map<Department, List<Integer>> positions = new HashMap<>();
+            Map<Patient, Integer> first = new HashMap<>(requests.size() * 4 / 3 + 1);
+            int[] repeated = new int[requests.size()];
+            int repeats = 0;
+            for(int i = 0; i < results.length; i++) {
+                Map.Entry<String, String> r = requests.get(i);
+                Patient p = patients.get(r.getKey());
+                Department d = beds.get(r.getValue());
+                if(p == null || d == null) continue;
+                if(first.putIfAbsent(p, i) != null) {
+                    repeated[repeats++] = i;
+                    continue;
+                }
+                if(beds.bedOf(p) != null) {
+                    results[i] = p.getStatus();
+                    continue;
+                }
+                groups.computeIfAbsent(d, k -> new ArrayList<>()).add(p);
+                positions.computeIfAbsent(d, k -> new ArrayList<>()).add(i);
+            }
+
+            long lsn = 0;
+            beginUpdate(false);
+            try {
+                for(Map.Entry<Department, List<Patient>> g : groups.entrySet()) {
+                    Department d = g.getKey();
+                    List<Patient> group = g.getValue();
+                    List<Integer> at = positions.get(d);
+                    BedManager.Claim[] claims = beds.tryOccupy(group, d);
+                    for(int k = 0; k < group.size(); k++) {
+                        Patient p = group.get(k);
+                        switch(claims[k]) {
+                            case GRANTED -> {
+                                hospitalize(p, d);
+                                results[at.get(k)] = PatientStatus.HOSPITALIZED;
+                                lsn = log(RegistryJournal.HOSPITALIZED, p.getFiscalCode(), d.getName());
+                            }
+                            case FULL -> {
+                                discharge(p, d);
+                                results[at.get(k)] = PatientStatus.DISCHARGED;
+                                lsn = log(RegistryJournal.DISCHARGED, p.getFiscalCode(), d.getName());
+                            }
+                            default -> results[at.get(k)] = p.getStatus();
+                        }
+                    }
+                }
+            } finally {
+                endUpdate(false);
+            }
+            sync(lsn);
+            for(int k = 0; k < repeats; k++) {
+                int i = repeated[k];
+                results[i] = results[first.get(patients.get(requests.get(i).getKey()))];
+            }
+            return Arrays.asList(results);
+        } finally {
+            metrics.stop(Operation.DISCHARGE_OR_HOSPITALIZE_ALL, t0);
+        }
+    }
 
-        if(departments.get(departmentName).equals(0)) { ++dischargedPatients; patients.get(fiscalCode).setStatus(PatientStatus.DISCHARGED); return;}
+    /**
+     * Hospitalizes a patient if the department has a free bed, otherwise puts
+     * the patient in the waitlist of the department. Waiting patients stay
+     * admitted and get the beds in order of arrival, as they are released.
+     * A patient waits for one department at a time.
+     *
+     * @param fiscalCode The fiscal code of the patient.
+     * @param departmentName The name of the department.
+     * @return true if the patient has been hospitalized, false if waiting.
+     * @throws EmergencyException If the patient or the department does not exist, or if the patient is no longer admitted.
+     */
+    public boolean hospitalizeOrWait(String fiscalCode, String departmentName) throws EmergencyException {
+        long t0 = metrics.start();
+        try {
+            Patient p = patients.get(fiscalCode);
+            if(p == null) throw new EmergencyException("No such patient");
+            Department d = beds.get(departmentName);
+            if(d == null) throw new EmergencyException("No such dept");
+            if(p.getStatus() != PatientStatus.ADMITTED) throw new EmergencyException("Patient not admitted");
 
-        patients.get(fiscalCode).setStatus(PatientStatus.HOSPITALIZED);
-        deptPat.putIfAbsent(departmentName, new ArrayList<>());
-        deptPat.get(departmentName).add(patients.get(fiscalCode));
-        int num = departments.get(departmentName) -1;
-        departments.put(departmentName, num) ;
-      
+            BedManager.Claim claim;
+            long lsn;
+            beginUpdate(false);
+            try {
+                beds.leaveWaitlist(p);
+                claim = beds.occupyOrWait(p, d);
+                switch(claim) {
+                    case GRANTED -> {
+                        hospitalize(p, d);
+                        lsn = log(RegistryJournal.HOSPITALIZED, fiscalCode, departmentName);
+                    }
+                    case FULL -> lsn = log(RegistryJournal.WAITLISTED, fiscalCode, departmentName);
+                    default -> lsn = 0;
+                }
+            } finally {
+                endUpdate(false);
+            }
+            sync(lsn);
+            return claim != BedManager.Claim.FULL;
+        } finally {
+            metrics.stop(Operation.HOSPITALIZE_OR_WAIT, t0);
+        }
+    }
+
+    /**
+     * Discharges a hospitalized patient, releasing the bed.
+     * The bed goes to the first patient waiting for the department, if any.
+     *
+     * @param fiscalCode The fiscal code of the patient.
+     * @return The fiscal code of the patient that got the bed, or null if the bed is now free.
+     * @throws EmergencyException If the patient does not exist or has no bed.
+     */
+    public String releasePatient(String fiscalCode) throws EmergencyException {
+        long t0 = metrics.start();
+        try {
+            Patient p = patients.get(fiscalCode);
+            if(p == null) throw new EmergencyException("No such patient");
+
+            Patient[] handed = new Patient[1];
+            Patient next;
+            long lsn;
+            beginUpdate(false);
+            try {
+                // the bed is taken away atomically, so a second release of the same bed fails
+                Department d = beds.release(p, n -> handed[0] = n);
+                if(d == null) throw new EmergencyException("Patient not hospitalized");
+                next = handed[0];
+                release(p, d, next);
+                lsn = log(RegistryJournal.RELEASED, fiscalCode, next == null ? "" : next.getFiscalCode());
+            } finally {
+                endUpdate(false);
+            }
+            sync(lsn);
+            return next == null ? null : next.getFiscalCode();
+        } finally {
+            metrics.stop(Operation.RELEASE_PATIENT, t0);
+        }
+    }
+
+    /**
+     * Assigns a patient of an {@link EmergencyNetwork}, registered here or at another
+     * site, to a professional of this registry, as {@link #assignPatientToProfessional} would.
+     * Only in-memory registries take visitors, since the journal could not replay them.
+     * The site of a visitor then records the assignment with {@link #visitorAssigned}.
+     *
+     * @param p The patient.
+     * @param specialization The required specialization of the professional.
+     * @return The assigned professional, or null if none is in service.
+     */
+    Professional assignVisitor(Patient p, String specialization) {
+        if(journal != null) throw new IllegalStateException("Visitors are not journaled");
+        long t0 = metrics.start();
+        try {
+            Professional pr = scheduler.select(specialization, p.getAcceptanceEpochDay());
+            if(pr == null) return null;
+            assign(p, pr);
+            return pr;
+        } finally {
+            metrics.stop(Operation.ASSIGN_PATIENT, t0);
+        }
+    }
+
+    /**
+     * Records in the snapshot of the site of a patient its assignment to a
+     * professional of another site, who joins the snapshot too.
+     */
+    void visitorAssigned(Patient p, Professional pr) {
+        publish(v -> v.withProfessional(pr).withAssignment(p.getFiscalCode(), pr.getId()));
+    }
+
+    /**
+     * Takes a bed of this registry for a patient of an {@link EmergencyNetwork},
+     * registered here or at another site. The site of the patient then
+     * hospitalizes or discharges it with {@link #visitorClaimed}.
+     *
+     * @param p The patient.
+     * @param departmentName The name of the department.
+     * @return The outcome of the request.
+     * @throws EmergencyException If the department does not exist.
+     */
+    BedManager.Claim claimVisitorBed(Patient p, String departmentName) throws EmergencyException {
+        if(journal != null) throw new IllegalStateException("Visitors are not journaled");
+        long t0 = metrics.start();
+        try {
+            Department d = department(departmentName);
+            if(beds.bedOf(p) != null) return BedManager.Claim.HELD;
+            return beds.tryOccupy(p, d);
+        } finally {
+            metrics.stop(Operation.DISCHARGE_OR_HOSPITALIZE, t0);
+        }
+    }
+
+    /**
+     * Hospitalizes or discharges a patient of this registry, as the outcome of
+     * {@link #claimVisitorBed} at the site of the department.
+     */
+    void visitorClaimed(Patient p, String departmentName, BedManager.Claim claim) {
+        switch(claim) {
+            case GRANTED -> hospitalize(p, departmentName);
+            case FULL -> discharge(p, departmentName);
+            default -> { }
+        }
+    }
+
+    private void indexReason(Patient p) {
+        patientsByReason.add(p.getFiscalCode(), p.getAcceptanceEpochDay(), p.getReason());
+    }
+
+    private void assign(Patient p, Professional pr) {
+        pr.addPatient(p);
+        publish(v -> v.withAssignment(p.getFiscalCode(), pr.getId()));
+    }
+
+    private void discharge(Patient p, Department d) {
+        discharge(p, d.getName());
+    }
+
+    private void discharge(Patient p, String department) {
+        dischargedPatients.incrementAndGet();
+        leave(p, PatientStatus.DISCHARGED);
+        publish(v -> v.withDischarged(p.getFiscalCode()));
+        events.publish(RegistryEvent.discharged(p, department));
+    }
+
+    /**
+     * Discharges a patient and hands its bed to the next one, if any, in a
+     * single update of the snapshot: its readers never see the bed free in between.
+     */
+    private void release(Patient p, Department d, Patient next) {
+        dischargedPatients.incrementAndGet();
+        leave(p, PatientStatus.DISCHARGED);
+        if(next != null) leave(next, PatientStatus.HOSPITALIZED);
+        publish(v -> next == null ? v.withDischarged(p.getFiscalCode())
+                                  : v.withDischarged(p.getFiscalCode()).withHospitalized(next.getFiscalCode(), d.getName()));
+        events.publish(RegistryEvent.discharged(p, d.getName()));
+        if(next != null) events.publish(RegistryEvent.hospitalized(next, d.getName()));
+    }
+
+    private void hospitalize(Patient p, Department d) {
+        hospitalize(p, d.getName());
+    }
+
+    private void hospitalize(Patient p, String department) {
+        leave(p, PatientStatus.HOSPITALIZED);
+        publish(v -> v.withHospitalized(p.getFiscalCode(), department));
+        events.publish(RegistryEvent.hospitalized(p, department));
+    }
+
+    /**
+     * Moves a patient out of the admitted ones, out of the triage queues and the waitlists.
+     * The snapshot is left to the caller.
+     */
+    private void leave(Patient p, PatientStatus status) {
+        p.setStatus(status);
+        triage.remove(p.getFiscalCode());
+        beds.leaveWaitlist(p);
     }
 
     /**
@@ -346,19 +1296,91 @@ public class EmergencyApp {
      * @return 0 if the patient is currently hospitalized, -1 if not hospitalized or discharged.
      * @throws EmergencyException If no patient is found with the given fiscal code.
      */
-    public int verifyPatient(String fiscalCode) throws EmergencyException{
-        //0 se il paziente è soltanto ammesso 
-        if(!patients.containsKey(fiscalCode)){ throw new EmergencyException("No such patient");} 
+    public int verifyPatient(String fiscalCode) throws EmergencyException {
+        long t0 = metrics.start();
+        try {
+            //0 se il paziente è soltanto ammesso 
+            Patient p = lookup(fiscalCode);
+            if(p == null){ throw new EmergencyException("No such patient");} 
 
-        if(patients.get(fiscalCode).getStatus().equals(PatientStatus.DISCHARGED)
-            || patients.get(fiscalCode).getStatus().equals(PatientStatus.ADMITTED)) 
-            { return 0;}
+            if(p.getStatus().equals(PatientStatus.DISCHARGED)
+                || p.getStatus().equals(PatientStatus.ADMITTED)) 
+                { return 0;}
 
-        if(patients.get(fiscalCode).getStatus().equals(PatientStatus.HOSPITALIZED))
-            return 1;
-        
-        return 0;
-        
+            if(p.getStatus().equals(PatientStatus.HOSPITALIZED))
+                return 1;
+
+            return 0;
+        } finally {
+            metrics.stop(Operation.VERIFY_PATIENT, t0);
+        }
+    }
+
+    /**
+     * Moves the discharged patients accepted before a date from memory to the
+     * archive of a persistent registry, on the local disk. An archived patient
+     * is still found by fiscal code by {@link #getPatient(String)} and
+     * {@link #verifyPatient(String)}, through a cache of the archived patients
+     * looked up most often, and is still counted by the statistics; it is no
+     * longer found by surname or date, nor among the patients of its professionals,
+     * and it cannot be updated anymore.
+     *
+     * @param beforeDate The first acceptance date kept in memory, in the format "yyyy-MM-dd".
+     * @return The number of patients archived.
+     * @throws IOException If the archive cannot be written.
+     * @throws IllegalStateException If the registry is not persistent.
+     */
+    public int archivePatients(String beforeDate) throws IOException {
+        if(journal == null) throw new IllegalStateException("Only a persistent registry has an archive");
+        int day = (int) LocalDate.parse(beforeDate).toEpochDay();
+        long t0 = metrics.start();
+        try {
+            int archived;
+            long lsn;
+            beginUpdate(true);
+            try {
+                archived = archive(day);
+                lsn = log(RegistryJournal.ARCHIVED, beforeDate);
+            } finally {
+                endUpdate(true);
+            }
+            sync(lsn);
+            return archived;
+        } finally {
+            metrics.stop(Operation.ARCHIVE_PATIENTS, t0);
+        }
+    }
+
+    /**
+     * Archives the discharged patients accepted before a day; the patients
+     * reach the disk before leaving memory. No other update runs meanwhile.
+     */
+    private int archive(int beforeDay) throws IOException {
+        List<Patient> moved = new ArrayList<>();
+        for(Patient p : patients.values()) {
+            if(p.getStatus() == PatientStatus.DISCHARGED && p.getAcceptanceEpochDay() < beforeDay) moved.add(p);
+        }
+        if(moved.isEmpty()) return 0;
+        archive.putAll(moved);
+
+        Set<Patient> gone = new HashSet<>(moved);
+        for(Professional pr : professionals.values()) pr.archive(gone);
+        patientsBysurname.removeAll(moved);
+        patientsByDate.removeAll(moved);
+        for(Patient p : moved) patients.remove(p.getFiscalCode());
+        archivedTotals = archivedTotals.plus(moved);
+        publish(v -> RegistrySnapshot.of(v.getVersion() + 1, professionals.values(), beds.all().values(),
+                                         patients.values(), beds, dischargedPatients.get(), archivedTotals));
+        return moved.size();
+    }
+
+    /**
+     * Finds a patient in memory or, through its cache, in the archive.
+     */
+    private Patient lookup(String fiscalCode) {
+        Patient p = patients.get(fiscalCode);
+        if(p != null || archive == null) return p;
+        return archive.get(fiscalCode);
     }
 
     /**
@@ -367,11 +1389,12 @@ public class EmergencyApp {
      * @return The total number of patients in the system.
      */    
     public int getNumberOfPatients() {
-
-        return patients.values().stream()
-                                .filter(pat-> pat.getStatus().equals(PatientStatus.ADMITTED))
-                                .toList()
-                                .size();
+        long t0 = metrics.start();
+        try {
+            return statistics.count(PatientStatus.ADMITTED);
+        } finally {
+            metrics.stop(Operation.COUNT_PATIENTS, t0);
+        }
     }
 
     /**
@@ -381,16 +1404,123 @@ public class EmergencyApp {
      * @return The count of patients admitted on that date.
      */
     public int getNumberOfPatientsByDate(String date) {
-       
-        return patients.values().stream()
-                                    .filter(pat-> pat.isAcceptanceDate(date))
-                                    .toList()
-                                    .size();
+        long t0 = metrics.start();
+        try {
+            return statistics.admittedOn(date);
+        } finally {
+            metrics.stop(Operation.COUNT_PATIENTS_BY_DATE, t0);
+        }
     }
 
+    /**
+     * Returns the number of patients sent to a department, including those already released.
+     *
+     * @param departmentName The name of the department.
+     * @return The count of patients hospitalized in the department.
+     * @throws EmergencyException If the department does not exist.
+     */
     public int getNumberOfPatientsHospitalizedByDepartment(String departmentName) throws EmergencyException {
-        if(!deptPat.containsKey(departmentName)) throw new EmergencyException("no such dept to pat");
-        return deptPat.get(departmentName).size();
+        long t0 = metrics.start();
+        try {
+            return department(departmentName).getHospitalized();
+        } finally {
+            metrics.stop(Operation.COUNT_HOSPITALIZED, t0);
+        }
+    }
+
+    /**
+     * @param departmentName The name of the department.
+     * @return The number of beds currently occupied in the department.
+     * @throws EmergencyException If the department does not exist.
+     */
+    public int getOccupiedBeds(String departmentName) throws EmergencyException {
+        return department(departmentName).getOccupied();
+    }
+
+    /**
+     * @param departmentName The name of the department.
+     * @return The number of free beds in the department.
+     * @throws EmergencyException If the department does not exist.
+     */
+    public int getFreeBeds(String departmentName) throws EmergencyException {
+        return department(departmentName).getFree();
+    }
+
+    /**
+     * @param departmentName The name of the department.
+     * @return The number of patients waiting for a bed in the department.
+     * @throws EmergencyException If the department does not exist.
+     */
+    public int getWaitlistSize(String departmentName) throws EmergencyException {
+        return department(departmentName).getWaiting();
+    }
+
+    /**
+     * Retrieves the recent occupancy of a department, one value per minute in
+     * which it changed: the occupancy at the end of that minute.
+     * The history is kept in memory only.
+     *
+     * @param departmentName The name of the department.
+     * @return The occupancy by the start of the minute, oldest first.
+     * @throws EmergencyException If the department does not exist.
+     */
+    public SortedMap<Instant, Integer> getOccupancyHistory(String departmentName) throws EmergencyException {
+        return department(departmentName).getHistory();
+    }
+
+    /**
+     * Forecasts when a department runs out of free beds, from the rates at
+     * which its beds have been taken and released in the last hours.
+     * The rates are smoothed as the beds change hands, so the answer is immediate.
+     *
+     * @param departmentName The name of the department.
+     * @return The hours until the department is full: 0 if it is full already,
+     *         {@link Double#POSITIVE_INFINITY} if the beds are released at least as fast as they are taken.
+     * @throws EmergencyException If the department does not exist.
+     */
+    public double getHoursUntilFull(String departmentName) throws EmergencyException {
+        long t0 = metrics.start();
+        try {
+            return department(departmentName).hoursUntilFull();
+        } finally {
+            metrics.stop(Operation.HOURS_UNTIL_FULL, t0);
+        }
+    }
+
+    /**
+     * Forecasts the admissions of the day after the latest acceptance date,
+     * smoothing the daily admissions of the last weeks.
+     *
+     * @param reason The reason of the admissions, or null for all of them.
+     * @return The expected number of admissions.
+     */
+    public double getExpectedAdmissions(String reason) {
+        long t0 = metrics.start();
+        try {
+            return statistics.admissions().expected(reason);
+        } finally {
+            metrics.stop(Operation.EXPECTED_ADMISSIONS, t0);
+        }
+    }
+
+    /**
+     * @param reason The reason of the admissions, or null for all of them.
+     * @param days The number of days, up to the latest acceptance date included, at most 90.
+     * @return The average number of admissions per day over those days.
+     */
+    public double getAverageAdmissions(String reason, int days) {
+        long t0 = metrics.start();
+        try {
+            return statistics.admissions().average(reason, days);
+        } finally {
+            metrics.stop(Operation.AVERAGE_ADMISSIONS, t0);
+        }
+    }
+
+    private Department department(String name) throws EmergencyException {
+        Department d = beds.get(name);
+        if(d == null) throw new EmergencyException("No such dept");
+        return d;
     }
 
     /**
@@ -399,7 +1529,12 @@ public class EmergencyApp {
      * @return The count of discharged patients.
      */
     public int getNumberOfPatientsDischarged() {
-        return dischargedPatients;
+        long t0 = metrics.start();
+        try {
+            return dischargedPatients.get();
+        } finally {
+            metrics.stop(Operation.COUNT_DISCHARGED, t0);
+        }
     }
 
     /**
@@ -409,11 +1544,411 @@ public class EmergencyApp {
      * @return The count of discharged patients treated by professionals of the given specialization.
      */
     public int getNumberOfPatientsAssignedToProfessionalDischarged(String specialization) {
- 
-        
-        return       professionals.values().stream()
-                                        .filter(p->p.getSpecialization().equalsIgnoreCase(specialization))
-                                        .mapToInt(Professional::countDischarged)
-                                        .sum();
+        long t0 = metrics.start();
+        try {
+            return statistics.dischargedBy(specialization);
+        } finally {
+            metrics.stop(Operation.COUNT_DISCHARGED_BY_SPECIALIZATION, t0);
+        }
+    }
+
+    /**
+     * Takes a consistent, read-only view of the registry for analytics.
+     * Taking it is a single read and the registry keeps working while the
+     * snapshot is queried, possibly with parallel streams.
+     *
+     * @return The registry as of the last update.
+     */
+    public RegistrySnapshot getSnapshot() {
+        return published.get();
+    }
+
+    /**
+     * Exports the patients, their assignments and the reports in a compact
+     * columnar file, to be queried with {@link ColumnStore}. The patients and
+     * the assignments come from a consistent {@link #getSnapshot() snapshot}.
+     *
+     * @param file The file, replaced if it exists.
+     * @throws IOException If the file cannot be written.
+     */
+    public void exportColumns(Path file) throws IOException {
+        long t0 = metrics.start();
+        try {
+            ColumnarWriter writer = new ColumnarWriter();
+            writer.addPatients(getSnapshot());
+            writer.addReports(List.copyOf(reports.all()));
+            writer.write(file);
+        } finally {
+            metrics.stop(Operation.EXPORT_COLUMNS, t0);
+        }
+    }
+
+    /**
+     * Writes the whole registry to a binary file, to be loaded elsewhere with
+     * {@link #importRegistry(Path)}: professionals, departments, patients, including
+     * the archived ones, beds, waitlists, assignments and reports.
+     * The registry is copied while the updates of a persistent registry are
+     * blocked; the file is written afterwards.
+     *
+     * @param file The file, replaced if it exists.
+     * @throws IOException If the file cannot be written.
+     */
+    public void exportRegistry(Path file) throws IOException {
+        long t0 = metrics.start();
+        try {
+            RegistryTransfer transfer;
+            beginUpdate(true);
+            try {
+                List<Patient> pats = List.copyOf(patients.values());
+                byte[] statuses = new byte[pats.size()];
+                for(int i = 0; i < statuses.length; i++) statuses[i] = (byte) pats.get(i).getStatus().ordinal();
+                List<Department> depts = List.copyOf(beds.all().values());
+                Map<Department, Patient[]> waitlists = new HashMap<>();
+                for(Department d : depts) waitlists.put(d, d.getWaitlist());
+                transfer = new RegistryTransfer(List.copyOf(professionals.values()), depts, pats, statuses,
+                                                new HashMap<>(beds.beds()), waitlists, List.copyOf(reports.all()),
+                                                reportId.get(), dischargedPatients.get(),
+                                                archive, archive == null ? 0 : archive.end(), patients);
+            } finally {
+                endUpdate(true);
+            }
+            transfer.write(file);
+        } finally {
+            metrics.stop(Operation.EXPORT_REGISTRY, t0);
+        }
+    }
+
+    /**
+     * Loads a registry written by {@link #exportRegistry(Path)} in a new in-memory registry.
+     * The file is memory mapped and the maps are created with their final size.
+     *
+     * @param file The file.
+     * @return The registry.
+     * @throws IOException If the file cannot be read or was not written by {@link #exportRegistry(Path)}.
+     */
+    public static EmergencyApp importRegistry(Path file) throws IOException {
+        EmergencyApp app = new EmergencyApp();
+        long t0 = app.metrics.start();
+        try {
+            RegistryTransfer.read(file, app.new Import());
+            return app;
+        } finally {
+            app.metrics.stop(Operation.IMPORT_REGISTRY, t0);
+        }
+    }
+
+    private void publish(UnaryOperator<RegistrySnapshot> update) {
+        published.updateAndGet(update);
+    }
+
+    /**
+     * Enables or disables the collection of the call counts and latencies.
+     * They are enabled by default.
+     *
+     * @param enabled true to collect them.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        metrics.setEnabled(enabled);
+    }
+
+    /**
+     * Retrieves the call counts and latencies of the operations and the size of the registry.
+     * {@link MetricsSnapshot#toText()} exposes them in plain text.
+     *
+     * @return The metrics collected so far.
+     */
+    public MetricsSnapshot getMetrics() {
+        return metrics.snapshot();
+    }
+
+    private RegistryMetrics newMetrics() {
+        RegistryMetrics m = new RegistryMetrics();
+        m.gauge("patients", () -> patients.size());
+        m.gauge("professionals", () -> professionals.size());
+        m.gauge("reports", () -> reportId.get());
+        m.gauge("departments", () -> beds.names().size());
+        m.gauge("beds_capacity", () -> beds.all().values().stream().mapToLong(Department::getCapacity).sum());
+        m.gauge("beds_occupied", () -> beds.all().values().stream().mapToLong(Department::getOccupied).sum());
+        m.gauge("beds_waiting", () -> beds.all().values().stream().mapToLong(Department::getWaiting).sum());
+        m.gauge("events_dropped", () -> events.dropped());
+        m.gauge("archive_patients", () -> archive == null ? 0 : archive.size());
+        m.counter("archive_cache_hits", () -> archive == null ? 0 : archive.hits());
+        m.counter("archive_cache_misses", () -> archive == null ? 0 : archive.misses());
+        m.ratio("archive_cache_hit_ratio", () -> archive == null ? 0 : archive.hits(), () -> archive == null ? 0 : archive.misses());
+        return m;
+    }
+
+    private void beginUpdate(boolean exclusive) {
+        if(journal == null) return;
+        if(exclusive) journalLock.writeLock().lock();
+        else journalLock.readLock().lock();
+    }
+
+    private void endUpdate(boolean exclusive) {
+        if(journal == null) return;
+        if(exclusive) journalLock.writeLock().unlock();
+        else journalLock.readLock().unlock();
+    }
+
+    private long log(byte type, String... fields) {
+        return journal == null ? 0 : journal.append(type, fields);
+    }
+
+    private void sync(long lsn) {
+        if(journal != null && lsn > 0) journal.await(lsn);
+    }
+
+    /**
+     * Copies the registry while the updates are blocked; the copy is written afterwards.
+     */
+    private RegistryJournal.SnapshotWriter captureSnapshot() {
+        int lastReport = reportId.get();
+        int discharged = dischargedPatients.get();
+        List<Professional> profs = List.copyOf(professionals.values());
+        List<Department> depts = List.copyOf(beds.all().values());
+        Map<String, String> occupied = new HashMap<>();
+        beds.beds().forEach((fc, d) -> occupied.put(fc, d.getName()));
+        Map<String, Patient[]> waitlists = new HashMap<>();
+        for(Department d : depts) waitlists.put(d.getName(), d.getWaitlist());
+        List<Patient> pats = List.copyOf(patients.values());
+        byte[] statuses = new byte[pats.size()];
+        for(int i = 0; i < statuses.length; i++) statuses[i] = (byte) pats.get(i).getStatus().ordinal();
+        List<Report> reps = List.copyOf(reports.all());
+        long archived = archive.end();
+        Map<String, List<String>> assigned = new HashMap<>();
+        for(Patient p : pats) {
+            List<Professional> seen = p.getProfessionalsSeen();
+            if(!seen.isEmpty()) assigned.put(p.getFiscalCode(), seen.stream().map(Professional::getId).toList());
+        }
+
+        return out -> {
+            out.writeInt(lastReport);
+            out.writeInt(discharged);
+            out.writeInt(profs.size());
+            for(Professional pr : profs) {
+                writeStrings(out, pr.getId(), pr.getName(), pr.getSurname(), pr.getSpecialization(), pr.getPeriod());
+            }
+            out.writeInt(depts.size());
+            for(Department d : depts) {
+                RegistryJournal.writeString(out, d.getName());
+                out.writeInt(d.getCapacity());
+                out.writeInt(d.getHospitalized());
+            }
+            out.writeInt(pats.size());
+            for(int i = 0; i < statuses.length; i++) {
+                Patient p = pats.get(i);
+                writeStrings(out, p.getFiscalCode(), p.getName(), p.getSurname(), p.getDateOfBirth(), p.getReason(), p.getDateTimeAccepted());
+                out.writeByte(statuses[i]);
+            }
+            out.writeInt(occupied.size());
+            for(Map.Entry<String, String> b : occupied.entrySet()) writeStrings(out, b.getKey(), b.getValue());
+            out.writeInt(waitlists.size());
+            for(Map.Entry<String, Patient[]> w : waitlists.entrySet()) {
+                RegistryJournal.writeString(out, w.getKey());
+                out.writeInt(w.getValue().length);
+                for(Patient p : w.getValue()) RegistryJournal.writeString(out, p.getFiscalCode());
+            }
+            out.writeInt(reps.size());
+            for(Report r : reps) {
+                writeStrings(out, r.getId(), r.getProfessionalId(), r.getFiscalCode(), r.getDate(), r.getDescription());
+            }
+            out.writeInt(assigned.size());
+            for(Map.Entry<String, List<String>> a : assigned.entrySet()) {
+                RegistryJournal.writeString(out, a.getKey());
+                out.writeInt(a.getValue().size());
+                for(String id : a.getValue()) RegistryJournal.writeString(out, id);
+            }
+            out.writeLong(archived);
+        };
+    }
+
+    private static void writeStrings(DataOutputStream out, String... values) throws IOException {
+        for(String v : values) RegistryJournal.writeString(out, v);
+    }
+
+    /**
+     * Fills a new in-memory registry from a file written by {@link #exportRegistry(Path)}.
+     * The maps are sized up front and the patients are indexed in bulk once
+     * they are all loaded.
+     */
+    private class Import implements RegistryTransfer.Target {
+
+        private List<Patient> loaded;
+
+        @Override
+        public void sizes(int professionals, int departments, int patients, int reports) {
+            EmergencyApp.this.patients = new ConcurrentHashMap<>(patients);
+            loaded = new ArrayList<>(patients);
+        }
+
+        @Override
+        public void professional(Professional p) {
+            putProfessional(p);
+        }
+
+        @Override
+        public Department department(String name, int capacity) {
+            return beds.add(StringPool.intern(name), capacity);
+        }
+
+        @Override
+        public void patient(Patient p) {
+            patients.put(p.getFiscalCode(), p);
+            p.attach(statistics, events);
+            loaded.add(p);
+        }
+
+        @Override
+        public void assigned(Patient p, Professional pr) {
+            pr.addPatient(p);
+        }
+
+        @Override
+        public void bed(Patient p, Department d) {
+            beds.occupy(p, d);
+        }
+
+        @Override
+        public void waiting(String fiscalCode, Department d) {
+            beds.enqueue(patients.get(fiscalCode), d);
+        }
+
+        @Override
+        public void report(Report r) {
+            reports.add(r);
+        }
+
+        @Override
+        public void counters(int lastReport, int discharged) {
+            reportId.set(lastReport);
+            dischargedPatients.set(discharged);
+        }
+
+        @Override
+        public void done() {
+            patientsByDate.addAll(loaded);
+            patientsBysurname.addAll(loaded);
+            for(Patient p : loaded) indexReason(p);
+            published.set(RegistrySnapshot.of(0, professionals.values(), beds.all().values(),
+                                              patients.values(), beds, dischargedPatients.get(), archivedTotals));
+        }
+    }
+
+    /**
+     * Rebuilds the registry from the journal. It runs before the journal is
+     * attached, so the updates it applies are not logged again.
+     */
+    private class Recovery implements RegistryJournal.Target {
+
+        @Override
+        public void readSnapshot(DataInputStream in) throws IOException {
+            reportId.set(in.readInt());
+            dischargedPatients.set(in.readInt());
+            for(int n = in.readInt(); n > 0; n--) {
+                String[] f = readStrings(in, 5);
+                putProfessional(new Professional(f[0], f[1], f[4], f[3], f[2], "24"));
+            }
+            Map<Department, Integer> hospitalized = new HashMap<>();
+            for(int n = in.readInt(); n > 0; n--) {
+                Department d = beds.add(RegistryJournal.readString(in), in.readInt());
+                hospitalized.put(d, in.readInt());
+            }
+            PatientStatus[] statuses = PatientStatus.values();
+            for(int n = in.readInt(); n > 0; n--) {
+                String[] f = readStrings(in, 6);
+                Patient p = addPatient(f[0], f[1], f[2], f[3], f[4], f[5]);
+                p.setStatus(statuses[in.readByte()]);
+            }
+            for(int n = in.readInt(); n > 0; n--) {
+                String[] f = readStrings(in, 2);
+                beds.occupy(patients.get(f[0]), beds.get(f[1]));
+            }
+            hospitalized.forEach(Department::restoreHospitalized);
+            for(int n = in.readInt(); n > 0; n--) {
+                Department d = beds.get(RegistryJournal.readString(in));
+                for(int m = in.readInt(); m > 0; m--) beds.enqueue(patients.get(RegistryJournal.readString(in)), d);
+            }
+            for(int n = in.readInt(); n > 0; n--) {
+                String[] f = readStrings(in, 5);
+                reports.add(new Report(f[3], f[4], f[2], f[0], f[1], compressReports));
+            }
+            for(int n = in.readInt(); n > 0; n--) {
+                Patient p = patients.get(RegistryJournal.readString(in));
+                for(int m = in.readInt(); m > 0; m--) professionals.get(RegistryJournal.readString(in)).addPatient(p);
+            }
+            // the patients archived before the snapshot are counted again; the ones
+            // still in memory were archived by an update that did not reach the journal
+            archive.forEach(in.readLong(), p -> {
+                if(patients.containsKey(p.getFiscalCode())) return;
+                statistics.archived(p);
+                archivedTotals = archivedTotals.plus(List.of(p));
+                indexReason(p);
+                for(Professional pr : p.getProfessionalsSeen()) pr.restoreArchived(p.getStatus() == PatientStatus.DISCHARGED ? 1 : 0);
+            });
+        }
+
+        @Override
+        public void replay(byte type, String[] f) {
+            switch(type) {
+                case RegistryJournal.PROFESSIONAL -> putProfessional(new Professional(f[0], f[1], f[4], f[3], f[2], "24"));
+                case RegistryJournal.DEPARTMENT -> putDepartment(f[0], Integer.parseInt(f[1]));
+                case RegistryJournal.PATIENT -> addPatient(f[0], f[1], f[2], f[3], f[4], f[5]);
+                case RegistryJournal.REPORT -> {
+                    int id = Integer.parseInt(f[0]);
+                    reports.add(new Report(f[3], f[4], f[2], f[0], f[1], compressReports));
+                    reportId.accumulateAndGet(id, Math::max);
+                }
+                case RegistryJournal.HOSPITALIZED -> {
+                    Patient p = patient(f[0]);
+                    Department d = department(f[1]);
+                    beds.occupy(p, d);
+                    hospitalize(p, d);
+                }
+                case RegistryJournal.DISCHARGED -> discharge(patient(f[0]), department(f[1]));
+                case RegistryJournal.WAITLISTED -> {
+                    Patient p = patient(f[0]);
+                    if(p.getStatus() == PatientStatus.ADMITTED) beds.enqueue(p, department(f[1]));
+                }
+                case RegistryJournal.RELEASED -> {
+                    Patient p = patient(f[0]);
+                    Patient next = f[1].isEmpty() ? null : patient(f[1]);
+                    Department d = beds.bedOf(p);
+                    if(d == null) throw new IllegalStateException("Released patient has no bed: " + f[0]);
+                    beds.release(p, next);
+                    release(p, d, next);
+                }
+                case RegistryJournal.ASSIGNED -> {
+                    Professional pr = professionals.get(f[1]);
+                    if(pr == null) throw new IllegalStateException("Unknown professional: " + f[1]);
+                    assign(patient(f[0]), pr);
+                }
+                case RegistryJournal.ARCHIVED -> {
+                    try {
+                        archive((int) LocalDate.parse(f[0]).toEpochDay());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                default -> throw new IllegalStateException("Unknown journal record " + type);
+            }
+        }
+
+        private Patient patient(String fiscalCode) {
+            Patient p = patients.get(fiscalCode);
+            if(p == null) throw new IllegalStateException("Unknown patient: " + fiscalCode);
+            return p;
+        }
+
+        private Department department(String name) {
+            Department d = beds.get(name);
+            if(d == null) throw new IllegalStateException("Unknown department: " + name);
+            return d;
+        }
+
+        private String[] readStrings(DataInputStream in, int n) throws IOException {
+            String[] values = new String[n];
+            for(int i = 0; i < n; i++) values[i] = RegistryJournal.readString(in);
+            return values;
+        }
     }
 }
@@ -0,0 +1,355 @@
+package it.polito.emergency;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Emergency rooms of several sites working as one registry.
+ * Every site is an in-memory {@link EmergencyApp} with its own executor:
+ * professionals and departments belong to the site they are added to, while
+ * patients are spread over the sites by fiscal code, so that the admissions
+ * of a busy day are shared by all the executors.
+ * <p>
+ * The operations on a patient run on the executor of the site owning it and
+ * complete the returned future; they fail with a {@link CompletionException}
+ * wrapping the {@link EmergencyException} the single registry would throw.
+ * The operations on the same patient run one after the other, in order of
+ * call. The part of an operation that touches another site, taking a bed or
+ * a professional there, runs on the executor of that site; the site of the
+ * patient then records the outcome, so its counters and its
+ * {@link EmergencyApp#getSnapshot() snapshot} follow its patients wherever
+ * they are treated. The counters of the network add up those of all the sites.
+ */
+public class EmergencyNetwork implements Closeable {
+
+    private final Map<String, Site> sites = new LinkedHashMap<>();
+    private final Site[] ring;
+    private final Map<String, Site> departments = new ConcurrentHashMap<>();
+    // the last operation of each patient with one in progress
+    private final Map<String, CompletableFuture<?>> inProgress = new ConcurrentHashMap<>();
+
+    private static final class Site {
+        final int index;
+        final String name;
+        final EmergencyApp app = new EmergencyApp();
+        final ExecutorService executor;
+
+        Site(int index, String name, int threads) {
+            this.index = index;
+            this.name = name;
+            AtomicInteger n = new AtomicInteger();
+            ThreadFactory factory = r -> {
+                Thread t = new Thread(r, "emergency-" + name + "-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            };
+            this.executor = Executors.newFixedThreadPool(threads, factory);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SiteTask<T> {
+        T run(EmergencyApp app) throws EmergencyException;
+    }
+
+    /**
+     * Creates a network sharing the available processors among the sites.
+     *
+     * @param siteNames The names of the sites, in the order of their neighbourhood.
+     */
+    public EmergencyNetwork(List<String> siteNames) {
+        this(siteNames, Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, siteNames.size())));
+    }
+
+    /**
+     * @param siteNames The names of the sites, in the order of their neighbourhood:
+     *                  each site is next to the one before and the one after, the last to the first.
+     * @param threadsPerSite The number of threads of the executor of each site.
+     */
+    public EmergencyNetwork(List<String> siteNames, int threadsPerSite) {
+        if(siteNames.isEmpty()) throw new IllegalArgumentException("No sites");
+        if(threadsPerSite < 1) throw new IllegalArgumentException("threadsPerSite must be positive");
+        ring = new Site[siteNames.size()];
+        for(String name : siteNames) {
+            Site s = new Site(sites.size(), name, threadsPerSite);
+            if(sites.putIfAbsent(name, s) != null) throw new IllegalArgumentException("Duplicate site " + name);
+            ring[s.index] = s;
+        }
+    }
+
+    /**
+     * @return The names of the sites, in the order of their neighbourhood.
+     */
+    public List<String> getSites() {
+        return List.copyOf(sites.keySet());
+    }
+
+    /**
+     * Gives direct access to the registry of a site, e.g. to load its
+     * professionals from a file or to query its reports.
+     *
+     * @param site The name of the site.
+     * @return The registry of the site.
+     * @throws EmergencyException If the site does not exist.
+     */
+    public EmergencyApp getSite(String site) throws EmergencyException {
+        return site(site).app;
+    }
+
+    /**
+     * @param fiscalCode The fiscal code of a patient.
+     * @return The name of the site the patient belongs to.
+     */
+    public String siteOf(String fiscalCode) {
+        return owner(fiscalCode).name;
+    }
+
+    /**
+     * Adds a professional to the staff of a site.
+     *
+     * @param site The name of the site.
+     * @see EmergencyApp#addProfessional(String, String, String, String, String)
+     * @throws EmergencyException If the site does not exist.
+     */
+    public void addProfessional(String site, String id, String name, String surname, String specialization, String period) throws EmergencyException {
+        site(site).app.addProfessional(id, name, surname, specialization, period);
+    }
+
+    /**
+     * Adds a department to a site. Department names are unique in the network:
+     * a department added again moves to the new site.
+     *
+     * @param site The name of the site.
+     * @param name The name of the department.
+     * @param maxPatients The number of beds.
+     * @throws EmergencyException If the site does not exist.
+     */
+    public void addDepartment(String site, String name, int maxPatients) throws EmergencyException {
+        Site s = site(site);
+        s.app.addDepartment(name, maxPatients);
+        departments.put(name, s);
+    }
+
+    /**
+     * Registers a patient at the site owning its fiscal code.
+     *
+     * @see EmergencyApp#addPatient(String, String, String, String, String, String)
+     * @return The registered patient.
+     */
+    public CompletableFuture<Patient> addPatient(String fiscalCode, String name, String surname, String dateOfBirth, String reason, String dateTimeAccepted) {
+        return submit(owner(fiscalCode), app -> app.addPatient(fiscalCode, name, surname, dateOfBirth, reason, dateTimeAccepted));
+    }
+
+    /**
+     * Retrieves a patient by fiscal code, asking only the site owning it,
+     * or the patients with a surname, asking all the sites.
+     *
+     * @param identifier Either the fiscal code or the surname of the patient(s).
+     * @return The patient, or the patients with that surname sorted by name.
+     */
+    public CompletableFuture<List<Patient>> getPatient(String identifier) {
+        return submit(owner(identifier), app -> app.getPatient(identifier)).thenCompose(found -> {
+            if(found.size() == 1 && found.get(0).getFiscalCode().equals(identifier)) return CompletableFuture.completedFuture(found);
+            List<CompletableFuture<List<Patient>>> parts = new ArrayList<>(ring.length);
+            for(Site s : ring) parts.add(submit(s, app -> app.getPatient(identifier)));
+            return CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new)).thenApply(v -> {
+                List<Patient> all = new ArrayList<>();
+                for(CompletableFuture<List<Patient>> part : parts) all.addAll(part.join());
+                all.sort(Comparator.comparing(Patient::getName));
+                return all;
+            });
+        });
+    }
+
+    /**
+     * Assigns a patient to a professional of the site owning it or, if nobody
+     * there is in service, of the nearest site that has one, trying the
+     * following and the preceding sites at growing distance.
+     *
+     * @param fiscalCode The fiscal code of the patient.
+     * @param specialization The required specialization of the professional.
+     * @return The ID of the assigned professional.
+     * @see EmergencyApp#assignPatientToProfessional(String, String)
+     */
+    public CompletableFuture<String> assignPatientToProfessional(String fiscalCode, String specialization) {
+        Site home = owner(fiscalCode);
+        return serialized(fiscalCode, () -> submit(home, app -> patient(app, fiscalCode)).thenCompose(p -> {
+            List<Site> candidates = new ArrayList<>(ring.length);
+            candidates.add(home);
+            for(int d = 1; 2 * d <= ring.length; d++) {
+                candidates.add(ring[(home.index + d) % ring.length]);
+                if(2 * d < ring.length) candidates.add(ring[Math.floorMod(home.index - d, ring.length)]);
+            }
+            return assign(p, specialization, candidates, 0).thenCompose(pr -> submit(home, app -> {
+                if(pr.site != home) app.visitorAssigned(p, pr.professional);
+                return pr.professional.getId();
+            }));
+        }));
+    }
+
+    /** A professional of a site. */
+    private static final class Assigned {
+        final Site site;
+        final Professional professional;
+
+        Assigned(Site site, Professional professional) {
+            this.site = site;
+            this.professional = professional;
+        }
+    }
+
+    /**
+     * Tries the candidate sites in order, each on its own executor, until one
+     * has a professional in service.
+     */
+    private CompletableFuture<Assigned> assign(Patient p, String specialization, List<Site> candidates, int next) {
+        if(next == candidates.size()) return CompletableFuture.failedFuture(new CompletionException(new EmergencyException(" no such prof service")));
+        Site s = candidates.get(next);
+        return submit(s, app -> app.assignVisitor(p, specialization)).thenCompose(pr ->
+            pr != null ? CompletableFuture.completedFuture(new Assigned(s, pr)) : assign(p, specialization, candidates, next + 1));
+    }
+
+    /**
+     * Hospitalizes a patient in a department of any site or, if it is full,
+     * discharges the patient.
+     *
+     * @param fiscalCode The fiscal code of the patient.
+     * @param departmentName The name of the department.
+     * @see EmergencyApp#dischargeOrHospitalize(String, String)
+     */
+    public CompletableFuture<Void> dischargeOrHospitalize(String fiscalCode, String departmentName) {
+        Site home = owner(fiscalCode);
+        return serialized(fiscalCode, () -> submit(home, app -> patient(app, fiscalCode)).thenCompose(p -> {
+            Site s = departments.get(departmentName);
+            if(s == null) return CompletableFuture.failedFuture(new CompletionException(new EmergencyException("No such dept")));
+            // a patient with a bed at another site is not known to the local departments
+            if(p.getStatus() == EmergencyApp.PatientStatus.HOSPITALIZED) return CompletableFuture.completedFuture(null);
+            return submit(s, app -> app.claimVisitorBed(p, departmentName)).thenCompose(claim -> submit(home, app -> {
+                app.visitorClaimed(p, departmentName, claim);
+                return null;
+            }));
+        }));
+    }
+
+    /**
+     * @param fiscalCode The fiscal code of the patient.
+     * @return 1 if the patient is hospitalized, 0 otherwise.
+     * @see EmergencyApp#verifyPatient(String)
+     */
+    public CompletableFuture<Integer> verifyPatient(String fiscalCode) {
+        return submit(owner(fiscalCode), app -> app.verifyPatient(fiscalCode));
+    }
+
+    /**
+     * @return The number of patients in the emergency rooms of all the sites.
+     */
+    public int getNumberOfPatients() {
+        return sum(EmergencyApp::getNumberOfPatients);
+    }
+
+    /**
+     * @param date The date of acceptance, in the format "yyyy-MM-dd".
+     * @return The number of patients admitted on that date at all the sites.
+     */
+    public int getNumberOfPatientsByDate(String date) {
+        return sum(app -> app.getNumberOfPatientsByDate(date));
+    }
+
+    /**
+     * @param departmentName The name of the department.
+     * @return The number of patients hospitalized in the department.
+     * @throws EmergencyException If the department does not exist.
+     */
+    public int getNumberOfPatientsHospitalizedByDepartment(String departmentName) throws EmergencyException {
+        Site s = departments.get(departmentName);
+        if(s == null) throw new EmergencyException("No such dept");
+        return s.app.getNumberOfPatientsHospitalizedByDepartment(departmentName);
+    }
+
+    /**
+     * @return The number of patients discharged at all the sites.
+     */
+    public int getNumberOfPatientsDischarged() {
+        return sum(EmergencyApp::getNumberOfPatientsDischarged);
+    }
+
+    /**
+     * @param specialization The specialization of the professionals.
+     * @return The number of discharged patients treated by professionals of that specialization, at any site.
+     */
+    public int getNumberOfPatientsAssignedToProfessionalDischarged(String specialization) {
+        return sum(app -> app.getNumberOfPatientsAssignedToProfessionalDischarged(specialization));
+    }
+
+    /**
+     * Stops the executors of the sites once the submitted operations are done.
+     */
+    @Override
+    public void close() {
+        for(Site s : ring) s.executor.shutdown();
+        try {
+            for(Site s : ring) s.executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Site site(String name) throws EmergencyException {
+        Site s = sites.get(name);
+        if(s == null) throw new EmergencyException("No such site");
+        return s;
+    }
+
+    private Site owner(String fiscalCode) {
+        // the hash is spread so that similar fiscal codes do not crowd a site
+        int h = fiscalCode.hashCode() * 0x9E3779B9;
+        return ring[Math.floorMod(h ^ (h >>> 16), ring.length)];
+    }
+
+    private static Patient patient(EmergencyApp app, String fiscalCode) throws EmergencyException {
+        List<Patient> found = app.getPatient(fiscalCode);
+        if(found.size() != 1 || !found.get(0).getFiscalCode().equals(fiscalCode)) throw new EmergencyException("No such patient");
+        return found.get(0);
+    }
+
+    private int sum(ToIntFunction<EmergencyApp> counter) {
+        int n = 0;
+        for(Site s : ring) n += counter.applyAsInt(s.app);
+        return n;
+    }
+
+    /**
+     * Starts an operation on a patient once the previous one, if any, is over.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> serialized(String fiscalCode, Supplier<CompletableFuture<T>> operation) {
+        CompletableFuture<T> started = (CompletableFuture<T>) inProgress.compute(fiscalCode, (fc, previous) ->
+            previous == null ? operation.get() : previous.handle((v, e) -> null).thenCompose(v -> operation.get()));
+        started.whenComplete((v, e) -> inProgress.remove(fiscalCode, started));
+        return started;
+    }
+
+    private static <T> CompletableFuture<T> submit(Site s, SiteTask<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.run(s.app);
+            } catch (EmergencyException e) {
+                throw new CompletionException(e);
+            }
+        }, s.executor);
+    }
+}
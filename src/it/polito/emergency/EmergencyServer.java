@@ -0,0 +1,275 @@
+package it.polito.emergency;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import it.polito.emergency.EmergencyApp.PatientStatus;
+
+/**
+ * HTTP front end of an emergency registry, built on the JDK server.
+ * Every request runs on its own virtual thread, so thousands of terminals
+ * can wait on slow operations, e.g. a persistent registry waiting for the
+ * journal, without holding a platform thread each. Connections are kept
+ * alive and the requests pipelined on one are answered in order.
+ * <p>
+ * The parameters come from the query string or from a form-encoded body;
+ * the answers are JSON. An operation that takes longer than the timeout is
+ * answered with 503, though it may still complete.
+ * <p>
+ * Two settings of the JDK server apply to the whole JVM and are read once,
+ * when the first server starts, so they are launch options:
+ * <ul>
+ * <li>{@code -Dsun.net.httpserver.nodelay=true}: the headers and the body of
+ * an answer are written apart, and without it each answer on a kept-alive
+ * connection waits for a delayed TCP acknowledgement, about 40 ms;</li>
+ * <li>{@code -Dsun.net.httpserver.maxIdleConnections=<terminals>}: by default
+ * the connections beyond 200 idle ones are closed, while every terminal keeps
+ * its own.</li>
+ * </ul>
+ * <pre>
+ * POST /patients                    fiscalCode, name, surname, dateOfBirth, reason, dateTimeAccepted
+ * GET  /patients/{identifier}       a fiscal code or a surname
+ * POST /patients/{fc}/assignment    specialization
+ * POST /patients/{fc}/discharge     department
+ * POST /reports                     professionalId, fiscalCode, date, description
+ * GET  /statistics                  optional date, department, specialization
+ * GET  /metrics                     the metrics, as text
+ * </pre>
+ */
+public class EmergencyServer implements Closeable {
+
+    private final EmergencyApp app;
+    private final HttpServer server;
+    private final ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor();
+    private final long timeoutNanos;
+
+    private static final class BadRequest extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        BadRequest(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        String handle(Map<String, String> params) throws EmergencyException, BadRequest;
+    }
+
+    /**
+     * Starts serving a registry.
+     *
+     * @param app The registry.
+     * @param address The address to listen on; port 0 picks a free one.
+     * @param timeout The longest time an operation is waited for.
+     * @throws IOException If the address cannot be bound.
+     */
+    public EmergencyServer(EmergencyApp app, InetSocketAddress address, Duration timeout) throws IOException {
+        this.app = app;
+        this.timeoutNanos = timeout.toNanos();
+        // the backlog must hold a burst of connections from every terminal
+        server = HttpServer.create(address, 16384);
+        server.setExecutor(requests);
+        server.createContext("/patients", this::patients);
+        server.createContext("/reports", exchange -> serve(exchange, "POST", this::saveReport));
+        server.createContext("/statistics", exchange -> serve(exchange, "GET", this::statistics));
+        server.createContext("/metrics", exchange -> serve(exchange, "GET", params -> app.getMetrics().toText()));
+        server.start();
+    }
+
+    /**
+     * @return The address the server listens on.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for the ones in progress,
+     * then stops. The registry is left open.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        requests.shutdownNow();
+    }
+
+    private void patients(HttpExchange exchange) throws IOException {
+        // /patients, /patients/{id}, /patients/{fc}/assignment, /patients/{fc}/discharge
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        if(path.length == 2) {
+            serve(exchange, "POST", this::addPatient);
+        } else if(path.length == 3) {
+            serve(exchange, "GET", params -> patientsJson(app.getPatient(path[2])));
+        } else if(path.length == 4 && path[3].equals("assignment")) {
+            serve(exchange, "POST", params -> quote(app.assignPatientToProfessional(path[2], required(params, "specialization"))));
+        } else if(path.length == 4 && path[3].equals("discharge")) {
+            serve(exchange, "POST", params -> {
+                app.dischargeOrHospitalize(path[2], required(params, "department"));
+                return quote(app.getPatient(path[2]).get(0).getStatus().name());
+            });
+        } else {
+            try (exchange) {
+                params(exchange);
+                respond(exchange, 404, quote("No such resource"));
+            }
+        }
+    }
+
+    private String addPatient(Map<String, String> params) throws BadRequest {
+        Patient p = app.addPatient(required(params, "fiscalCode"), required(params, "name"), required(params, "surname"),
+                                   required(params, "dateOfBirth"), required(params, "reason"), required(params, "dateTimeAccepted"));
+        return patientJson(new StringBuilder(), p).toString();
+    }
+
+    private String saveReport(Map<String, String> params) throws EmergencyException, BadRequest {
+        Report r = app.saveReport(required(params, "professionalId"), required(params, "fiscalCode"),
+                                  required(params, "date"), required(params, "description"));
+        return quote(r.getId());
+    }
+
+    private String statistics(Map<String, String> params) throws EmergencyException {
+        StringBuilder sb = new StringBuilder("{\"patients\":").append(app.getNumberOfPatients())
+                .append(",\"discharged\":").append(app.getNumberOfPatientsDischarged());
+        String date = params.get("date");
+        if(date != null) sb.append(",\"admittedOnDate\":").append(app.getNumberOfPatientsByDate(date));
+        String department = params.get("department");
+        if(department != null) sb.append(",\"hospitalizedInDepartment\":").append(app.getNumberOfPatientsHospitalizedByDepartment(department));
+        String specialization = params.get("specialization");
+        if(specialization != null) sb.append(",\"dischargedBySpecialization\":").append(app.getNumberOfPatientsAssignedToProfessionalDischarged(specialization));
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Runs an operation and answers with its result: 400 for missing parameters,
+     * 404 for the errors of the registry and 503 when the operation times out.
+     */
+    private void serve(HttpExchange exchange, String method, Handler handler) throws IOException {
+        try (exchange) {
+            Map<String, String> params = params(exchange);
+            if(!exchange.getRequestMethod().equals(method)) {
+                exchange.getResponseHeaders().set("Allow", method);
+                respond(exchange, 405, quote("Use " + method));
+                return;
+            }
+            // the operation runs aside, so that a slow one does not hold the connection past the timeout
+            Future<String> result = requests.submit(() -> handler.handle(params));
+            int code = 200;
+            String body;
+            try {
+                body = result.get(timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                code = 503;
+                body = quote("Timed out");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                code = 503;
+                body = quote("Interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof BadRequest) code = 400;
+                else if(cause instanceof EmergencyException) code = 404;
+                else if(cause instanceof IllegalArgumentException || cause instanceof DateTimeException) code = 400;
+                else code = 500;
+                body = quote(cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage());
+            }
+            respond(exchange, code, body);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parse(exchange.getRequestURI().getRawQuery(), params);
+        try (InputStream in = exchange.getRequestBody()) {
+            // the body is read to the end even when unused, or the next pipelined request would be lost
+            byte[] body = in.readAllBytes();
+            if(body.length > 0) parse(new String(body, StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
+
+    private static void parse(String form, Map<String, String> params) {
+        if(form == null || form.isEmpty()) return;
+        for(String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            if(eq < 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                       URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String required(Map<String, String> params, String name) throws BadRequest {
+        String value = params.get(name);
+        if(value == null) throw new BadRequest("Missing " + name);
+        return value;
+    }
+
+    private static String patientsJson(List<Patient> patients) {
+        StringBuilder sb = new StringBuilder("[");
+        for(Patient p : patients) {
+            if(sb.length() > 1) sb.append(',');
+            patientJson(sb, p);
+        }
+        return sb.append(']').toString();
+    }
+
+    private static StringBuilder patientJson(StringBuilder sb, Patient p) {
+        PatientStatus status = p.getStatus();
+        sb.append("{\"fiscalCode\":").append(quote(p.getFiscalCode()))
+          .append(",\"name\":").append(quote(p.getName()))
+          .append(",\"surname\":").append(quote(p.getSurname()))
+          .append(",\"dateOfBirth\":").append(quote(p.getDateOfBirth()))
+          .append(",\"reason\":").append(quote(p.getReason()))
+          .append(",\"dateTimeAccepted\":").append(quote(p.getDateTimeAccepted()))
+          .append(",\"status\":").append(quote(status.name()));
+        return sb.append('}');
+    }
+
+    private static String quote(String s) {
+        if(s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch(c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if(c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
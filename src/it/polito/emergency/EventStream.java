@@ -0,0 +1,165 @@
+package it.polito.emergency;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import it.polito.emergency.EmergencyApp.BackpressurePolicy;
+
+/**
+ * Delivers the registry events to the listeners, asynchronously.
+ * <p>
+ * The publishers put the events in a bounded ring: each one claims a slot
+ * with a compare-and-set on the tail and then fills it, so publishing takes
+ * no lock. A single dispatcher thread empties the slots in order, in batches,
+ * and hands each batch to every listener. When the ring is full the
+ * {@link BackpressurePolicy} decides whether the publisher waits or the
+ * event is dropped. A publisher waits parked, for at most {@link #MAX_WAIT_NANOS}:
+ * it may hold registry locks a listener needs, so past that the event is
+ * dropped rather than waiting forever. The dispatcher itself, publishing from
+ * a listener, never waits. Nothing is published, and no thread is started, until
+ * the first listener subscribes.
+ */
+class EventStream implements AutoCloseable {
+
+    static final int CAPACITY = 1 << 13;
+    static final int MAX_BATCH = 256;
+
+    /** Longest time a publisher waits for room before dropping the event. */
+    static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long WAIT_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final AtomicReferenceArray<RegistryEvent> slots = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLong tail = new AtomicLong();
+    // written by the dispatcher only
+    private volatile long head;
+    private final AtomicLong dropped = new AtomicLong();
+    private final List<RegistryListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile BackpressurePolicy policy = BackpressurePolicy.BLOCK;
+    private volatile Thread dispatcher;
+    private volatile boolean sleeping;
+    private volatile boolean closed;
+
+    synchronized void subscribe(RegistryListener listener) {
+        if (closed) throw new IllegalStateException("Event stream closed");
+        listeners.add(listener);
+        if (dispatcher == null) {
+            Thread t = new Thread(this::dispatch, "emergency-events");
+            t.setDaemon(true);
+            dispatcher = t;
+            t.start();
+        }
+    }
+
+    void unsubscribe(RegistryListener listener) {
+        listeners.remove(listener);
+    }
+
+    void setPolicy(BackpressurePolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @return The number of events dropped because the ring was full, or stayed full too long.
+     */
+    long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Publishes an event, if anybody listens.
+     *
+     * @param event The event.
+     */
+    void publish(RegistryEvent event) {
+        if (listeners.isEmpty() || closed) return;
+        long t;
+        long deadline = 0;
+        while (true) {
+            t = tail.get();
+            if (t - head >= CAPACITY) {
+                if (policy == BackpressurePolicy.DROP || Thread.currentThread() == dispatcher) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                long now = System.nanoTime();
+                if (deadline == 0) {
+                    deadline = now + MAX_WAIT_NANOS;
+                } else if (now - deadline >= 0) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                wake();
+                LockSupport.parkNanos(this, WAIT_PARK_NANOS);
+                if (closed) return;
+                continue;
+            }
+            if (tail.compareAndSet(t, t + 1)) break;
+        }
+        slots.set((int) t & CAPACITY - 1, event);
+        if (sleeping) wake();
+    }
+
+    private void wake() {
+        Thread t = dispatcher;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    private void dispatch() {
+        List<RegistryEvent> batch = new ArrayList<>(MAX_BATCH);
+        List<RegistryEvent> view = Collections.unmodifiableList(batch);
+        while (!closed || head != tail.get()) {
+            long h = head;
+            while (batch.size() < MAX_BATCH) {
+                int i = (int) h & CAPACITY - 1;
+                RegistryEvent e = slots.get(i);
+                // a claimed slot may not be filled yet
+                if (e == null) break;
+                slots.lazySet(i, null);
+                batch.add(e);
+                h++;
+            }
+            head = h;
+            if (batch.isEmpty()) {
+                sleeping = true;
+                if (slots.get((int) h & CAPACITY - 1) == null && !closed) LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                sleeping = false;
+                continue;
+            }
+            for (RegistryListener l : listeners) {
+                try {
+                    l.onEvents(view);
+                } catch (RuntimeException e) {
+                    // a faulty listener must not stop the others
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Stops accepting events and lets the dispatcher deliver the ones already published.
+     */
+    @Override
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            t = dispatcher;
+        }
+        if (t == null) return;
+        LockSupport.unpark(t);
+        try {
+            t.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package it.polito.emergency;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds, with log-linear buckets as in HDR
+ * histograms: values below 16 have a bucket each, every larger power of two
+ * is split in 16 buckets, so a value is known within 1/16 (about 6%).
+ * Values above 2^40 ns (about 18 minutes) share the last bucket.
+ * <p>
+ * The counts are striped by thread, so concurrent recorders rarely touch
+ * the same cache line; the stripes are summed when the histogram is read.
+ */
+class LatencyHistogram {
+
+    static final int SUB_BUCKETS = 16;
+    static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - 3) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private static final int STRIPES = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) return (int) Math.max(0, nanos);
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        return (exponent - 3) * SUB_BUCKETS + (int) (nanos >>> exponent - 4 & SUB_BUCKETS - 1);
+    }
+
+    /**
+     * @return The highest value that falls in a bucket.
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    void record(long nanos) {
+        int stripe = (int) (Thread.currentThread().threadId() * 0x9E3779B9L >>> 16) & STRIPES - 1;
+        counts.incrementAndGet(stripe * BUCKETS + bucket(nanos));
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * @return The counts of each bucket, summed over the stripes.
+     */
+    long[] counts() {
+        long[] total = new long[BUCKETS];
+        for (int s = 0; s < STRIPES; s++) {
+            for (int b = 0; b < BUCKETS; b++) total[b] += counts.get(s * BUCKETS + b);
+        }
+        return total;
+    }
+
+    long sum() {
+        return sum.sum();
+    }
+
+    long max() {
+        return max.get();
+    }
+}
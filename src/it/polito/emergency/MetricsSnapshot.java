@@ -0,0 +1,144 @@
+package it.polito.emergency;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The metrics of an emergency registry at a point in time: calls and
+ * latencies of each operation, the size of the registry, and the totals
+ * and ratios of its caches.
+ */
+public class MetricsSnapshot {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * Calls and latencies of an operation.
+     */
+    public static class Timer {
+
+        private final long calls;
+        private final long[] buckets;
+        private final long sum;
+        private final long max;
+
+        Timer(long calls, long[] buckets, long sum, long max) {
+            this.calls = calls;
+            this.buckets = buckets;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * @return The total time spent in the operation, in nanoseconds.
+         */
+        public long getTotalNanos() {
+            return sum;
+        }
+
+        public long getMaxNanos() {
+            return max;
+        }
+
+        /**
+         * @param quantile The quantile, between 0 and 1.
+         * @return The latency below which that fraction of the calls fall, within 1/16, in nanoseconds.
+         */
+        public long getPercentileNanos(double quantile) {
+            long total = 0;
+            for (long c : buckets) total += c;
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank) return Math.min(LatencyHistogram.highestValue(b), max);
+            }
+            return max;
+        }
+    }
+
+    private final Map<String, Timer> timers;
+    private final Map<String, Long> gauges;
+    private final Map<String, Long> counters;
+    private final Map<String, Double> ratios;
+
+    MetricsSnapshot(Map<String, Timer> timers, Map<String, Long> gauges, Map<String, Long> counters, Map<String, Double> ratios) {
+        this.timers = timers;
+        this.gauges = gauges;
+        this.counters = counters;
+        this.ratios = ratios;
+    }
+
+    /**
+     * @return The timers, by operation name.
+     */
+    public Map<String, Timer> getTimers() {
+        return timers;
+    }
+
+    /**
+     * @return The gauges, by name.
+     */
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    /**
+     * @return The counters, values that only grow, by name.
+     */
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    /**
+     * @return The ratios, between 0 and 1, by name.
+     */
+    public Map<String, Double> getRatios() {
+        return ratios;
+    }
+
+    /**
+     * Writes the metrics in a plain-text exposition format: one sample per
+     * line, preceded by the type of the metric, as Prometheus reads it.
+     * Latencies are in seconds.
+     *
+     * @return The text.
+     */
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE emergency_calls_total counter\n");
+        timers.forEach((op, t) -> sb.append("emergency_calls_total{operation=\"").append(op).append("\"} ").append(t.calls).append('\n'));
+        sb.append("# TYPE emergency_latency_seconds summary\n");
+        timers.forEach((op, t) -> {
+            if (t.calls == 0) return;
+            for (double q : QUANTILES) {
+                sb.append("emergency_latency_seconds{operation=\"").append(op).append("\",quantile=\"").append(q).append("\"} ")
+                  .append(seconds(t.getPercentileNanos(q))).append('\n');
+            }
+            sb.append("emergency_latency_seconds_sum{operation=\"").append(op).append("\"} ").append(seconds(t.sum)).append('\n');
+            sb.append("emergency_latency_seconds_count{operation=\"").append(op).append("\"} ").append(t.calls).append('\n');
+        });
+        gauges.forEach((name, value) -> sb.append("# TYPE emergency_").append(name).append(" gauge\n")
+                                          .append("emergency_").append(name).append(' ').append(value).append('\n'));
+        counters.forEach((name, value) -> sb.append("# TYPE emergency_").append(name).append("_total counter\n")
+                                            .append("emergency_").append(name).append("_total ").append(value).append('\n'));
+        ratios.forEach((name, value) -> sb.append("# TYPE emergency_").append(name).append(" gauge\n")
+                                          .append("emergency_").append(name).append(' ')
+                                          .append(String.format(Locale.ROOT, "%.6f", value)).append('\n'));
+        return sb.toString();
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        return toText();
+    }
+}
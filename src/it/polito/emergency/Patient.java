@@ -1,29 +1,52 @@
 package it.polito.emergency;
 
 import java.time.LocalDate;
-import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import it.polito.emergency.EmergencyApp.*;
 
+/**
+ * A patient of the emergency room.
+ * Dates are stored as epoch days and the reason is shared with the other
+ * patients admitted for the same reason; the string and {@link LocalDate}
+ * getters are computed from them.
+ */
 public class Patient {
 
+    /** Orders the patients by surname and name, the fiscal code breaking the ties. */
+    static final Comparator<Patient> BY_NAME = Comparator.comparing(Patient::getSurname)
+                                                         .thenComparing(Patient::getName)
+                                                         .thenComparing(Patient::getFiscalCode);
+
     private final String fiscalCode;
     private final String name;
     private final String surname;
-    private final LocalDate dateOfBirth;
+    private final int dateOfBirth;
     private final String reason;
-    private  PatientStatus status;
-    private final LocalDate acceptanceDate;
+    private volatile PatientStatus status;
+    private final int acceptanceDate;
+    private final List<Professional> professionalsSeen = new CopyOnWriteArrayList<>();
+    private PatientStatistics statistics;
+    private EventStream events;
 
     public Patient(String fiscalCode, String dateOfBirth, String name, String reason, PatientStatus status, String surname, String acceptanceDate){
+        this(fiscalCode, name, surname, (int) LocalDate.parse(dateOfBirth).toEpochDay(), reason, status,
+             (int) LocalDate.parse(acceptanceDate).toEpochDay());
+    }
+
+    /**
+     * Creates a patient from dates already given as epoch days, as read from a binary file.
+     */
+    Patient(String fiscalCode, String name, String surname, int dateOfBirth, String reason, PatientStatus status, int acceptanceDate){
         this.fiscalCode = fiscalCode;
         this.name = name;
         this.surname = surname;
-        this.dateOfBirth = LocalDate.parse(dateOfBirth);
-        this.reason = reason;
+        this.dateOfBirth = dateOfBirth;
+        this.reason = StringPool.intern(reason);
         this.status = status;
-        this.acceptanceDate = LocalDate.parse(acceptanceDate);
-        
+        this.acceptanceDate = acceptanceDate;
     }
     public String getFiscalCode() {
         return fiscalCode;
@@ -38,7 +61,11 @@ public class Patient {
     }
 
     public String getDateOfBirth() {
-        return dateOfBirth.toString();
+        return LocalDate.ofEpochDay(dateOfBirth).toString();
+    }
+
+    public int getDateOfBirthEpochDay() {
+        return dateOfBirth;
     }
 
     public String getReason() {
@@ -46,19 +73,67 @@ public class Patient {
     }
 
     public String getDateTimeAccepted() {
-        return acceptanceDate.toString();
+        return LocalDate.ofEpochDay(acceptanceDate).toString();
+    }
+
+    public LocalDate getAcceptanceDate() {
+        return LocalDate.ofEpochDay(acceptanceDate);
+    }
+
+    public int getAcceptanceEpochDay() {
+        return acceptanceDate;
     }
 
     public PatientStatus getStatus() {
         return status;
     }
     public void setStatus(PatientStatus newStatus){
-        this.status = newStatus;
+        PatientStatus oldStatus;
+        EventStream stream;
+        synchronized(this){
+            oldStatus = this.status;
+            this.status = newStatus;
+            if(oldStatus == PatientStatus.ADMITTED && newStatus != PatientStatus.ADMITTED){
+                for(Professional p : professionalsSeen) p.changeCaseload(-1);
+            } else if(oldStatus != PatientStatus.ADMITTED && newStatus == PatientStatus.ADMITTED){
+                for(Professional p : professionalsSeen) p.changeCaseload(1);
+            }
+            if(statistics != null) statistics.statusChanged(this, oldStatus, newStatus);
+            stream = events;
+        }
+        // published without the lock, a listener reading the patient must not wait for it
+        if(stream != null && oldStatus != newStatus) stream.publish(RegistryEvent.statusChanged(this, oldStatus, newStatus));
+    }
+
+    /**
+     * Links the patient to the statistics and the event stream of the emergency room that registered it.
+     */
+    synchronized void attach(PatientStatistics statistics, EventStream events){
+        this.statistics = statistics;
+        this.events = events;
+        statistics.admitted(this);
+    }
+
+    /**
+     * Records that the patient has been assigned to a professional.
+     *
+     * @return false if the patient was already assigned to that professional.
+     */
+    synchronized boolean seenBy(Professional professional){
+        if(professionalsSeen.contains(professional)) return false;
+        professionalsSeen.add(professional);
+        if(status == PatientStatus.ADMITTED) professional.changeCaseload(1);
+        if(statistics != null && status == PatientStatus.DISCHARGED) statistics.discharged(professional.getSpecialization(), 1);
+        return true;
+    }
+
+    List<Professional> getProfessionalsSeen() {
+        return professionalsSeen;
     }
 
     public boolean isAcceptanceDate(String date){
         LocalDate aDateIp = LocalDate.parse(date);
        
-        return aDateIp.isEqual(acceptanceDate) ;
+        return aDateIp.toEpochDay() == acceptanceDate ;
     }
 }
@@ -0,0 +1,386 @@
+package it.polito.emergency;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import it.polito.emergency.EmergencyApp.PatientStatus;
+
+/**
+ * Disk tier of the patients: the patients moved out of memory, kept in a
+ * directory of a persistent registry, with a bounded {@link TinyLfuCache}
+ * in front of it for the ones looked up often.
+ * <p>
+ * The records are appended to a data file and never change. A hash index of
+ * the fiscal codes is kept in a second, memory-mapped file: each slot holds
+ * the hash of the fiscal code and the position of its record, so a lookup
+ * reads the disk only for the record it is after. The index is written after
+ * the records it points to and remembers how far the data file it covers goes;
+ * if the data file is longer after a crash, the torn tail is cut and the index
+ * is rebuilt from the records.
+ */
+class PatientArchive implements Closeable {
+
+    /** Number of archived patients kept in memory by default. */
+    static final int DEFAULT_CACHE_SIZE = 100_000;
+
+    private static final String DATA = "patients.archive";
+    private static final String INDEX = "patients.archive.idx";
+    private static final int INDEX_MAGIC = 0x45524131;
+    private static final int HEADER = 16;
+    private static final int SLOT = 12;
+    private static final int MIN_SLOTS = 1024;
+
+    private final Path directory;
+    private final FileChannel data;
+    private final Function<String, Professional> professionals;
+    private final TinyLfuCache<String, Patient> cache;
+    private FileChannel indexChannel;
+    private volatile MappedByteBuffer index;
+    private int slots;
+    private int count;
+    // the readers only follow slots pointing before it
+    private volatile long end;
+
+    private PatientArchive(Path directory, Function<String, Professional> professionals, int cacheSize) throws IOException {
+        this.directory = directory;
+        this.professionals = professionals;
+        this.cache = new TinyLfuCache<>(cacheSize);
+        this.data = FileChannel.open(directory.resolve(DATA), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Opens the archive kept in a directory, creating it if missing.
+     *
+     * @param directory The directory of the registry.
+     * @param professionals Finds the professionals seen by the archived patients.
+     * @param cacheSize The number of archived patients kept in memory.
+     * @return The archive.
+     * @throws IOException If the archive cannot be read.
+     */
+    static PatientArchive open(Path directory, Function<String, Professional> professionals, int cacheSize) throws IOException {
+        PatientArchive archive = new PatientArchive(directory, professionals, cacheSize);
+        try {
+            archive.load();
+        } catch (IOException e) {
+            archive.close();
+            throw e;
+        }
+        return archive;
+    }
+
+    private void load() throws IOException {
+        long valid = scan(Long.MAX_VALUE, null);
+        if (valid < data.size()) {
+            data.truncate(valid);
+            data.force(true);
+        }
+        Path indexFile = directory.resolve(INDEX);
+        if (Files.exists(indexFile)) {
+            indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (indexChannel.size() >= HEADER) {
+                MappedByteBuffer header = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+                int n = header.getInt(4);
+                if (header.getInt(0) == INDEX_MAGIC && header.getLong(8) == valid && indexChannel.size() == HEADER + (long) n * SLOT) {
+                    index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+                    slots = n;
+                    for (int s = 0; s < slots; s++) if (index.getLong(HEADER + s * SLOT) != 0) count++;
+                    end = valid;
+                    return;
+                }
+            }
+            indexChannel.close();
+        }
+        rebuild(valid);
+    }
+
+    /**
+     * Writes a new index of the records before a position of the data file.
+     * The lookups keep using the previous index until the new one is complete.
+     */
+    private void rebuild(long upTo) throws IOException {
+        int n = 0;
+        long[] offsets = new long[64];
+        int[] hashes = new int[64];
+        for (long pos = 0; pos < upTo; ) {
+            ByteBuffer record = read(pos);
+            if (n == offsets.length) {
+                offsets = Arrays.copyOf(offsets, n * 2);
+                hashes = Arrays.copyOf(hashes, n * 2);
+            }
+            offsets[n] = pos;
+            hashes[n] = hash(key(record));
+            n++;
+            pos += 4 + record.capacity();
+        }
+        int size = MIN_SLOTS;
+        while (size < 2L * n) size <<= 1;
+
+        Path tmp = directory.resolve(INDEX + ".tmp");
+        Files.deleteIfExists(tmp);
+        FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer fresh = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) size * SLOT);
+        fresh.putInt(0, INDEX_MAGIC);
+        fresh.putInt(4, size);
+        fresh.putLong(8, -1);
+        for (int i = 0; i < n; i++) insert(fresh, hashes[i], offsets[i]);
+        commit(fresh, upTo);
+        Files.move(tmp, directory.resolve(INDEX), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (indexChannel != null) indexChannel.close();
+        indexChannel = channel;
+        slots = size;
+        count = n;
+        index = fresh;
+        end = upTo;
+    }
+
+    private static void insert(MappedByteBuffer idx, int h, long offset) {
+        int mask = idx.getInt(4) - 1;
+        for (int s = h & mask; ; s = (s + 1) & mask) {
+            int at = HEADER + s * SLOT;
+            if (idx.getLong(at) == 0) {
+                idx.putInt(at + 8, h);
+                idx.putLong(at, offset + 1);
+                return;
+            }
+        }
+    }
+
+    private static void commit(MappedByteBuffer idx, long upTo) {
+        idx.force();
+        idx.putLong(8, upTo);
+        idx.force();
+    }
+
+    /**
+     * Appends the patients missing from the archive and makes them durable.
+     * Only one thread at a time archives; the lookups can run meanwhile.
+     *
+     * @param patients The patients to archive.
+     * @throws IOException If the archive cannot be written.
+     */
+    synchronized void putAll(Collection<Patient> patients) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(patients.size() * 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        long start = end;
+        int added = 0;
+        long[] offsets = new long[patients.size()];
+        int[] hashes = new int[patients.size()];
+        for (Patient p : patients) {
+            if (contains(p.getFiscalCode())) continue;
+            offsets[added] = start + bytes.size();
+            hashes[added] = hash(p.getFiscalCode());
+            added++;
+            write(out, p);
+        }
+        if (added == 0) return;
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        for (long pos = start; buffer.hasRemaining(); ) pos += data.write(buffer, pos);
+        data.force(true);
+
+        if (2L * (count + added) > slots) {
+            // the larger index is built from the records, including the new ones
+            rebuild(start + bytes.size());
+            return;
+        }
+        for (int i = 0; i < added; i++) insert(index, hashes[i], offsets[i]);
+        count += added;
+        commit(index, start + bytes.size());
+        end = start + bytes.size();
+    }
+
+    private static void write(DataOutputStream out, Patient p) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+        DataOutputStream b = new DataOutputStream(body);
+        RegistryJournal.writeString(b, p.getFiscalCode());
+        RegistryJournal.writeString(b, p.getName());
+        RegistryJournal.writeString(b, p.getSurname());
+        RegistryJournal.writeString(b, p.getReason());
+        b.writeInt(p.getDateOfBirthEpochDay());
+        b.writeInt(p.getAcceptanceEpochDay());
+        b.writeByte(p.getStatus().ordinal());
+        b.writeInt(p.getProfessionalsSeen().size());
+        for (Professional pr : p.getProfessionalsSeen()) RegistryJournal.writeString(b, pr.getId());
+        out.writeInt(body.size());
+        body.writeTo(out);
+    }
+
+    /**
+     * Looks up an archived patient, through the cache; counted as a hit or a miss.
+     *
+     * @param fiscalCode The fiscal code.
+     * @return The patient, or null if it is not archived.
+     */
+    Patient get(String fiscalCode) {
+        Patient p = cache.get(fiscalCode);
+        if (p != null) return p;
+        long offset = find(fiscalCode);
+        if (offset < 0) return null;
+        p = decode(readUnchecked(offset));
+        cache.put(fiscalCode, p);
+        return p;
+    }
+
+    /**
+     * @param fiscalCode The fiscal code.
+     * @return true if a patient with that fiscal code is archived.
+     */
+    boolean contains(String fiscalCode) {
+        return find(fiscalCode) >= 0;
+    }
+
+    private long find(String fiscalCode) {
+        long limit = end;
+        MappedByteBuffer idx = index;
+        int n = idx.getInt(4);
+        int h = hash(fiscalCode);
+        byte[] key = null;
+        for (int s = h & (n - 1); ; s = (s + 1) & (n - 1)) {
+            int at = HEADER + s * SLOT;
+            long slot = idx.getLong(at);
+            if (slot == 0) return -1;
+            long offset = slot - 1;
+            if (idx.getInt(at + 8) != h || offset >= limit) continue;
+            if (key == null) key = fiscalCode.getBytes(StandardCharsets.UTF_8);
+            if (keyEquals(offset, key)) return offset;
+        }
+    }
+
+    private boolean keyEquals(long offset, byte[] key) {
+        ByteBuffer head = ByteBuffer.allocate(8 + key.length);
+        try {
+            data.read(head, offset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (head.position() < head.capacity() || head.getInt(4) != key.length) return false;
+        for (int i = 0; i < key.length; i++) if (head.get(8 + i) != key[i]) return false;
+        return true;
+    }
+
+    /**
+     * Visits the archived patients, in the order they were archived.
+     *
+     * @param upTo The length of the data file to visit, as returned by {@link #end()}.
+     * @param visitor Receives the patients.
+     * @throws IOException If the archive cannot be read.
+     */
+    void forEach(long upTo, Consumer<Patient> visitor) throws IOException {
+        scan(Math.min(upTo, end), visitor);
+    }
+
+    /**
+     * @return The length of the data file; the patients archived later are after it.
+     */
+    long end() {
+        return end;
+    }
+
+    int size() {
+        return count;
+    }
+
+    long hits() {
+        return cache.hits();
+    }
+
+    long misses() {
+        return cache.misses();
+    }
+
+    /**
+     * Reads the complete records before a position.
+     *
+     * @return The position after the last complete record.
+     */
+    private long scan(long upTo, Consumer<Patient> visitor) throws IOException {
+        long size = Math.min(upTo, data.size());
+        long pos = 0;
+        ByteBuffer length = ByteBuffer.allocate(4);
+        while (pos + 4 <= size) {
+            length.clear();
+            data.read(length, pos);
+            int n = length.getInt(0);
+            if (n <= 0 || pos + 4 + n > size) break;
+            if (visitor != null) visitor.accept(decode(read(pos)));
+            pos += 4 + n;
+        }
+        return pos;
+    }
+
+    private ByteBuffer read(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        data.read(length, offset);
+        ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+        for (long pos = offset + 4; record.hasRemaining(); ) {
+            int r = data.read(record, pos);
+            if (r < 0) throw new IOException("Truncated archive record at " + offset);
+            pos += r;
+        }
+        return record.flip();
+    }
+
+    private ByteBuffer readUnchecked(long offset) {
+        try {
+            return read(offset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String key(ByteBuffer record) {
+        return string(record.duplicate().position(0));
+    }
+
+    private Patient decode(ByteBuffer record) {
+        String fiscalCode = string(record);
+        String name = string(record);
+        String surname = string(record);
+        String reason = string(record);
+        int dateOfBirth = record.getInt();
+        int accepted = record.getInt();
+        PatientStatus status = PatientStatus.values()[record.get()];
+        Patient p = new Patient(fiscalCode, name, surname, dateOfBirth, reason, status, accepted);
+        for (int n = record.getInt(); n > 0; n--) {
+            Professional pr = professionals.apply(string(record));
+            if (pr != null) p.seenBy(pr);
+        }
+        return p;
+    }
+
+    private static String string(ByteBuffer b) {
+        int n = b.getInt();
+        if (n < 0) return null;
+        String s = new String(b.array(), b.arrayOffset() + b.position(), n, StandardCharsets.UTF_8);
+        b.position(b.position() + n);
+        return s;
+    }
+
+    private static int hash(String fiscalCode) {
+        int h = fiscalCode.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            data.close();
+        } finally {
+            if (indexChannel != null) indexChannel.close();
+        }
+    }
+}
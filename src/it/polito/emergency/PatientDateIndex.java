@@ -0,0 +1,86 @@
+package it.polito.emergency;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Index of the patients by acceptance date.
+ * Each day keeps its patients sorted by surname and name (the fiscal code
+ * breaks the ties), so the queries never scan or sort the whole population.
+ */
+class PatientDateIndex {
+
+    private final NavigableMap<LocalDate, NavigableSet<Patient>> byDate = new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds a patient to the bucket of its acceptance date.
+     *
+     * @param patient The patient to index.
+     */
+    void add(Patient patient) {
+        byDate.computeIfAbsent(patient.getAcceptanceDate(), d -> new ConcurrentSkipListSet<>(Patient.BY_NAME))
+              .add(patient);
+    }
+
+    /**
+     * Adds several patients, looking up each acceptance date once.
+     *
+     * @param patients The patients to index.
+     */
+    void addAll(Collection<Patient> patients) {
+        Map<Integer, List<Patient>> groups = new HashMap<>();
+        for (Patient p : patients) groups.computeIfAbsent(p.getAcceptanceEpochDay(), d -> new ArrayList<>()).add(p);
+        groups.forEach((day, group) ->
+            byDate.computeIfAbsent(LocalDate.ofEpochDay(day), d -> new ConcurrentSkipListSet<>(Patient.BY_NAME)).addAll(group));
+    }
+
+    /**
+     * Removes several patients. The days left without patients are dropped,
+     * so no patient must be added meanwhile.
+     *
+     * @param patients The patients to remove.
+     */
+    void removeAll(Collection<Patient> patients) {
+        Map<Integer, List<Patient>> groups = new HashMap<>();
+        for (Patient p : patients) groups.computeIfAbsent(p.getAcceptanceEpochDay(), d -> new ArrayList<>()).add(p);
+        groups.forEach((day, group) -> byDate.computeIfPresent(LocalDate.ofEpochDay(day), (d, bucket) -> {
+            group.forEach(bucket::remove);
+            return bucket.isEmpty() ? null : bucket;
+        }));
+    }
+
+    /**
+     * Retrieves the fiscal codes of the patients accepted on a day.
+     *
+     * @param date The day of acceptance.
+     * @return The fiscal codes sorted by surname and name.
+     */
+    List<String> getFiscalCodes(LocalDate date) {
+        NavigableSet<Patient> bucket = byDate.get(date);
+        if (bucket == null) return List.of();
+        return bucket.stream().map(Patient::getFiscalCode).toList();
+    }
+
+    /**
+     * Retrieves the fiscal codes of the patients accepted between two days, both included.
+     *
+     * @param from The first day.
+     * @param to The last day.
+     * @return The fiscal codes sorted by acceptance date, then by surname and name.
+     */
+    List<String> getFiscalCodes(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) return List.of();
+        return byDate.subMap(from, true, to, true).values().stream()
+                     .flatMap(NavigableSet::stream)
+                     .map(Patient::getFiscalCode)
+                     .toList();
+    }
+}
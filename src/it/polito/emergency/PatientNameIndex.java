@@ -0,0 +1,102 @@
+package it.polito.emergency;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+
+/**
+ * Index of the patients by surname.
+ * Surnames are stored lower case, so the prefix searches ignore case and
+ * the surnames sharing a prefix are a contiguous range of the map; each
+ * surname keeps its patients sorted by surname, name and fiscal code.
+ */
+class PatientNameIndex {
+
+    private final NavigableMap<String, NavigableSet<Patient>> bySurname = new ConcurrentSkipListMap<>();
+
+    static String normalize(String surname) {
+        return surname.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a patient to the index.
+     *
+     * @param patient The patient to index.
+     */
+    void add(Patient patient) {
+        bySurname.computeIfAbsent(normalize(patient.getSurname()), s -> new ConcurrentSkipListSet<>(Patient.BY_NAME))
+                 .add(patient);
+    }
+
+    /**
+     * Adds several patients, looking up each surname once.
+     *
+     * @param patients The patients to index.
+     */
+    void addAll(Collection<Patient> patients) {
+        Map<String, List<Patient>> groups = new HashMap<>(patients.size() * 4 / 3 + 1);
+        for (Patient p : patients) groups.computeIfAbsent(normalize(p.getSurname()), s -> new ArrayList<>()).add(p);
+        groups.forEach((surname, group) ->
+            bySurname.computeIfAbsent(surname, s -> new ConcurrentSkipListSet<>(Patient.BY_NAME)).addAll(group));
+    }
+
+    /**
+     * Removes several patients. The surnames left without patients are dropped,
+     * so no patient must be added meanwhile.
+     *
+     * @param patients The patients to remove.
+     */
+    void removeAll(Collection<Patient> patients) {
+        Map<String, List<Patient>> groups = new HashMap<>();
+        for (Patient p : patients) groups.computeIfAbsent(normalize(p.getSurname()), s -> new ArrayList<>()).add(p);
+        groups.forEach((surname, group) -> bySurname.computeIfPresent(surname, (s, bucket) -> {
+            group.forEach(bucket::remove);
+            return bucket.isEmpty() ? null : bucket;
+        }));
+    }
+
+    /**
+     * Retrieves the patients with exactly the given surname.
+     *
+     * @param surname The surname.
+     * @return The patients sorted by name, or an empty list.
+     */
+    List<Patient> get(String surname) {
+        NavigableSet<Patient> bucket = bySurname.get(normalize(surname));
+        if (bucket == null) return List.of();
+        return bucket.stream().filter(p -> p.getSurname().equals(surname)).toList();
+    }
+
+    /**
+     * Lazily enumerates the patients whose surname starts with a prefix, ignoring case.
+     *
+     * @param prefix The prefix of the surname.
+     * @param after The patient the enumeration resumes after, or {@code null} to start from the first one.
+     * @return The patients sorted by surname, then by name; only the consumed ones are visited.
+     */
+    Stream<Patient> startingWith(String prefix, Patient after) {
+        String key = normalize(prefix);
+        if (after == null) return range(bySurname.tailMap(key, true), key);
+
+        String resume = normalize(after.getSurname());
+        if (!resume.startsWith(key)) return Stream.empty();
+        NavigableSet<Patient> bucket = bySurname.get(resume);
+        Stream<Patient> rest = bucket == null ? Stream.empty() : bucket.tailSet(after, false).stream();
+        return Stream.concat(rest, range(bySurname.tailMap(resume, false), key));
+    }
+
+    private static Stream<Patient> range(NavigableMap<String, NavigableSet<Patient>> from, String prefix) {
+        return from.entrySet().stream()
+                   .takeWhile(e -> e.getKey().startsWith(prefix))
+                   .map(Map.Entry::getValue)
+                   .flatMap(NavigableSet::stream);
+    }
+}
@@ -0,0 +1,98 @@
+package it.polito.emergency;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.polito.emergency.EmergencyApp.PatientStatus;
+
+/**
+ * Presence statistics of the emergency room, kept up to date as the patients
+ * are admitted and change status, so that every query is a single lookup.
+ * The admissions are also rolled up by day to forecast the next ones.
+ */
+class PatientStatistics {
+
+    private final AtomicInteger[] byStatus = new AtomicInteger[PatientStatus.values().length];
+    private final Map<String, AtomicInteger> byAcceptanceDate = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> dischargedBySpecialization = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final AdmissionForecast admissions = new AdmissionForecast();
+
+    PatientStatistics() {
+        for (int i = 0; i < byStatus.length; i++) byStatus[i] = new AtomicInteger();
+    }
+
+    /**
+     * Records a newly registered patient.
+     *
+     * @param patient The patient.
+     */
+    void admitted(Patient patient) {
+        byStatus[patient.getStatus().ordinal()].incrementAndGet();
+        byAcceptanceDate.computeIfAbsent(patient.getDateTimeAccepted(), d -> new AtomicInteger()).incrementAndGet();
+        admissions.admitted(patient);
+    }
+
+    /**
+     * Records a status change of a registered patient.
+     *
+     * @param patient The patient.
+     * @param from The previous status.
+     * @param to The new status.
+     */
+    void statusChanged(Patient patient, PatientStatus from, PatientStatus to) {
+        if (from == to) return;
+        byStatus[from.ordinal()].decrementAndGet();
+        byStatus[to.ordinal()].incrementAndGet();
+        if (to == PatientStatus.DISCHARGED) {
+            for (Professional p : patient.getProfessionalsSeen()) discharged(p.getSpecialization(), 1);
+        } else if (from == PatientStatus.DISCHARGED) {
+            for (Professional p : patient.getProfessionalsSeen()) discharged(p.getSpecialization(), -1);
+        }
+    }
+
+    /**
+     * Records a discharge, or its withdrawal, for a patient seen by a professional.
+     *
+     * @param specialization The specialization of the professional.
+     * @param delta 1 for a discharge, -1 for a withdrawn one.
+     */
+    void discharged(String specialization, int delta) {
+        dischargedBySpecialization.computeIfAbsent(specialization, s -> new AtomicInteger()).addAndGet(delta);
+    }
+
+    /**
+     * Records a patient found in the archive when a registry is recovered,
+     * as if it had been admitted and had reached its status.
+     *
+     * @param patient The archived patient.
+     */
+    void archived(Patient patient) {
+        PatientStatus status = patient.getStatus();
+        byStatus[status.ordinal()].incrementAndGet();
+        byAcceptanceDate.computeIfAbsent(patient.getDateTimeAccepted(), d -> new AtomicInteger()).incrementAndGet();
+        admissions.admitted(patient);
+        if (status == PatientStatus.DISCHARGED) {
+            for (Professional p : patient.getProfessionalsSeen()) discharged(p.getSpecialization(), 1);
+        }
+    }
+
+    int count(PatientStatus status) {
+        return byStatus[status.ordinal()].get();
+    }
+
+    int admittedOn(String date) {
+        AtomicInteger n = byAcceptanceDate.get(date);
+        return n == null ? 0 : n.get();
+    }
+
+    AdmissionForecast admissions() {
+        return admissions;
+    }
+
+    int dischargedBy(String specialization) {
+        AtomicInteger n = dischargedBySpecialization.get(specialization);
+        return n == null ? 0 : n.get();
+    }
+}
@@ -0,0 +1,134 @@
+package it.polito.emergency;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An interval of days, both included, written as "yyyy-MM-dd to yyyy-MM-dd".
+ * The days are kept as epoch days, so checking a day or another period
+ * takes two comparisons and allocates nothing.
+ * <p>
+ * Parsed periods are cached by their text: the same query periods come
+ * back over and over, and each of them is parsed only once. The cache
+ * stops growing once it is full, as the {@link StringPool} does.
+ */
+public final class Period {
+
+    private static final int MAX_CACHED = 1 << 14;
+    private static final Map<String, Period> CACHE = new ConcurrentHashMap<>();
+
+    private final int start;
+    private final int end;
+
+    private Period(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @param start The first day.
+     * @param end The last day; a period ending before it starts has no days.
+     * @return The period.
+     */
+    public static Period of(LocalDate start, LocalDate end) {
+        return new Period(Math.toIntExact(start.toEpochDay()), Math.toIntExact(end.toEpochDay()));
+    }
+
+    /**
+     * Parses a period, or returns the one parsed before from the same text.
+     *
+     * @param text The period, in the format "yyyy-MM-dd to yyyy-MM-dd".
+     * @return The period.
+     * @throws DateTimeParseException If a day is not a valid date.
+     * @throws IllegalArgumentException If the text is not a period.
+     */
+    public static Period parse(String text) {
+        Period p = CACHE.get(text);
+        if (p != null) return p;
+        // dates hold only digits and dashes, so the first "to" separates them
+        int to = text.indexOf("to");
+        if (to < 0) throw new IllegalArgumentException("Not a period: " + text);
+        p = of(LocalDate.parse(text.substring(0, to).trim()), LocalDate.parse(text.substring(to + 2).trim()));
+        if (CACHE.size() < MAX_CACHED) CACHE.putIfAbsent(text, p);
+        return p;
+    }
+
+    /**
+     * Parses the shifts of a professional, separated by semicolons, e.g.
+     * "2024-01-01 to 2024-01-31; 2024-03-01 to 2024-03-31". Overlapping or
+     * adjacent shifts are merged, so the result is sorted and disjoint.
+     *
+     * @param text The shifts.
+     * @return The shifts sorted by start day.
+     */
+    static Period[] parseShifts(String text) {
+        List<Period> shifts = new ArrayList<>();
+        for (String s : text.split(";")) {
+            if (!s.isBlank()) shifts.add(parse(s.trim()));
+        }
+        if (shifts.isEmpty()) throw new IllegalArgumentException("No shifts: " + text);
+        Period[] sorted = shifts.toArray(new Period[0]);
+        Arrays.sort(sorted, (a, b) -> Integer.compare(a.start, b.start));
+        int n = 0;
+        for (Period p : sorted) {
+            if (n > 0 && p.start <= (long) sorted[n - 1].end + 1) {
+                if (p.end > sorted[n - 1].end) sorted[n - 1] = new Period(sorted[n - 1].start, p.end);
+            } else {
+                sorted[n++] = p;
+            }
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    public LocalDate getStart() {
+        return LocalDate.ofEpochDay(start);
+    }
+
+    public LocalDate getEnd() {
+        return LocalDate.ofEpochDay(end);
+    }
+
+    public int getStartEpochDay() {
+        return start;
+    }
+
+    public int getEndEpochDay() {
+        return end;
+    }
+
+    /**
+     * @param epochDay A day, as an epoch day.
+     * @return true if the day is in the period.
+     */
+    public boolean contains(long epochDay) {
+        return start <= epochDay && epochDay <= end;
+    }
+
+    /**
+     * @param other Another period.
+     * @return true if every day of the other period is in this one.
+     */
+    public boolean contains(Period other) {
+        return start <= other.start && other.end <= end;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Period p && p.start == start && p.end == end;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * start + end;
+    }
+
+    @Override
+    public String toString() {
+        return getStart() + " to " + getEnd();
+    }
+}
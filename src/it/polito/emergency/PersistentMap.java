@@ -0,0 +1,253 @@
+package it.polito.emergency;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Immutable hash map that shares structure with its previous versions
+ * (a hash array mapped trie). An update copies only the path from the root
+ * to the changed entry, at most seven nodes of up to 32 slots, so a new
+ * version costs O(log32 n) and every older version stays valid and unchanged.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+final class PersistentMap<K, V> {
+
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(new Object[0], 0, 0);
+
+    // a trie node is a bitmap of the occupied slots and, for each of them, a key
+    // and its value, or null and a child node; colliding hashes share a Collision
+    private final Object[] root;
+    private final int bitmap;
+    private final int size;
+
+    private PersistentMap(Object[] root, int bitmap, int size) {
+        this.root = root;
+        this.bitmap = bitmap;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    private static final class Node {
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    private static final class Collision {
+        final int hash;
+        final Object[] slots;
+
+        Collision(int hash, Object[] slots) {
+            this.hash = hash;
+            this.slots = slots;
+        }
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ h >>> 16;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(K key) {
+        int h = hash(key);
+        int bits = bitmap;
+        Object[] slots = root;
+        for (int shift = 0; ; shift += 5) {
+            int bit = 1 << (h >>> shift & 31);
+            if ((bits & bit) == 0) return null;
+            int i = 2 * Integer.bitCount(bits & bit - 1);
+            Object k = slots[i];
+            Object v = slots[i + 1];
+            if (k != null) return key.equals(k) ? (V) v : null;
+            if (v instanceof Collision c) {
+                for (int j = 0; j < c.slots.length; j += 2) if (key.equals(c.slots[j])) return (V) c.slots[j + 1];
+                return null;
+            }
+            Node n = (Node) v;
+            bits = n.bitmap;
+            slots = n.slots;
+        }
+    }
+
+    V getOrDefault(K key, V fallback) {
+        V v = get(key);
+        return v == null ? fallback : v;
+    }
+
+    /**
+     * @return A version of the map where the key has the value; this version does not change.
+     */
+    PersistentMap<K, V> put(K key, V value) {
+        Objects.requireNonNull(value);
+        boolean[] added = new boolean[1];
+        Node n = put(new Node(bitmap, root), 0, hash(key), key, value, added);
+        return new PersistentMap<>(n.slots, n.bitmap, added[0] ? size + 1 : size);
+    }
+
+    private static Node put(Node node, int shift, int h, Object key, Object value, boolean[] added) {
+        int bit = 1 << (h >>> shift & 31);
+        int i = 2 * Integer.bitCount(node.bitmap & bit - 1);
+        if ((node.bitmap & bit) == 0) {
+            Object[] slots = new Object[node.slots.length + 2];
+            System.arraycopy(node.slots, 0, slots, 0, i);
+            slots[i] = key;
+            slots[i + 1] = value;
+            System.arraycopy(node.slots, i, slots, i + 2, node.slots.length - i);
+            added[0] = true;
+            return new Node(node.bitmap | bit, slots);
+        }
+        Object k = node.slots[i];
+        Object v = node.slots[i + 1];
+        Object replacement;
+        if (k == null) {
+            replacement = v instanceof Collision c ? put(c, key, value, added) : put((Node) v, shift + 5, h, key, value, added);
+        } else if (key.equals(k)) {
+            if (v == value) return node;
+            Object[] slots = node.slots.clone();
+            slots[i + 1] = value;
+            return new Node(node.bitmap, slots);
+        } else {
+            added[0] = true;
+            replacement = pair(shift + 5, hash(k), k, v, h, key, value);
+        }
+        Object[] slots = node.slots.clone();
+        slots[i] = null;
+        slots[i + 1] = replacement;
+        return new Node(node.bitmap, slots);
+    }
+
+    private static Collision put(Collision c, Object key, Object value, boolean[] added) {
+        for (int j = 0; j < c.slots.length; j += 2) {
+            if (key.equals(c.slots[j])) {
+                Object[] slots = c.slots.clone();
+                slots[j + 1] = value;
+                return new Collision(c.hash, slots);
+            }
+        }
+        Object[] slots = Arrays.copyOf(c.slots, c.slots.length + 2);
+        slots[c.slots.length] = key;
+        slots[c.slots.length + 1] = value;
+        added[0] = true;
+        return new Collision(c.hash, slots);
+    }
+
+    private static Object pair(int shift, int h1, Object k1, Object v1, int h2, Object k2, Object v2) {
+        if (h1 == h2 || shift >= 32) return new Collision(h1, new Object[] {k1, v1, k2, v2});
+        int b1 = h1 >>> shift & 31;
+        int b2 = h2 >>> shift & 31;
+        if (b1 == b2) return new Node(1 << b1, new Object[] {null, pair(shift + 5, h1, k1, v1, h2, k2, v2)});
+        Object[] slots = b1 < b2 ? new Object[] {k1, v1, k2, v2} : new Object[] {k2, v2, k1, v1};
+        return new Node(1 << b1 | 1 << b2, slots);
+    }
+
+    /**
+     * @return The values, in no particular order. The stream splits along the
+     *         branches of the trie, so it runs well in parallel.
+     */
+    Stream<V> values() {
+        return StreamSupport.stream(new Values<>(root, 0, root.length, size), false);
+    }
+
+    private static final class Values<V> implements Spliterator<V> {
+        private Object[] slots;
+        private int from;
+        private int to;
+        private long estimate;
+        // the nodes below the current slot still to visit, as a stack of slot arrays
+        private Object[][] stack = new Object[8][];
+        private int[] positions = new int[8];
+        private int depth;
+
+        Values(Object[] slots, int from, int to, long estimate) {
+            this.slots = slots;
+            this.from = from;
+            this.to = to;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super V> action) {
+            while (true) {
+                if (depth > 0) {
+                    Object[] s = stack[depth - 1];
+                    int p = positions[depth - 1];
+                    if (p >= s.length) {
+                        depth--;
+                        continue;
+                    }
+                    positions[depth - 1] = p + 2;
+                    if (visit(s[p], s[p + 1], action)) return true;
+                    continue;
+                }
+                if (from >= to) return false;
+                int p = from;
+                from += 2;
+                if (visit(slots[p], slots[p + 1], action)) return true;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean visit(Object k, Object v, Consumer<? super V> action) {
+            if (k != null) {
+                action.accept((V) v);
+                return true;
+            }
+            // the slots of a collision are all pairs of key and value
+            Object[] child = v instanceof Collision c ? c.slots : ((Node) v).slots;
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+                positions = Arrays.copyOf(positions, depth * 2);
+            }
+            stack[depth] = child;
+            positions[depth] = 0;
+            depth++;
+            return false;
+        }
+
+        @Override
+        public Spliterator<V> trySplit() {
+            if (depth > 0) return null;
+            // a single child left: descend into it before splitting
+            while (to - from == 2 && slots[from] == null && slots[from + 1] instanceof Node n) {
+                slots = n.slots;
+                from = 0;
+                to = slots.length;
+            }
+            int pairs = (to - from) / 2;
+            if (pairs < 2) return null;
+            int mid = from + pairs / 2 * 2;
+            Values<V> prefix = new Values<>(slots, from, mid, estimate >>>= 1);
+            from = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return NONNULL | IMMUTABLE;
+        }
+    }
+}
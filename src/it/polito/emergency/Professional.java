@@ -3,6 +3,7 @@ package it.polito.emergency;
 import java.time.LocalDate;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import it.polito.emergency.EmergencyApp.PatientStatus;
 
@@ -13,9 +14,14 @@ public class Professional {
     private final String surname;
     private final String specialization;
     private final String period;
-    private final LocalDate start;
-    private final LocalDate end;
-    private  List<Patient> patients = new LinkedList<>();
+    private final Period[] shifts;
+    // the shifts as epoch days, sorted and disjoint
+    private final int[] shiftStarts;
+    private final int[] shiftEnds;
+    private final List<Patient> patients = new LinkedList<>();
+    private volatile int activeCaseload;
+    private int archivedDischarged;
+    private AssignmentScheduler scheduler;
 
     private final String workingHours;
 
@@ -23,12 +29,15 @@ public class Professional {
         this.id = id;
         this.name = name;
         this.surname = surname;
-        this.specialization = specialization;
+        this.specialization = StringPool.intern(specialization);
         this.period = period;
-        String[] tokens = period.split("\\s*to\\s*"); 
-
-        this.start = LocalDate.parse(tokens[0]);
-        this.end = LocalDate.parse(tokens[1]);
+        this.shifts = Period.parseShifts(period);
+        this.shiftStarts = new int[shifts.length];
+        this.shiftEnds = new int[shifts.length];
+        for(int i = 0; i < shifts.length; i++) {
+            shiftStarts[i] = shifts[i].getStartEpochDay();
+            shiftEnds[i] = shifts[i].getEndEpochDay();
+        }
         this.workingHours = workingHours;
         
     }
@@ -49,49 +58,138 @@ public class Professional {
         return specialization;
     }
 
+    /**
+     * @return The shifts as given, "yyyy-MM-dd to yyyy-MM-dd" separated by semicolons.
+     */
     public String getPeriod() {
         return period;
     }
 
+    /**
+     * @return The shifts sorted by start day; overlapping or adjacent ones are merged.
+     */
+    public List<Period> getShifts() {
+        return List.of(shifts);
+    }
+
+    /**
+     * @return The first day of the first shift.
+     */
+    public LocalDate getStart() {
+        return shifts[0].getStart();
+    }
+
+    /**
+     * @return The last day of the last shift.
+     */
+    public LocalDate getEnd() {
+        return shifts[shifts.length - 1].getEnd();
+    }
+
     public String getWorkingHours() {
         return workingHours;
     }
 
+    /**
+     * @param period A period, "yyyy-MM-dd to yyyy-MM-dd".
+     * @return true if a single shift covers the whole period.
+     */
     public boolean isInService(String period){
-        String[] tokens = period.split("\\s*to\\s*");
-        LocalDate startRequired = LocalDate.parse(tokens[0]);
-        LocalDate endRequired = LocalDate.parse(tokens[0]);
+        return isInService(Period.parse(period));
+    }
 
-        if((start.isBefore(startRequired) || start.isEqual(startRequired)) && 
-            (end.isAfter(endRequired)|| end.isEqual(endRequired))) {
-                return true;
-            }
+    /**
+     * @param period A period.
+     * @return true if a single shift covers the whole period.
+     */
+    public boolean isInService(Period period){
+        int i = shiftAt(period.getStartEpochDay());
+        return i >= 0 && period.getEndEpochDay() <= shiftEnds[i];
+    }
 
-        return false;
+    public boolean isInService(long epochDay){
+        return shiftAt(epochDay) >= 0;
     }
 
     public boolean isInService(LocalDate date){
-        if (date.isAfter(start) && date.isBefore(end)|| (date.isEqual(start) || date.isEqual(end))){
-            return true;
-        } 
-
-        return false;
+        return shiftAt(date.toEpochDay()) >= 0;
+    }
 
+    /**
+     * @return The index of the shift including the day, or -1.
+     */
+    private int shiftAt(long epochDay) {
+        // most professionals have one shift or a few: a linear scan beats a binary search
+        for(int i = 0; i < shiftStarts.length && shiftStarts[i] <= epochDay; i++) {
+            if(epochDay <= shiftEnds[i]) return i;
+        }
+        return -1;
     }
 
+    /**
+     * Assigns a patient to the professional. Assigning the same patient twice has no effect.
+     *
+     * @param patient The patient.
+     */
     public void addPatient(Patient patient){
-        patients.add(patient);
+        // the patient is locked first, as when its status changes
+        if(!patient.seenBy(this)) return;
+        synchronized(this) {
+            patients.add(patient);
+        }
     }
-    public List<Patient> getPatients() {
-        return patients;
+
+    /**
+     * @return The assigned patients, except the ones moved to the archive.
+     */
+    public synchronized List<Patient> getPatients() {
+        return List.copyOf(patients);
+    }
+
+    /**
+     * @return The number of assigned patients still waiting in the emergency room.
+     */
+    public int getActiveCaseload() {
+        return activeCaseload;
     }
 
-    public int countDischarged(){
+    synchronized void attach(AssignmentScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Updates the active caseload, keeping the scheduler ordering consistent.
+     */
+    synchronized void changeCaseload(int delta) {
+        activeCaseload += delta;
+        if(scheduler != null) scheduler.loadChanged(this);
+    }
+
+    public synchronized int countDischarged(){
       
         return  patients.stream()
                         .filter(pat-> pat.getStatus().equals(PatientStatus.DISCHARGED))
                         .toList()
-                        .size();
+                        .size() + archivedDischarged;
  
     }
+
+    /**
+     * Forgets the assigned patients moved to the archive.
+     * They are all discharged, so they are still counted by {@link #countDischarged()}.
+     *
+     * @param archived The archived patients.
+     */
+    synchronized void archive(Set<Patient> archived) {
+        int before = patients.size();
+        patients.removeIf(archived::contains);
+        archivedDischarged += before - patients.size();
+    }
+
+    /**
+     * Counts the archived patients found when a registry is recovered.
+     */
+    synchronized void restoreArchived(int discharged) {
+        archivedDischarged += discharged;
+    }
 }
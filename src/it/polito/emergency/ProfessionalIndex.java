@@ -0,0 +1,218 @@
+package it.polito.emergency;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of the professionals grouped by specialization.
+ * Specializations are compared ignoring case, and inside each specialization
+ * the service periods are kept sorted by start day so that availability
+ * queries only visit the professionals that are actually in service.
+ * The index can be read and updated concurrently.
+ * <p>
+ * Each shift of a professional is indexed on its own. The shifts of a
+ * professional are disjoint, so at most one of them covers a requested
+ * interval and every professional is found at most once.
+ */
+class ProfessionalIndex {
+
+    private final Map<String, Specialization> bySpecialization = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * Adds a professional to the index.
+     *
+     * @param professional The professional to index.
+     */
+    void add(Professional professional) {
+        bySpecialization.computeIfAbsent(professional.getSpecialization(), s -> new Specialization())
+                        .add(professional);
+    }
+
+    /**
+     * Removes a professional from the index, if present.
+     *
+     * @param professional The professional to remove.
+     */
+    void remove(Professional professional) {
+        Specialization spec = bySpecialization.get(professional.getSpecialization());
+        if (spec != null) spec.remove(professional);
+    }
+
+    /**
+     * Retrieves the IDs of all the professionals with the given specialization.
+     *
+     * @param specialization The specialization, compared ignoring case.
+     * @return The IDs sorted in ascending order, or an empty list if none is found.
+     */
+    List<String> getIds(String specialization) {
+        Specialization spec = bySpecialization.get(specialization);
+        if (spec == null) return List.of();
+        return List.copyOf(spec.byId.keySet());
+    }
+
+    /**
+     * Retrieves the IDs of the professionals with the given specialization whose
+     * service period covers the whole interval {@code [from, to]}.
+     *
+     * @param specialization The specialization, compared ignoring case.
+     * @param from First day of the requested interval, as an epoch day.
+     * @param to Last day of the requested interval, as an epoch day.
+     * @return The IDs sorted in ascending order, or an empty list if none is found.
+     */
+    List<String> getIdsInService(String specialization, long from, long to) {
+        Specialization spec = bySpecialization.get(specialization);
+        if (spec == null) return List.of();
+        List<Professional> found = spec.inService(from, to);
+        found.sort(Comparator.comparing(Professional::getId));
+        return found.stream().map(Professional::getId).toList();
+    }
+
+    /**
+     * Retrieves the professionals with the given specialization in service on a day.
+     *
+     * @param specialization The specialization, compared ignoring case.
+     * @param day The day of service, as an epoch day.
+     * @return The professionals sorted by ID.
+     */
+    List<Professional> getInService(String specialization, long day) {
+        Specialization spec = bySpecialization.get(specialization);
+        if (spec == null) return List.of();
+        List<Professional> found = spec.inService(day, day);
+        found.sort(Comparator.comparing(Professional::getId));
+        return found;
+    }
+
+    /**
+     * Retrieves the first professional, in order of ID, with the given specialization
+     * that is in service on the given day.
+     *
+     * @param specialization The specialization, compared ignoring case.
+     * @param day The day of service, as an epoch day.
+     * @return The professional, or {@code null} if no one is in service.
+     */
+    Professional getFirstInService(String specialization, long day) {
+        Specialization spec = bySpecialization.get(specialization);
+        if (spec == null) return null;
+        Professional first = null;
+        for (Professional p : spec.inService(day, day)) {
+            if (first == null || p.getId().compareTo(first.getId()) < 0) first = p;
+        }
+        return first;
+    }
+
+    /**
+     * Professionals of a single specialization.
+     * The service periods are stored in parallel arrays sorted by start day,
+     * together with a max-tree over the end days: the periods starting before
+     * a given day are a prefix of the arrays, and the tree lets the query skip
+     * every sub-range of that prefix whose periods all end too early.
+     * The arrays are rebuilt lazily after the professionals change and are
+     * published as an immutable {@link Layout}, so queries never take a lock.
+     * A layout records the count of changes it was built from, and a query
+     * rebuilds it when more changes have been made since.
+     */
+    private static class Specialization {
+        private final Map<String, Professional> byId = new ConcurrentSkipListMap<>();
+        // incremented after each change of byId
+        private final AtomicLong modCount = new AtomicLong();
+        private volatile Layout layout;
+
+        void add(Professional p) {
+            byId.put(p.getId(), p);
+            modCount.incrementAndGet();
+        }
+
+        void remove(Professional p) {
+            if (byId.remove(p.getId(), p)) modCount.incrementAndGet();
+        }
+
+        List<Professional> inService(long from, long to) {
+            Layout l = layout;
+            if (l == null || l.version != modCount.get()) l = rebuild();
+            List<Professional> result = new ArrayList<>();
+            int n = l.starts.length;
+            int hi = upperBound(l.starts, from);
+            if (hi > 0) l.collect(1, 0, n - 1, hi - 1, to, result);
+            return result;
+        }
+
+        private synchronized Layout rebuild() {
+            // read before byId: a layout never claims changes it may have missed
+            long version = modCount.get();
+            if (layout != null && layout.version == version) return layout;
+            List<Shift> shifts = new ArrayList<>();
+            for (Professional p : byId.values()) {
+                for (Period s : p.getShifts()) shifts.add(new Shift(s, p));
+            }
+            Shift[] sorted = shifts.toArray(new Shift[0]);
+            Arrays.sort(sorted, Comparator.comparingInt(s -> s.period.getStartEpochDay()));
+            return layout = new Layout(sorted, version);
+        }
+    }
+
+    private static final class Shift {
+        final Period period;
+        final Professional owner;
+
+        Shift(Period period, Professional owner) {
+            this.period = period;
+            this.owner = owner;
+        }
+    }
+
+    private static class Layout {
+        private final long version;
+        private final long[] starts;
+        private final long[] ends;
+        private final Professional[] owners;
+        private final long[] maxEnd;
+
+        Layout(Shift[] sorted, long version) {
+            this.version = version;
+            int n = sorted.length;
+            owners = new Professional[n];
+            starts = new long[n];
+            ends = new long[n];
+            for (int i = 0; i < n; i++) {
+                owners[i] = sorted[i].owner;
+                starts[i] = sorted[i].period.getStartEpochDay();
+                ends[i] = sorted[i].period.getEndEpochDay();
+            }
+            maxEnd = new long[Math.max(1, 4 * n)];
+            Arrays.fill(maxEnd, Long.MIN_VALUE);
+            if (n > 0) build(1, 0, n - 1);
+        }
+
+        private long build(int node, int lo, int hi) {
+            if (lo == hi) return maxEnd[node] = ends[lo];
+            int mid = (lo + hi) >>> 1;
+            return maxEnd[node] = Math.max(build(2 * node, lo, mid), build(2 * node + 1, mid + 1, hi));
+        }
+
+        private void collect(int node, int lo, int hi, int limit, long to, List<Professional> out) {
+            if (lo > limit || maxEnd[node] < to) return;
+            if (lo == hi) {
+                out.add(owners[lo]);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            collect(2 * node, lo, mid, limit, to, out);
+            collect(2 * node + 1, mid + 1, hi, limit, to, out);
+        }
+    }
+
+    private static int upperBound(long[] values, long key) {
+        int lo = 0, hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] <= key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
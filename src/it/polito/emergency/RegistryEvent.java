@@ -0,0 +1,109 @@
+package it.polito.emergency;
+
+import it.polito.emergency.EmergencyApp.PatientStatus;
+
+/**
+ * A change of the emergency registry, as delivered to the {@link RegistryListener}s.
+ * The fields that do not apply to the type of the event are null.
+ */
+public class RegistryEvent {
+
+    public enum Type {
+        /** A patient has been registered; {@link #getStatus()} is {@code ADMITTED}. */
+        PATIENT_ADMITTED,
+        /** The status of a patient changed from {@link #getPreviousStatus()} to {@link #getStatus()}. */
+        STATUS_CHANGED,
+        /** A report has been saved; {@link #getReportId()} and {@link #getProfessionalId()} are set. */
+        REPORT_SAVED,
+        /** A patient got a bed in {@link #getDepartment()}. */
+        HOSPITALIZED,
+        /** A patient has been discharged, without a bed or leaving the one in {@link #getDepartment()}. */
+        DISCHARGED
+    }
+
+    private final Type type;
+    private final long timestamp;
+    private final String fiscalCode;
+    private final PatientStatus previousStatus;
+    private final PatientStatus status;
+    private final String department;
+    private final String reportId;
+    private final String professionalId;
+
+    private RegistryEvent(Type type, String fiscalCode, PatientStatus previousStatus, PatientStatus status,
+                          String department, String reportId, String professionalId) {
+        this.type = type;
+        this.timestamp = System.currentTimeMillis();
+        this.fiscalCode = fiscalCode;
+        this.previousStatus = previousStatus;
+        this.status = status;
+        this.department = department;
+        this.reportId = reportId;
+        this.professionalId = professionalId;
+    }
+
+    static RegistryEvent admitted(Patient p) {
+        return new RegistryEvent(Type.PATIENT_ADMITTED, p.getFiscalCode(), null, PatientStatus.ADMITTED, null, null, null);
+    }
+
+    static RegistryEvent statusChanged(Patient p, PatientStatus from, PatientStatus to) {
+        return new RegistryEvent(Type.STATUS_CHANGED, p.getFiscalCode(), from, to, null, null, null);
+    }
+
+    static RegistryEvent reportSaved(Report r) {
+        return new RegistryEvent(Type.REPORT_SAVED, r.getFiscalCode(), null, null, null, r.getId(), r.getProfessionalId());
+    }
+
+    static RegistryEvent hospitalized(Patient p, String department) {
+        return new RegistryEvent(Type.HOSPITALIZED, p.getFiscalCode(), null, PatientStatus.HOSPITALIZED, department, null, null);
+    }
+
+    static RegistryEvent discharged(Patient p, String department) {
+        return new RegistryEvent(Type.DISCHARGED, p.getFiscalCode(), null, PatientStatus.DISCHARGED, department, null, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return When the event happened, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getFiscalCode() {
+        return fiscalCode;
+    }
+
+    public PatientStatus getPreviousStatus() {
+        return previousStatus;
+    }
+
+    public PatientStatus getStatus() {
+        return status;
+    }
+
+    public String getDepartment() {
+        return department;
+    }
+
+    public String getReportId() {
+        return reportId;
+    }
+
+    public String getProfessionalId() {
+        return professionalId;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(type.name()).append(' ').append(fiscalCode);
+        if (previousStatus != null) sb.append(' ').append(previousStatus).append(" ->");
+        if (status != null) sb.append(' ').append(status);
+        if (department != null) sb.append(" department=").append(department);
+        if (reportId != null) sb.append(" report=").append(reportId).append(" professional=").append(professionalId);
+        return sb.toString();
+    }
+}
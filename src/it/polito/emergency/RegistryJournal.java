@@ -0,0 +1,387 @@
+package it.polito.emergency;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Durable storage of the emergency registry: an append-only write-ahead log
+ * plus periodic snapshots, kept in a directory.
+ * <p>
+ * Every update is appended to the log as a record with a growing sequence
+ * number (LSN). A single flusher thread writes the pending records in batches
+ * and forces them to disk with one fsync per batch (group commit), so many
+ * desks waiting for durability share the same fsync.
+ * <p>
+ * The log is split in segments named after their first LSN. A snapshot stores
+ * the whole registry together with the last LSN it includes; once it is on
+ * disk the older segments are deleted. Recovery loads the snapshot and replays
+ * the records of the remaining segments that follow it, stopping at the first
+ * torn or corrupted record.
+ */
+class RegistryJournal implements AutoCloseable {
+
+    static final byte PROFESSIONAL = 1;
+    static final byte DEPARTMENT = 2;
+    static final byte PATIENT = 3;
+    static final byte REPORT = 4;
+    static final byte HOSPITALIZED = 5;
+    static final byte DISCHARGED = 6;
+    static final byte ASSIGNED = 7;
+    static final byte WAITLISTED = 8;
+    static final byte RELEASED = 9;
+    static final byte ARCHIVED = 10;
+
+    /** Size of the log after which a new snapshot is worth taking. */
+    static final long SNAPSHOT_THRESHOLD = 64L << 20;
+
+    private static final int SNAPSHOT_MAGIC = 0x45525333;
+    private static final String SNAPSHOT = "registry.snapshot";
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /** Receives the content of the journal during recovery. */
+    interface Target {
+        void readSnapshot(DataInputStream in) throws IOException;
+
+        void replay(byte type, String[] fields);
+    }
+
+    /** Writes the registry into a snapshot. */
+    interface SnapshotWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final Path directory;
+    private final Thread flusher;
+    private FileChannel segment;
+    private long segmentFirstLsn;
+    private long segmentBytes;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+    private ByteArrayOutputStream spare = new ByteArrayOutputStream(1 << 16);
+    private long appendedLsn;
+    private long durableLsn;
+    private IOException failure;
+    private boolean closed;
+
+    private RegistryJournal(Path directory, long lastLsn) throws IOException {
+        this.directory = directory;
+        this.appendedLsn = lastLsn;
+        this.durableLsn = lastLsn;
+        this.segment = openSegment(lastLsn + 1);
+        this.segmentBytes = segment.size();
+        this.flusher = new Thread(this::flushLoop, "registry-journal");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Opens the journal kept in a directory, recovering its content first.
+     *
+     * @param directory The directory, created if missing.
+     * @param target Receives the snapshot and the replayed records.
+     * @return The journal, ready to append after the recovered records.
+     * @throws IOException If the journal cannot be read.
+     */
+    static RegistryJournal open(Path directory, Target target) throws IOException {
+        Files.createDirectories(directory);
+        long lastLsn = 0;
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+                if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException("Not a registry snapshot: " + snapshot);
+                lastLsn = in.readLong();
+                target.readSnapshot(in);
+            }
+        }
+        for (Path seg : segments(directory)) {
+            lastLsn = replay(seg, lastLsn, target);
+        }
+        return new RegistryJournal(directory, lastLsn);
+    }
+
+    /**
+     * Appends a record to the log. The record is not durable until
+     * {@link #await(long)} returns for its LSN.
+     *
+     * @param type The type of the record.
+     * @param fields The fields of the record.
+     * @return The LSN of the record.
+     */
+    synchronized long append(byte type, String... fields) {
+        if (closed) throw new IllegalStateException("Journal closed");
+        long lsn = ++appendedLsn;
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+            DataOutputStream body = new DataOutputStream(record);
+            body.writeLong(lsn);
+            body.writeByte(type);
+            body.writeShort(fields.length);
+            for (String f : fields) writeString(body, f);
+            byte[] bytes = record.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            DataOutputStream out = new DataOutputStream(pending);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        notifyAll();
+        return lsn;
+    }
+
+    /**
+     * Waits until the record with the given LSN, and all those before it, are on disk.
+     *
+     * @param lsn The LSN returned by {@link #append(byte, String...)}.
+     */
+    synchronized void await(long lsn) {
+        boolean interrupted = false;
+        while (durableLsn < lsn && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure != null && durableLsn < lsn) throw new UncheckedIOException(failure);
+    }
+
+    /**
+     * @return The LSN of the last appended record.
+     */
+    synchronized long lastLsn() {
+        return appendedLsn;
+    }
+
+    /**
+     * @return The size of the current log segment, including the records not flushed yet.
+     */
+    synchronized long size() {
+        return segmentBytes + pending.size();
+    }
+
+    /**
+     * Starts a new segment. The caller must make sure no record is appended meanwhile,
+     * so that the closed segments hold exactly the records up to {@link #lastLsn()}.
+     *
+     * @throws IOException If the new segment cannot be created.
+     */
+    synchronized void rotate() throws IOException {
+        await(appendedLsn);
+        segment.close();
+        segment = openSegment(appendedLsn + 1);
+        segmentBytes = segment.size();
+    }
+
+    /**
+     * Writes a snapshot holding the records up to {@code lsn}, then deletes the
+     * segments it makes useless. It should follow a {@link #rotate()} done at the same LSN.
+     *
+     * @param lsn The last LSN included in the snapshot.
+     * @param writer Writes the content of the snapshot.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    void snapshot(long lsn, SnapshotWriter writer) throws IOException {
+        Path tmp = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                               StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(lsn);
+            writer.write(out);
+            out.flush();
+            ch.force(true);
+        }
+        Files.move(tmp, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (Path seg : segments(directory)) {
+            if (firstLsn(seg) <= lsn && firstLsn(seg) != segmentFirstLsn()) Files.delete(seg);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            await(appendedLsn);
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segment.close();
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteArrayOutputStream batch;
+            FileChannel ch;
+            long lsn;
+            synchronized (this) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.size() == 0) return;
+                batch = pending;
+                pending = spare;
+                spare = batch;
+                ch = segment;
+                lsn = appendedLsn;
+            }
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(batch.toByteArray());
+                while (buf.hasRemaining()) ch.write(buf);
+                ch.force(false);
+                synchronized (this) {
+                    segmentBytes += batch.size();
+                    batch.reset();
+                    durableLsn = lsn;
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private synchronized long segmentFirstLsn() {
+        return segmentFirstLsn;
+    }
+
+    private FileChannel openSegment(long firstLsn) throws IOException {
+        segmentFirstLsn = firstLsn;
+        return FileChannel.open(segmentPath(firstLsn), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                StandardOpenOption.APPEND);
+    }
+
+    private Path segmentPath(long firstLsn) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                                  && p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                        .sorted()
+                        .toList();
+        }
+    }
+
+    private static long firstLsn(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Replays the records of a segment that follow {@code lastLsn}, truncating
+     * the segment at the first incomplete or corrupted record.
+     *
+     * @return The LSN of the last record applied.
+     * @throws IOException If the segment cannot be read, or a record refers to
+     *         something the registry does not hold.
+     */
+    private static long replay(Path segment, long lastLsn, Target target) throws IOException {
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 1 << 16))) {
+            CRC32 crc = new CRC32();
+            byte[] body = new byte[256];
+            while (true) {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (len < 11) break;
+                if (body.length < len) body = new byte[Math.max(len, 2 * body.length)];
+                if (in.readNBytes(body, 0, len) < len) break;
+                int expected;
+                try {
+                    expected = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(body, 0, len);
+                if ((int) crc.getValue() != expected) break;
+                valid += len + 8;
+
+                ByteBuffer rec = ByteBuffer.wrap(body, 0, len);
+                long lsn = rec.getLong();
+                byte type = rec.get();
+                String[] fields = new String[rec.getShort()];
+                for (int i = 0; i < fields.length; i++) {
+                    int n = rec.getInt();
+                    if (n < 0) continue;
+                    fields[i] = new String(body, rec.position(), n, StandardCharsets.UTF_8);
+                    rec.position(rec.position() + n);
+                }
+                if (lsn > lastLsn) {
+                    try {
+                        target.replay(type, fields);
+                    } catch (RuntimeException e) {
+                        throw new IOException("Cannot replay record " + lsn + " of " + segment + ": " + e.getMessage(), e);
+                    }
+                    lastLsn = lsn;
+                }
+            }
+        }
+        if (valid < Files.size(segment)) {
+            try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                ch.truncate(valid);
+            }
+        }
+        return lastLsn;
+    }
+
+    /**
+     * Writes a string as its length followed by its UTF-8 bytes, or null as the length -1.
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     */
+    static String readString(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        return n < 0 ? null : new String(in.readNBytes(n), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,18 @@
+package it.polito.emergency;
+
+import java.util.List;
+
+/**
+ * Receives the changes of an emergency registry.
+ * The events arrive in batches, on a thread of the registry, in the order
+ * they were published; a listener must not block for long, since all the
+ * listeners share that thread.
+ */
+@FunctionalInterface
+public interface RegistryListener {
+
+    /**
+     * @param events The events, oldest first. The list must not be kept after the call.
+     */
+    void onEvents(List<RegistryEvent> events);
+}
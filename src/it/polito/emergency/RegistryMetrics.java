@@ -0,0 +1,140 @@
+package it.polito.emergency;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Call counts and latencies of the {@link EmergencyApp} operations, plus
+ * gauges, counters and ratios read when a snapshot is taken. Recording costs two reads of the
+ * clock and a few striped increments; when the metrics are disabled it
+ * costs a volatile read.
+ */
+class RegistryMetrics {
+
+    enum Operation {
+        ADD_PROFESSIONAL("addProfessional"),
+        READ_PROFESSIONALS("readFromFileProfessionals"),
+        GET_PROFESSIONAL("getProfessionalById"),
+        GET_PROFESSIONALS("getProfessionals"),
+        GET_PROFESSIONALS_IN_SERVICE("getProfessionalsInService"),
+        ADD_DEPARTMENT("addDepartment"),
+        READ_DEPARTMENTS("readFromFileDepartments"),
+        GET_DEPARTMENTS("getDepartments"),
+        ADD_PATIENT("addPatient"),
+        ADD_PATIENTS("addPatients"),
+        GET_PATIENT("getPatient"),
+        SEARCH_PATIENTS("searchPatients"),
+        GET_PATIENTS_BY_DATE("getPatientsByDate"),
+        ASSIGN_PATIENT("assignPatientToProfessional"),
+        TRIAGE_PATIENT("triagePatient"),
+        NEXT_PATIENT("nextPatient"),
+        SAVE_REPORT("saveReport"),
+        GET_REPORTS("getReports"),
+        SEARCH_REPORTS("searchReports"),
+        SEARCH_REASONS("searchPatientsByReason"),
+        DISCHARGE_OR_HOSPITALIZE("dischargeOrHospitalize"),
+        DISCHARGE_OR_HOSPITALIZE_ALL("dischargeOrHospitalizeAll"),
+        HOSPITALIZE_OR_WAIT("hospitalizeOrWait"),
+        RELEASE_PATIENT("releasePatient"),
+        VERIFY_PATIENT("verifyPatient"),
+        ARCHIVE_PATIENTS("archivePatients"),
+        COUNT_PATIENTS("getNumberOfPatients"),
+        COUNT_PATIENTS_BY_DATE("getNumberOfPatientsByDate"),
+        COUNT_HOSPITALIZED("getNumberOfPatientsHospitalizedByDepartment"),
+        COUNT_DISCHARGED("getNumberOfPatientsDischarged"),
+        COUNT_DISCHARGED_BY_SPECIALIZATION("getNumberOfPatientsAssignedToProfessionalDischarged"),
+        HOURS_UNTIL_FULL("getHoursUntilFull"),
+        EXPECTED_ADMISSIONS("getExpectedAdmissions"),
+        AVERAGE_ADMISSIONS("getAverageAdmissions"),
+        CHECKPOINT("checkpoint"),
+        EXPORT_COLUMNS("exportColumns"),
+        EXPORT_REGISTRY("exportRegistry"),
+        IMPORT_REGISTRY("importRegistry");
+
+        final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final LongAdder[] calls = new LongAdder[OPERATIONS.length];
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+    private final Map<String, LongSupplier> counters = new LinkedHashMap<>();
+    private final Map<String, LongSupplier[]> ratios = new LinkedHashMap<>();
+    private volatile boolean enabled = true;
+
+    RegistryMetrics() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            calls[i] = new LongAdder();
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Registers a gauge; to be called before the registry is used.
+     */
+    void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Registers a counter, a value that only grows; to be called before the registry is used.
+     */
+    void counter(String name, LongSupplier value) {
+        counters.put(name, value);
+    }
+
+    /**
+     * Registers the ratio of a count to the sum of it and another one, such
+     * as a hit ratio; to be called before the registry is used.
+     */
+    void ratio(String name, LongSupplier part, LongSupplier rest) {
+        ratios.put(name, new LongSupplier[] {part, rest});
+    }
+
+    /**
+     * @return The start time of an operation, or 0 if the metrics are disabled.
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records an operation begun at {@code start}.
+     */
+    void stop(Operation operation, long start) {
+        if (start == 0) return;
+        long elapsed = System.nanoTime() - start;
+        calls[operation.ordinal()].increment();
+        latencies[operation.ordinal()].record(elapsed);
+    }
+
+    MetricsSnapshot snapshot() {
+        Map<String, MetricsSnapshot.Timer> timers = new LinkedHashMap<>();
+        for (Operation op : OPERATIONS) {
+            LatencyHistogram h = latencies[op.ordinal()];
+            timers.put(op.label, new MetricsSnapshot.Timer(calls[op.ordinal()].sum(), h.counts(), h.sum(), h.max()));
+        }
+        Map<String, Long> values = new LinkedHashMap<>();
+        gauges.forEach((name, g) -> values.put(name, g.getAsLong()));
+        Map<String, Long> totals = new LinkedHashMap<>();
+        counters.forEach((name, c) -> totals.put(name, c.getAsLong()));
+        Map<String, Double> fractions = new LinkedHashMap<>();
+        ratios.forEach((name, r) -> {
+            long part = r[0].getAsLong();
+            long all = part + r[1].getAsLong();
+            fractions.put(name, all == 0 ? 0 : (double) part / all);
+        });
+        return new MetricsSnapshot(timers, values, totals, fractions);
+    }
+}
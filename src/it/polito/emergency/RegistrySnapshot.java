@@ -0,0 +1,356 @@
+package it.polito.emergency;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import it.polito.emergency.EmergencyApp.PatientStatus;
+
+/**
+ * A consistent, immutable view of the registry at a point in time.
+ * <p>
+ * The registry publishes a new version after every admission, assignment,
+ * hospitalization and discharge, each one applied as a whole. A version shares
+ * almost all its structure with the previous one (see {@link PersistentMap}),
+ * so publishing costs a few small copies and a compare-and-set, and taking
+ * a snapshot is a single read. Queries on a snapshot never block the
+ * registry, nor are they disturbed by it, and {@link #patients()} can be
+ * processed in parallel.
+ */
+public class RegistrySnapshot {
+
+    /**
+     * A patient as recorded in a snapshot.
+     */
+    public static class PatientRecord {
+
+        private static final Comparator<PatientRecord> BY_NAME = Comparator.comparing(PatientRecord::getSurname)
+                                                                           .thenComparing(PatientRecord::getName)
+                                                                           .thenComparing(PatientRecord::getFiscalCode);
+
+        private final String fiscalCode;
+        private final String name;
+        private final String surname;
+        private final String reason;
+        private final int acceptanceDay;
+        private final PatientStatus status;
+        private final String department;
+        private final List<String> professionalIds;
+
+        private PatientRecord(String fiscalCode, String name, String surname, String reason, int acceptanceDay,
+                              PatientStatus status, String department, List<String> professionalIds) {
+            this.fiscalCode = fiscalCode;
+            this.name = name;
+            this.surname = surname;
+            this.reason = reason;
+            this.acceptanceDay = acceptanceDay;
+            this.status = status;
+            this.department = department;
+            this.professionalIds = professionalIds;
+        }
+
+        static PatientRecord of(Patient p) {
+            List<String> ids = new ArrayList<>();
+            for (Professional pr : p.getProfessionalsSeen()) ids.add(pr.getId());
+            return new PatientRecord(p.getFiscalCode(), p.getName(), p.getSurname(), p.getReason(), p.getAcceptanceEpochDay(),
+                                     p.getStatus(), null, Collections.unmodifiableList(ids));
+        }
+
+        PatientRecord withStatus(PatientStatus status, String department) {
+            return new PatientRecord(fiscalCode, name, surname, reason, acceptanceDay, status, department, professionalIds);
+        }
+
+        PatientRecord withProfessional(String id) {
+            if (professionalIds.contains(id)) return this;
+            List<String> ids = new ArrayList<>(professionalIds.size() + 1);
+            ids.addAll(professionalIds);
+            ids.add(id);
+            return new PatientRecord(fiscalCode, name, surname, reason, acceptanceDay, status, department, Collections.unmodifiableList(ids));
+        }
+
+        public String getFiscalCode() {
+            return fiscalCode;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getSurname() {
+            return surname;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public LocalDate getAcceptanceDate() {
+            return LocalDate.ofEpochDay(acceptanceDay);
+        }
+
+        public int getAcceptanceEpochDay() {
+            return acceptanceDay;
+        }
+
+        public PatientStatus getStatus() {
+            return status;
+        }
+
+        /**
+         * @return The department of the patient's bed, or null if the patient has no bed.
+         */
+        public String getDepartment() {
+            return department;
+        }
+
+        /**
+         * @return The IDs of the professionals the patient has been assigned to.
+         */
+        public List<String> getProfessionalIds() {
+            return professionalIds;
+        }
+    }
+
+    /**
+     * Totals of the patients moved to the archive. The snapshots no longer
+     * hold their records, but still count them.
+     */
+    static final class Archived {
+
+        static final Archived NONE = new Archived(new int[PatientStatus.values().length], PersistentMap.empty(), PersistentMap.empty());
+
+        private final int[] statusCounts;
+        private final PersistentMap<Integer, Integer> byDay;
+        // by lower-case specialization
+        private final PersistentMap<String, Integer> dischargedBySpecialization;
+
+        private Archived(int[] statusCounts, PersistentMap<Integer, Integer> byDay,
+                         PersistentMap<String, Integer> dischargedBySpecialization) {
+            this.statusCounts = statusCounts;
+            this.byDay = byDay;
+            this.dischargedBySpecialization = dischargedBySpecialization;
+        }
+
+        /**
+         * @param patients Patients just archived.
+         * @return The totals that count them too.
+         */
+        Archived plus(Iterable<Patient> patients) {
+            int[] counts = statusCounts.clone();
+            PersistentMap<Integer, Integer> days = byDay;
+            PersistentMap<String, Integer> specs = dischargedBySpecialization;
+            for (Patient p : patients) {
+                counts[p.getStatus().ordinal()]++;
+                days = days.put(p.getAcceptanceEpochDay(), days.getOrDefault(p.getAcceptanceEpochDay(), 0) + 1);
+                if (p.getStatus() != PatientStatus.DISCHARGED) continue;
+                for (Professional pr : p.getProfessionalsSeen()) {
+                    String key = key(pr.getSpecialization());
+                    specs = specs.put(key, specs.getOrDefault(key, 0) + 1);
+                }
+            }
+            return new Archived(counts, days, specs);
+        }
+
+        private static String key(String specialization) {
+            return specialization == null ? "" : specialization.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    static final RegistrySnapshot EMPTY = new RegistrySnapshot(0, PersistentMap.empty(), PersistentMap.empty(),
+                                                               PersistentMap.empty(), new int[PatientStatus.values().length], 0,
+                                                               Archived.NONE);
+
+    private final long version;
+    private final PersistentMap<String, PatientRecord> patients;
+    private final PersistentMap<String, Integer> hospitalizedByDepartment;
+    private final PersistentMap<String, String> specializations;
+    private final int[] statusCounts;
+    private final int discharged;
+    private final Archived archived;
+
+    private RegistrySnapshot(long version, PersistentMap<String, PatientRecord> patients,
+                             PersistentMap<String, Integer> hospitalizedByDepartment,
+                             PersistentMap<String, String> specializations, int[] statusCounts, int discharged,
+                             Archived archived) {
+        this.version = version;
+        this.patients = patients;
+        this.hospitalizedByDepartment = hospitalizedByDepartment;
+        this.specializations = specializations;
+        this.statusCounts = statusCounts;
+        this.discharged = discharged;
+        this.archived = archived;
+    }
+
+    // the next versions; each update is applied by the registry as a whole
+
+    RegistrySnapshot withProfessional(Professional p) {
+        return new RegistrySnapshot(version + 1, patients, hospitalizedByDepartment,
+                                    specializations.put(p.getId(), p.getSpecialization()), statusCounts, discharged, archived);
+    }
+
+    RegistrySnapshot withDepartment(String name) {
+        if (hospitalizedByDepartment.get(name) != null) return this;
+        return new RegistrySnapshot(version + 1, patients, hospitalizedByDepartment.put(name, 0),
+                                    specializations, statusCounts, discharged, archived);
+    }
+
+    RegistrySnapshot withPatients(List<Patient> added) {
+        PersistentMap<String, PatientRecord> next = patients;
+        int[] counts = statusCounts.clone();
+        for (Patient p : added) {
+            PatientRecord r = PatientRecord.of(p);
+            PatientRecord previous = next.get(r.fiscalCode);
+            if (previous != null) counts[previous.status.ordinal()]--;
+            next = next.put(r.fiscalCode, r);
+            counts[r.status.ordinal()]++;
+        }
+        return new RegistrySnapshot(version + 1, next, hospitalizedByDepartment, specializations, counts, discharged, archived);
+    }
+
+    RegistrySnapshot withAssignment(String fiscalCode, String professionalId) {
+        PatientRecord r = patients.get(fiscalCode);
+        if (r == null) return this;
+        return new RegistrySnapshot(version + 1, patients.put(fiscalCode, r.withProfessional(professionalId)),
+                                    hospitalizedByDepartment, specializations, statusCounts, discharged, archived);
+    }
+
+    RegistrySnapshot withHospitalized(String fiscalCode, String department) {
+        PatientRecord r = patients.get(fiscalCode);
+        if (r == null) return this;
+        return new RegistrySnapshot(version + 1, patients.put(fiscalCode, r.withStatus(PatientStatus.HOSPITALIZED, department)),
+                                    hospitalizedByDepartment.put(department, hospitalizedByDepartment.getOrDefault(department, 0) + 1),
+                                    specializations, moved(r.status, PatientStatus.HOSPITALIZED), discharged, archived);
+    }
+
+    RegistrySnapshot withDischarged(String fiscalCode) {
+        PatientRecord r = patients.get(fiscalCode);
+        if (r == null) return this;
+        return new RegistrySnapshot(version + 1, patients.put(fiscalCode, r.withStatus(PatientStatus.DISCHARGED, null)),
+                                    hospitalizedByDepartment, specializations, moved(r.status, PatientStatus.DISCHARGED), discharged + 1,
+                                    archived);
+    }
+
+    private int[] moved(PatientStatus from, PatientStatus to) {
+        int[] counts = statusCounts.clone();
+        counts[from.ordinal()]--;
+        counts[to.ordinal()]++;
+        return counts;
+    }
+
+    /**
+     * @return The version of the registry: the number of updates published before this snapshot.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    Archived getArchived() {
+        return archived;
+    }
+
+    /**
+     * @return The patients, in no particular order.
+     */
+    public Stream<PatientRecord> patients() {
+        return patients.values();
+    }
+
+    /**
+     * @param fiscalCode The fiscal code.
+     * @return The patient, or null.
+     */
+    public PatientRecord getPatient(String fiscalCode) {
+        return patients.get(fiscalCode);
+    }
+
+    /**
+     * @param professionalId The ID of a professional.
+     * @return The specialization of the professional, or null.
+     */
+    public String getSpecialization(String professionalId) {
+        return specializations.get(professionalId);
+    }
+
+    /**
+     * @see EmergencyApp#getPatientsByDate(String)
+     */
+    public List<String> getPatientsByDate(String date) {
+        int day = (int) LocalDate.parse(date).toEpochDay();
+        return patients.values().parallel()
+                       .filter(r -> r.acceptanceDay == day)
+                       .sorted(PatientRecord.BY_NAME)
+                       .map(PatientRecord::getFiscalCode)
+                       .toList();
+    }
+
+    /**
+     * @see EmergencyApp#getNumberOfPatients()
+     */
+    public int getNumberOfPatients() {
+        return statusCounts[PatientStatus.ADMITTED.ordinal()];
+    }
+
+    /**
+     * @see EmergencyApp#getNumberOfPatientsByDate(String)
+     */
+    public int getNumberOfPatientsByDate(String date) {
+        int day = (int) LocalDate.parse(date).toEpochDay();
+        return (int) patients.values().parallel().filter(r -> r.acceptanceDay == day).count()
+               + archived.byDay.getOrDefault(day, 0);
+    }
+
+    /**
+     * @see EmergencyApp#getNumberOfPatientsHospitalizedByDepartment(String)
+     */
+    public int getNumberOfPatientsHospitalizedByDepartment(String departmentName) throws EmergencyException {
+        Integer n = hospitalizedByDepartment.get(departmentName);
+        if (n == null) throw new EmergencyException("No such dept");
+        return n;
+    }
+
+    /**
+     * @see EmergencyApp#getNumberOfPatientsDischarged()
+     */
+    public int getNumberOfPatientsDischarged() {
+        return discharged;
+    }
+
+    /**
+     * @see EmergencyApp#getNumberOfPatientsAssignedToProfessionalDischarged(String)
+     */
+    public int getNumberOfPatientsAssignedToProfessionalDischarged(String specialization) {
+        return patients.values().parallel()
+                       .filter(r -> r.status == PatientStatus.DISCHARGED)
+                       .mapToInt(r -> (int) r.professionalIds.stream()
+                                                          .map(specializations::get)
+                                                          .filter(s -> s != null && s.equalsIgnoreCase(specialization))
+                                                          .count())
+                       .sum()
+               + archived.dischargedBySpecialization.getOrDefault(Archived.key(specialization), 0);
+    }
+
+    /**
+     * Builds a snapshot from scratch, out of the patients in memory and the
+     * totals of the archived ones.
+     */
+    static RegistrySnapshot of(long version, Iterable<Professional> professionals, Iterable<Department> departments,
+                               Iterable<Patient> patients, BedManager beds, int discharged, Archived archived) {
+        PersistentMap<String, String> specs = PersistentMap.empty();
+        for (Professional p : professionals) specs = specs.put(p.getId(), p.getSpecialization());
+        PersistentMap<String, Integer> hospitalized = PersistentMap.empty();
+        for (Department d : departments) hospitalized = hospitalized.put(d.getName(), d.getHospitalized());
+        PersistentMap<String, PatientRecord> records = PersistentMap.empty();
+        int[] counts = archived.statusCounts.clone();
+        for (Patient p : patients) {
+            Department bed = beds.bedOf(p);
+            PatientRecord r = PatientRecord.of(p).withStatus(p.getStatus(), bed == null ? null : bed.getName());
+            records = records.put(r.fiscalCode, r);
+            counts[r.status.ordinal()]++;
+        }
+        return new RegistrySnapshot(version, records, hospitalized, specs, counts, discharged, archived);
+    }
+}
@@ -0,0 +1,388 @@
+package it.polito.emergency;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import it.polito.emergency.EmergencyApp.PatientStatus;
+
+/**
+ * Binary copy of a whole registry, written by {@link EmergencyApp#exportRegistry(Path)}
+ * and read by {@link EmergencyApp#importRegistry(Path)}.
+ * <p>
+ * The file starts with a header holding the version of the format and the
+ * number of records of each kind, so the reader sizes its maps once. Then come
+ * the professionals, the departments, the patients, the waitlists and the
+ * reports. Strings are written as their UTF-8 length followed by the bytes,
+ * or as -1 if null, dates as epoch days; a patient refers to its department
+ * and professionals by their position in the file. The file is read through memory mappings of
+ * up to {@link #WINDOW} bytes, so its size is not limited.
+ */
+class RegistryTransfer {
+
+    static final int MAGIC = 0x45525458;
+    static final int VERSION = 1;
+    static final int WINDOW = 1 << 30;
+
+    private static final int BUFFER = 1 << 20;
+    private static final PatientStatus[] STATUSES = PatientStatus.values();
+
+    /**
+     * Receives the content of a file, in order.
+     */
+    interface Target {
+        void sizes(int professionals, int departments, int patients, int reports);
+
+        void professional(Professional p);
+
+        Department department(String name, int capacity);
+
+        /** Registers a patient; its status is already the final one. */
+        void patient(Patient p);
+
+        void assigned(Patient p, Professional pr);
+
+        void bed(Patient p, Department d);
+
+        void waiting(String fiscalCode, Department d);
+
+        void report(Report r);
+
+        void counters(int lastReport, int discharged);
+
+        /** Called once the whole file has been read. */
+        void done();
+    }
+
+    private final List<Professional> professionals;
+    private final List<Department> departments;
+    private final List<Patient> patients;
+    private final byte[] statuses;
+    private final Map<String, Department> beds;
+    private final Map<Department, Patient[]> waitlists;
+    private final List<Report> reports;
+    private final int lastReport;
+    private final int discharged;
+    private final PatientArchive archive;
+    private final long archived;
+    private final Map<String, Patient> inMemory;
+
+    /**
+     * Holds a copy of the registry, taken while no update runs; the file is written later.
+     *
+     * @param statuses The status of each patient, as its ordinal.
+     * @param archive The archive of the registry, or null; its patients up to {@code archived}
+     *                not found in {@code inMemory} are written after the others.
+     */
+    RegistryTransfer(List<Professional> professionals, List<Department> departments, List<Patient> patients,
+                     byte[] statuses, Map<String, Department> beds, Map<Department, Patient[]> waitlists,
+                     List<Report> reports, int lastReport, int discharged,
+                     PatientArchive archive, long archived, Map<String, Patient> inMemory) {
+        this.professionals = professionals;
+        this.departments = departments;
+        this.patients = patients;
+        this.statuses = statuses;
+        this.beds = beds;
+        this.waitlists = waitlists;
+        this.reports = reports;
+        this.lastReport = lastReport;
+        this.discharged = discharged;
+        this.archive = archive;
+        this.archived = archived;
+        this.inMemory = inMemory;
+    }
+
+    /**
+     * Writes the copy to a file, replacing it atomically.
+     */
+    void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Output out = new Output(FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                      StandardOpenOption.TRUNCATE_EXISTING))) {
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(lastReport);
+            out.putInt(discharged);
+            out.putInt(professionals.size());
+            out.putInt(departments.size());
+            long patientCount = out.position();
+            out.putInt(patients.size());
+            out.putInt(reports.size());
+
+            Map<String, Integer> professionalAt = new HashMap<>(professionals.size() * 4 / 3 + 1);
+            for (Professional pr : professionals) {
+                professionalAt.put(pr.getId(), professionalAt.size());
+                out.putString(pr.getId());
+                out.putString(pr.getName());
+                out.putString(pr.getSurname());
+                out.putString(pr.getSpecialization());
+                out.putString(pr.getWorkingHours());
+                List<Period> shifts = pr.getShifts();
+                out.putInt(shifts.size());
+                for (Period s : shifts) {
+                    out.putInt(s.getStartEpochDay());
+                    out.putInt(s.getEndEpochDay());
+                }
+            }
+            Map<Department, Integer> departmentAt = new HashMap<>();
+            for (Department d : departments) {
+                departmentAt.put(d, departmentAt.size());
+                out.putString(d.getName());
+                out.putInt(d.getCapacity());
+                out.putInt(d.getHospitalized());
+            }
+            for (int i = 0; i < statuses.length; i++) {
+                Patient p = patients.get(i);
+                Department bed = beds.get(p.getFiscalCode());
+                writePatient(out, p, statuses[i], bed == null ? -1 : departmentAt.get(bed), professionalAt);
+            }
+            if (archive != null) {
+                int[] count = {patients.size()};
+                IOException[] failure = new IOException[1];
+                archive.forEach(archived, p -> {
+                    if (failure[0] != null || inMemory.containsKey(p.getFiscalCode())) return;
+                    try {
+                        writePatient(out, p, (byte) p.getStatus().ordinal(), -1, professionalAt);
+                        count[0]++;
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                });
+                if (failure[0] != null) throw failure[0];
+                out.patchInt(patientCount, count[0]);
+            }
+            for (Department d : departments) {
+                Patient[] waiting = waitlists.get(d);
+                out.putInt(waiting.length);
+                for (Patient p : waiting) out.putString(p.getFiscalCode());
+            }
+            for (Report r : reports) {
+                out.putInt(r.getNumericId());
+                out.putString(r.getProfessionalId());
+                out.putString(r.getFiscalCode());
+                out.putInt(r.getEpochDay());
+                out.putString(r.getDescription());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writePatient(Output out, Patient p, byte status, int bed, Map<String, Integer> professionalAt)
+            throws IOException {
+        out.putString(p.getFiscalCode());
+        out.putString(p.getName());
+        out.putString(p.getSurname());
+        out.putString(p.getReason());
+        out.putInt(p.getDateOfBirthEpochDay());
+        out.putInt(p.getAcceptanceEpochDay());
+        out.putByte(status);
+        out.putInt(bed);
+        // a patient read from the archive may name a professional no longer there
+        int[] seen = p.getProfessionalsSeen().stream().map(pr -> professionalAt.get(pr.getId()))
+                      .filter(i -> i != null).mapToInt(Integer::intValue).toArray();
+        out.putInt(seen.length);
+        for (int pr : seen) out.putInt(pr);
+    }
+
+    /**
+     * Reads a file written by {@link #write(Path)}.
+     *
+     * @throws IOException If the file cannot be read or is not a registry transfer.
+     */
+    static void read(Path file, Target target) throws IOException {
+        try (Input in = new Input(FileChannel.open(file, StandardOpenOption.READ))) {
+            if (in.getInt() != MAGIC) throw new IOException("Not a registry transfer: " + file);
+            if (in.getInt() != VERSION) throw new IOException("Unsupported registry transfer version: " + file);
+            int lastReport = in.getInt();
+            int discharged = in.getInt();
+            Professional[] professionals = new Professional[in.getInt()];
+            Department[] departments = new Department[in.getInt()];
+            int patients = in.getInt();
+            int reports = in.getInt();
+            target.sizes(professionals.length, departments.length, patients, reports);
+
+            for (int i = 0; i < professionals.length; i++) {
+                String id = in.getString();
+                String name = in.getString();
+                String surname = in.getString();
+                String specialization = in.getString();
+                String workingHours = in.getString();
+                StringJoiner period = new StringJoiner("; ");
+                for (int n = in.getInt(); n > 0; n--) {
+                    period.add(LocalDate.ofEpochDay(in.getInt()) + " to " + LocalDate.ofEpochDay(in.getInt()));
+                }
+                professionals[i] = new Professional(id, name, period.toString(), specialization, surname, workingHours);
+                target.professional(professionals[i]);
+            }
+            int[] hospitalized = new int[departments.length];
+            for (int i = 0; i < departments.length; i++) {
+                departments[i] = target.department(in.getString(), in.getInt());
+                hospitalized[i] = in.getInt();
+            }
+            for (int i = 0; i < patients; i++) {
+                String fiscalCode = in.getString();
+                String name = in.getString();
+                String surname = in.getString();
+                String reason = in.getString();
+                int dateOfBirth = in.getInt();
+                int accepted = in.getInt();
+                Patient p = new Patient(fiscalCode, name, surname, dateOfBirth, reason, STATUSES[in.getByte()], accepted);
+                int bed = in.getInt();
+                target.patient(p);
+                for (int n = in.getInt(); n > 0; n--) target.assigned(p, professionals[in.getInt()]);
+                if (bed >= 0) target.bed(p, departments[bed]);
+            }
+            // the beds restored above counted their patients again
+            for (int i = 0; i < departments.length; i++) departments[i].restoreHospitalized(hospitalized[i]);
+            for (Department d : departments) {
+                for (int n = in.getInt(); n > 0; n--) target.waiting(in.getString(), d);
+            }
+            for (int i = 0; i < reports; i++) {
+                int id = in.getInt();
+                String professionalId = in.getString();
+                String fiscalCode = in.getString();
+                int day = in.getInt();
+                target.report(new Report(id, professionalId, fiscalCode, day, in.getString(), false));
+            }
+            target.counters(lastReport, discharged);
+            target.done();
+        }
+    }
+
+    /**
+     * Buffered writes to a file channel, with the position of each value known,
+     * so that a count can be fixed once the records after it are written.
+     */
+    private static class Output implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+        private long flushed;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long position() {
+            return flushed + buf.position();
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            buf.putInt(v);
+        }
+
+        void putByte(byte v) throws IOException {
+            ensure(1);
+            buf.put(v);
+        }
+
+        void putString(String s) throws IOException {
+            if (s == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (int off = 0; off < bytes.length; ) {
+                ensure(1);
+                int n = Math.min(buf.remaining(), bytes.length - off);
+                buf.put(bytes, off, n);
+                off += n;
+            }
+        }
+
+        void patchInt(long position, int v) throws IOException {
+            flush();
+            ByteBuffer b = ByteBuffer.allocate(4).putInt(0, v);
+            while (b.hasRemaining()) channel.write(b, position + b.position());
+        }
+
+        private void ensure(int n) throws IOException {
+            if (buf.remaining() < n) flush();
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) flushed += channel.write(buf);
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a file channel through a sliding memory mapping.
+     */
+    private static class Input implements AutoCloseable {
+        private final FileChannel channel;
+        private final long size;
+        private long base;
+        private MappedByteBuffer buf;
+        private byte[] scratch = new byte[256];
+
+        Input(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0);
+        }
+
+        int getInt() throws IOException {
+            need(4);
+            return buf.getInt();
+        }
+
+        byte getByte() throws IOException {
+            need(1);
+            return buf.get();
+        }
+
+        String getString() throws IOException {
+            int n = getInt();
+            if (n < 0) return null;
+            if (n > scratch.length) scratch = new byte[Math.max(n, scratch.length * 2)];
+            for (int off = 0; off < n; ) {
+                need(1);
+                int k = Math.min(buf.remaining(), n - off);
+                buf.get(scratch, off, k);
+                off += k;
+            }
+            return new String(scratch, 0, n, StandardCharsets.UTF_8);
+        }
+
+        private void need(int n) throws IOException {
+            if (buf.remaining() >= n) return;
+            map(base + buf.position());
+            if (buf.remaining() < n) throw new EOFException("Truncated registry transfer");
+        }
+
+        private void map(long position) throws IOException {
+            base = position;
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
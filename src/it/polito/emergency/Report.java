@@ -1,29 +1,98 @@
 package it.polito.emergency;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+/**
+ * A report written by a professional after visiting a patient.
+ * The ID and the date are stored as primitives; {@link #getId()} and
+ * {@link #getDate()} format them on demand. An ID that is not a number is
+ * kept as given.
+ */
 public class Report {
 
-    private final String id;
+    // shorter descriptions are not worth compressing
+    private static final int COMPRESSION_THRESHOLD = 64;
+
+    private final int id;
+    // null when the ID is the number above
+    private final String textId;
     private final String professionalId;
     private final String fiscalCode;
-    private final LocalDate date ;
+    private final int date ;
     private final String description;
+    private final byte[] compressedDescription;
+    private final int descriptionLength;
 
     public Report(String date, String description, String fiscalCode, String id, String professionalId){
+        this(date, description, fiscalCode, id, professionalId, false);
+    }
+
+    /**
+     * Creates a report, optionally keeping its description deflated in memory.
+     * The description is then inflated on every call to {@link #getDescription()}.
+     */
+    Report(String date, String description, String fiscalCode, String id, String professionalId, boolean compress){
+        this(numeric(id), numeric(id) < 0 ? id : null, professionalId, fiscalCode,
+             (int) LocalDate.parse(date).toEpochDay(), description, compress);
+    }
+
+    /**
+     * Creates a report from an ID and a date already parsed, as read from a binary file.
+     */
+    Report(int id, String professionalId, String fiscalCode, int date, String description, boolean compress){
+        this(id, null, professionalId, fiscalCode, date, description, compress);
+    }
+
+    private Report(int id, String textId, String professionalId, String fiscalCode, int date, String description, boolean compress){
         this.id = id;
+        this.textId = textId;
         this.professionalId = professionalId;
         this.fiscalCode = fiscalCode;
-        this.date = LocalDate.parse(date);
+        this.date = date;
 
-        this.description = description;
+        byte[] packed = compress && description != null && description.length() >= COMPRESSION_THRESHOLD ? deflate(description) : null;
+        if (packed != null) {
+            this.description = null;
+            this.compressedDescription = packed;
+            this.descriptionLength = description.getBytes(StandardCharsets.UTF_8).length;
+        } else {
+            this.description = description;
+            this.compressedDescription = null;
+            this.descriptionLength = 0;
+        }
         
     }
      
     public String getId() {
+        return textId != null ? textId : Integer.toString(id);
+    }
+
+    /**
+     * @return The ID, or -1 if it is not a non-negative number. The registry
+     *         numbers its own reports, so only reports created by callers can
+     *         have such an ID.
+     */
+    public int getNumericId() {
         return id;
     }
 
+    /**
+     * @return The ID as a number, or -1 if it is not written as a non-negative number.
+     */
+    private static int numeric(String id) {
+        try {
+            int n = Integer.parseInt(id);
+            return n >= 0 && Integer.toString(n).equals(id) ? n : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     public String getProfessionalId() {
         return professionalId;
     }
@@ -33,11 +102,51 @@ public class Report {
     }
 
     public String getDate() {
-        return date.toString();
+        return LocalDate.ofEpochDay(date).toString();
+    }
+
+    public LocalDate getLocalDate() {
+        return LocalDate.ofEpochDay(date);
     }
 
+    public int getEpochDay() {
+        return date;
+    }
 
     public String getDescription() {
-        return description;
+        if (compressedDescription == null) return description;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressedDescription);
+            byte[] out = new byte[descriptionLength];
+            int n = 0;
+            while (n < out.length && !inflater.finished()) n += inflater.inflate(out, n, out.length - n);
+            return new String(out, 0, n, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted report description", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return The deflated text, or null if it would not be smaller.
+     */
+    private static byte[] deflate(String text) {
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2);
+            byte[] buf = new byte[Math.min(raw.length, 4096)];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+                if (out.size() >= raw.length) return null;
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
     }
 }
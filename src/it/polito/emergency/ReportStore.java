@@ -0,0 +1,132 @@
+package it.polito.emergency;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Reports of the emergency room, indexed by patient, by professional and by date.
+ * The secondary indexes hold sort keys made of the report date and ID, so
+ * their ranges are already in chronological order and a page of results
+ * can resume right after the last report of the previous page.
+ * The descriptions are also indexed by word, see {@link TextIndex}.
+ */
+class ReportStore {
+
+    private final NavigableMap<Integer, Report> byId = new ConcurrentSkipListMap<>();
+    private final Map<String, NavigableSet<Long>> byPatient = new ConcurrentHashMap<>();
+    private final Map<String, NavigableSet<Long>> byProfessional = new ConcurrentHashMap<>();
+    private final NavigableSet<Long> byDate = new ConcurrentSkipListSet<>();
+    private final TextIndex<Report> byWord = new TextIndex<>();
+
+    /**
+     * Sort key of a report: the epoch day in the high half, the ID in the low one.
+     */
+    private static long key(long epochDay, int id) {
+        return (epochDay << 32) | (id & 0xffffffffL);
+    }
+
+    private static long key(Report report) {
+        return key(report.getEpochDay(), report.getNumericId());
+    }
+
+    /**
+     * Adds a report to the store and to its indexes.
+     *
+     * @param report The report.
+     */
+    void add(Report report) {
+        long key = key(report);
+        byId.put(report.getNumericId(), report);
+        byPatient.computeIfAbsent(report.getFiscalCode(), k -> new ConcurrentSkipListSet<>()).add(key);
+        byProfessional.computeIfAbsent(report.getProfessionalId(), k -> new ConcurrentSkipListSet<>()).add(key);
+        byDate.add(key);
+        byWord.add(report, report.getEpochDay(), report.getDescription());
+    }
+
+    Report get(int id) {
+        return byId.get(id);
+    }
+
+    Collection<Report> all() {
+        return byId.values();
+    }
+
+    /**
+     * Retrieves a page of the reports of a patient, newest first.
+     *
+     * @param fiscalCode The fiscal code of the patient.
+     * @param after The last report of the previous page, or null for the first page.
+     * @param limit The maximum number of reports.
+     * @return The reports.
+     */
+    List<Report> byPatient(String fiscalCode, Report after, int limit) {
+        NavigableSet<Long> keys = byPatient.get(fiscalCode);
+        if (keys == null) return List.of();
+        NavigableSet<Long> page = after == null ? keys.descendingSet() : keys.headSet(key(after), false).descendingSet();
+        return resolve(page, limit);
+    }
+
+    /**
+     * Retrieves a page of the reports of a professional in a date range, oldest first.
+     *
+     * @param professionalId The ID of the professional.
+     * @param from The first day, included.
+     * @param to The last day, included.
+     * @param after The last report of the previous page, or null for the first page.
+     * @param limit The maximum number of reports.
+     * @return The reports.
+     */
+    List<Report> byProfessional(String professionalId, LocalDate from, LocalDate to, Report after, int limit) {
+        NavigableSet<Long> keys = byProfessional.get(professionalId);
+        if (keys == null) return List.of();
+        return resolve(range(keys, from, to, after), limit);
+    }
+
+    /**
+     * Retrieves a page of the reports in a date range, oldest first.
+     *
+     * @param from The first day, included.
+     * @param to The last day, included.
+     * @param after The last report of the previous page, or null for the first page.
+     * @param limit The maximum number of reports.
+     * @return The reports.
+     */
+    List<Report> byDate(LocalDate from, LocalDate to, Report after, int limit) {
+        return resolve(range(byDate, from, to, after), limit);
+    }
+
+    private static NavigableSet<Long> range(NavigableSet<Long> keys, LocalDate from, LocalDate to, Report after) {
+        long lo = key(from.toEpochDay(), 0);
+        long hi = key(to.toEpochDay(), -1);
+        if (after != null) lo = Math.max(lo, key(after) + 1);
+        if (lo > hi) return new ConcurrentSkipListSet<>();
+        return keys.subSet(lo, true, hi, true);
+    }
+
+    private List<Report> resolve(NavigableSet<Long> keys, int limit) {
+        return keys.stream()
+                   .limit(limit)
+                   .map(k -> byId.get((int) k.longValue()))
+                   .toList();
+    }
+
+    /**
+     * Searches the reports whose description matches a query, oldest first.
+     *
+     * @param query The query, see {@link TextIndex}.
+     * @param from The first day, included.
+     * @param to The last day, included.
+     * @param limit The maximum number of reports.
+     * @return The reports.
+     */
+    List<Report> search(String query, LocalDate from, LocalDate to, int limit) {
+        return byWord.search(query, (int) from.toEpochDay(), (int) to.toEpochDay(), limit);
+    }
+}
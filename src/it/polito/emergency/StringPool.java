@@ -0,0 +1,32 @@
+package it.polito.emergency;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical instances of the strings repeated over many records, such as
+ * reasons, specializations and department names, so that every record
+ * references the same instance instead of holding its own copy.
+ * The pool stops growing once it is full: later strings are simply not shared.
+ */
+final class StringPool {
+
+    private static final int MAX_SIZE = 1 << 16;
+    private static final Map<String, String> POOL = new ConcurrentHashMap<>();
+
+    private StringPool() {
+    }
+
+    /**
+     * @param s A string, possibly null.
+     * @return The canonical instance equal to {@code s}.
+     */
+    static String intern(String s) {
+        if (s == null) return null;
+        String canonical = POOL.get(s);
+        if (canonical != null) return canonical;
+        if (POOL.size() >= MAX_SIZE) return s;
+        canonical = POOL.putIfAbsent(s, s);
+        return canonical == null ? s : canonical;
+    }
+}
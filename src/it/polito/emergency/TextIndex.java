@@ -0,0 +1,393 @@
+package it.polito.emergency;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Full-text index of short texts, each with a key and a day.
+ * <p>
+ * The texts are split in words of letters and digits, lower case and without
+ * accents. Each text gets the next ordinal, and each word keeps the ordinals
+ * of its texts in a posting list: the gaps between them as variable-length
+ * integers in a byte array, with a skip entry every {@link #BLOCK} postings,
+ * so an intersection jumps over the blocks that cannot match.
+ * <p>
+ * A query is a sequence of words, all required; {@code OR} separates
+ * alternatives, a word starting with {@code -} is excluded and a word ending
+ * with {@code *} matches every word with that prefix. For instance
+ * {@code "chest pain OR fract* -finger"}.
+ * <p>
+ * The desks do not wait for each other to index: each one queues its text,
+ * and the desk that finds the index free applies the texts queued by all of
+ * them, in order, under the write lock. The searches first apply the texts
+ * still queued, so they see every text added before they started.
+ *
+ * @param <K> The type of the keys.
+ */
+class TextIndex<K> {
+
+    static final int BLOCK = 128;
+
+    private static final int END = Integer.MAX_VALUE;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final NavigableMap<String, Postings> terms = new TreeMap<>();
+    private Object[] keys = new Object[1024];
+    private int[] days = new int[1024];
+    private int size;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Queue<Text> queued = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock applier = new ReentrantLock();
+
+    /**
+     * Splits a text in normalized words.
+     *
+     * @param text The text; null is the empty text.
+     * @return The words, in order, possibly repeated.
+     */
+    static List<String> tokenize(String text) {
+        if (text == null) return List.of();
+        String plain = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        List<String> words = new ArrayList<>();
+        for (String w : SEPARATORS.split(plain.toLowerCase(Locale.ROOT))) {
+            if (!w.isEmpty()) words.add(w);
+        }
+        return words;
+    }
+
+    /**
+     * Indexes a text.
+     *
+     * @param key The key returned by the searches matching the text.
+     * @param day The day of the text, as an epoch day.
+     * @param text The text; null is the empty text.
+     */
+    void add(K key, int day, String text) {
+        queued.add(new Text(key, day, new HashSet<>(tokenize(text)).toArray(new String[0])));
+        applyQueued();
+    }
+
+    /**
+     * Applies the queued texts, unless another thread is applying them.
+     */
+    private void applyQueued() {
+        // checked again after unlocking, for the texts queued while the applier was finishing
+        while (!queued.isEmpty() && applier.tryLock()) {
+            try {
+                lock.writeLock().lock();
+                try {
+                    for (Text t; (t = queued.poll()) != null; ) apply(t);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } finally {
+                applier.unlock();
+            }
+        }
+    }
+
+    private void apply(Text text) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            days = Arrays.copyOf(days, size * 2);
+        }
+        int doc = size++;
+        keys[doc] = text.key;
+        days[doc] = text.day;
+        for (String w : text.words) terms.computeIfAbsent(w, t -> new Postings()).add(doc);
+    }
+
+    /**
+     * @return The number of texts indexed.
+     */
+    int size() {
+        applyQueued();
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the texts matching a query, in order of indexing.
+     *
+     * @param query The query.
+     * @param from The first day, included.
+     * @param to The last day, included.
+     * @param limit The maximum number of results.
+     * @return The keys of the matching texts.
+     */
+    @SuppressWarnings("unchecked")
+    List<K> search(String query, int from, int to, int limit) {
+        List<K> found = new ArrayList<>();
+        applyQueued();
+        lock.readLock().lock();
+        try {
+            Cursor matches = parse(query);
+            for (int doc = matches.advance(0); doc != END && found.size() < limit; doc = matches.advance(doc + 1)) {
+                if (days[doc] >= from && days[doc] <= to) found.add((K) keys[doc]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    private Cursor parse(String query) {
+        List<Cursor> alternatives = new ArrayList<>();
+        List<Cursor> required = new ArrayList<>();
+        List<Cursor> excluded = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            if (word.equals("OR")) {
+                alternatives.add(conjunction(required, excluded));
+                required = new ArrayList<>();
+                excluded = new ArrayList<>();
+                continue;
+            }
+            boolean exclude = word.startsWith("-");
+            boolean prefix = word.endsWith("*");
+            List<String> tokens = tokenize(word);
+            for (int i = 0; i < tokens.size(); i++) {
+                Cursor c = prefix && i == tokens.size() - 1 ? prefix(tokens.get(i)) : term(tokens.get(i));
+                (exclude ? excluded : required).add(c);
+            }
+        }
+        alternatives.add(conjunction(required, excluded));
+        return alternatives.size() == 1 ? alternatives.get(0) : new Union(alternatives);
+    }
+
+    private Cursor term(String word) {
+        Postings p = terms.get(word);
+        return p == null ? Empty.INSTANCE : new TermCursor(p);
+    }
+
+    private Cursor prefix(String start) {
+        List<Cursor> words = new ArrayList<>();
+        for (Postings p : terms.subMap(start, true, start + Character.MAX_VALUE, false).values()) {
+            words.add(new TermCursor(p));
+        }
+        if (words.isEmpty()) return Empty.INSTANCE;
+        return words.size() == 1 ? words.get(0) : new Union(words);
+    }
+
+    private static Cursor conjunction(List<Cursor> required, List<Cursor> excluded) {
+        // a query of exclusions only would match almost everything
+        if (required.isEmpty()) return Empty.INSTANCE;
+        required.sort(Comparator.comparingLong(Cursor::cost));
+        return new Conjunction(required.toArray(new Cursor[0]), excluded.toArray(new Cursor[0]));
+    }
+
+    /**
+     * A text waiting to be indexed, split in distinct words.
+     */
+    private static final class Text {
+        final Object key;
+        final int day;
+        final String[] words;
+
+        Text(Object key, int day, String[] words) {
+            this.key = key;
+            this.day = day;
+            this.words = words;
+        }
+    }
+
+    /**
+     * Ordinals of the texts containing a word.
+     */
+    private static final class Postings {
+        private byte[] bytes = new byte[8];
+        private int length;
+        private int count;
+        private int last = -1;
+        // the posting starting each block, and where the posting after it starts
+        private int[] skipDocs = new int[1];
+        private int[] skipEnds = new int[1];
+
+        void add(int doc) {
+            if (length + 5 > bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            for (int gap = doc - last; ; gap >>>= 7) {
+                if (gap < 0x80) {
+                    bytes[length++] = (byte) gap;
+                    break;
+                }
+                bytes[length++] = (byte) (gap & 0x7F | 0x80);
+            }
+            if (count % BLOCK == 0) {
+                int block = count / BLOCK;
+                if (block == skipDocs.length) {
+                    skipDocs = Arrays.copyOf(skipDocs, block * 2);
+                    skipEnds = Arrays.copyOf(skipEnds, block * 2);
+                }
+                skipDocs[block] = doc;
+                skipEnds[block] = length;
+            }
+            last = doc;
+            count++;
+        }
+    }
+
+    /**
+     * Enumerates ordinals in increasing order.
+     */
+    private interface Cursor {
+        /**
+         * @return The first ordinal at least {@code target}, or {@link #END}; never less than the previous result.
+         */
+        int advance(int target);
+
+        /**
+         * @return An estimate of the number of ordinals.
+         */
+        long cost();
+    }
+
+    private enum Empty implements Cursor {
+        INSTANCE;
+
+        @Override
+        public int advance(int target) {
+            return END;
+        }
+
+        @Override
+        public long cost() {
+            return 0;
+        }
+    }
+
+    private static final class TermCursor implements Cursor {
+        private final Postings postings;
+        private final int count;
+        private final int blocks;
+        private int index;
+        private int position;
+        private int doc = -1;
+
+        TermCursor(Postings postings) {
+            this.postings = postings;
+            this.count = postings.count;
+            this.blocks = (count + BLOCK - 1) / BLOCK;
+        }
+
+        @Override
+        public int advance(int target) {
+            if (doc >= target) return doc;
+            // the last block starting at or before the target, if it is ahead
+            int lo = 0, hi = blocks - 1, block = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (postings.skipDocs[mid] <= target) {
+                    block = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            if (block >= 0 && block * BLOCK >= index) {
+                doc = postings.skipDocs[block];
+                position = postings.skipEnds[block];
+                index = block * BLOCK + 1;
+            }
+            while (doc < target) {
+                if (index == count) return doc = END;
+                int gap = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = postings.bytes[position++];
+                    gap |= (b & 0x7F) << shift;
+                    if (b >= 0) break;
+                }
+                doc += gap;
+                index++;
+            }
+            return doc;
+        }
+
+        @Override
+        public long cost() {
+            return count;
+        }
+    }
+
+    private static final class Union implements Cursor {
+        private final Cursor[] cursors;
+        private final int[] docs;
+
+        Union(List<Cursor> cursors) {
+            this.cursors = cursors.toArray(new Cursor[0]);
+            this.docs = new int[this.cursors.length];
+            Arrays.fill(docs, -1);
+        }
+
+        @Override
+        public int advance(int target) {
+            int min = END;
+            for (int i = 0; i < cursors.length; i++) {
+                if (docs[i] < target) docs[i] = cursors[i].advance(target);
+                min = Math.min(min, docs[i]);
+            }
+            return min;
+        }
+
+        @Override
+        public long cost() {
+            long cost = 0;
+            for (Cursor c : cursors) cost += c.cost();
+            return cost;
+        }
+    }
+
+    private static final class Conjunction implements Cursor {
+        private final Cursor[] required;
+        private final Cursor[] excluded;
+
+        Conjunction(Cursor[] required, Cursor[] excluded) {
+            this.required = required;
+            this.excluded = excluded;
+        }
+
+        @Override
+        public int advance(int target) {
+            int doc = required[0].advance(target);
+            while (doc != END) {
+                int next = doc;
+                for (int i = 1; i < required.length && next == doc; i++) next = required[i].advance(doc);
+                if (next != doc) {
+                    doc = required[0].advance(next);
+                    continue;
+                }
+                if (!isExcluded(doc)) return doc;
+                doc = required[0].advance(doc + 1);
+            }
+            return END;
+        }
+
+        private boolean isExcluded(int doc) {
+            for (Cursor c : excluded) {
+                if (c.advance(doc) == doc) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public long cost() {
+            return required[0].cost();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package it.polito.emergency;
+
+/**
+ * Event counts over consecutive time buckets (hours, days...), with a
+ * forecast of the count of the next bucket.
+ * Only the most recent buckets are kept, in a ring buffer of fixed size.
+ * The forecast is an exponentially smoothed average, updated as the events
+ * arrive: the smoothing is linear, so an event that arrives late for a past
+ * bucket is added with the weight that bucket has now, and the result is
+ * the same as if it had arrived in order. Every update and query is O(1),
+ * except the moving average, which reads the buckets of its window.
+ */
+class TimeSeries {
+
+    private final int[] counts;
+    private final double alpha;
+    private long head = Long.MIN_VALUE;
+    // smoothed count as of the head bucket, the head counting as it stands
+    private double level;
+
+    /**
+     * @param length The number of buckets kept.
+     * @param span The number of buckets the smoothing mostly averages, at least 1.
+     */
+    TimeSeries(int length, int span) {
+        this.counts = new int[length];
+        this.alpha = 2.0 / (span + 1);
+    }
+
+    /**
+     * Counts events in a bucket; buckets after the latest one start it anew.
+     *
+     * @param bucket The bucket, e.g. the hour or the day since the epoch.
+     * @param n The number of events.
+     */
+    synchronized void add(long bucket, int n) {
+        if (head == Long.MIN_VALUE) head = bucket;
+        if (bucket > head) {
+            long steps = bucket - head;
+            for (long b = head + 1, last = head + Math.min(steps, counts.length); b <= last; b++) {
+                counts[slot(b)] = 0;
+            }
+            level *= Math.pow(1 - alpha, steps);
+            head = bucket;
+        }
+        level += alpha * Math.pow(1 - alpha, head - bucket) * n;
+        if (head - bucket < counts.length) counts[slot(bucket)] += n;
+    }
+
+    /**
+     * @return The forecast count of the bucket following {@code now}, 0 before any event.
+     */
+    synchronized double forecast(long now) {
+        if (head == Long.MIN_VALUE) return 0;
+        return now <= head ? level : level * Math.pow(1 - alpha, now - head);
+    }
+
+    /**
+     * @param now The current bucket, which is not included.
+     * @param window The number of buckets to average, at most the length of the series.
+     * @return The average count of the {@code window} buckets before {@code now}.
+     */
+    synchronized double movingAverage(long now, int window) {
+        window = Math.max(1, Math.min(window, counts.length));
+        long sum = 0;
+        for (long b = now - window; b < now; b++) sum += count(b);
+        return (double) sum / window;
+    }
+
+    /**
+     * @return The count of a bucket, 0 if it is no longer kept.
+     */
+    synchronized int count(long bucket) {
+        if (head == Long.MIN_VALUE || bucket > head || head - bucket >= counts.length) return 0;
+        return counts[slot(bucket)];
+    }
+
+    /**
+     * @return The latest bucket with events, or {@link Long#MIN_VALUE} before any event.
+     */
+    synchronized long latest() {
+        return head;
+    }
+
+    private int slot(long bucket) {
+        return (int) Math.floorMod(bucket, (long) counts.length);
+    }
+}
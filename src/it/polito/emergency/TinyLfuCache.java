@@ -0,0 +1,186 @@
+package it.polito.emergency;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache with W-TinyLFU eviction.
+ * New entries go to a small LRU window; the entries leaving the window
+ * compete with the least recently used entry of the main segmented LRU and
+ * the one used more often, according to a frequency sketch, is kept. So a
+ * scan over many cold entries cannot push the hot ones out.
+ * <p>
+ * The main space is split in a probation segment, for entries seen once
+ * there, and a protected segment, for entries hit again while in probation.
+ * All the operations take the cache lock: the cache sits in front of the
+ * disk, so the lock is never the slowest part of a miss.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+class TinyLfuCache<K, V> {
+
+    private final int windowMax;
+    private final int protectedMax;
+    private final int mainMax;
+    private final LinkedHashMap<K, V> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, V> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, V> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maximumSize The maximum number of entries.
+     */
+    TinyLfuCache(int maximumSize) {
+        if (maximumSize < 2) throw new IllegalArgumentException("maximumSize must be at least 2");
+        windowMax = Math.max(1, maximumSize / 100);
+        mainMax = maximumSize - windowMax;
+        protectedMax = mainMax * 4 / 5;
+        sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * @param key The key.
+     * @return The cached value, or null; counted as a hit or a miss.
+     */
+    synchronized V get(K key) {
+        sketch.increment(key);
+        V value = window.get(key);
+        if (value == null) value = protectedSegment.get(key);
+        if (value == null) {
+            value = probation.remove(key);
+            if (value != null) promote(key, value);
+        }
+        if (value == null) misses.increment();
+        else hits.increment();
+        return value;
+    }
+
+    /**
+     * Caches a value, typically after a miss.
+     *
+     * @param key The key.
+     * @param value The value.
+     */
+    synchronized void put(K key, V value) {
+        if (window.containsKey(key) || protectedSegment.containsKey(key)) return;
+        if (probation.containsKey(key)) {
+            probation.put(key, value);
+            return;
+        }
+        window.put(key, value);
+        if (window.size() <= windowMax) return;
+
+        Map.Entry<K, V> candidate = eldest(window);
+        window.remove(candidate.getKey());
+        if (probation.size() + protectedSegment.size() < mainMax) {
+            probation.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+        Map.Entry<K, V> victim = probation.isEmpty() ? null : eldest(probation);
+        if (victim == null) return;
+        // the candidate only gets in if it has been asked for more often than the entry it replaces
+        if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+            probation.remove(victim.getKey());
+            probation.put(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    private void promote(K key, V value) {
+        protectedSegment.put(key, value);
+        if (protectedSegment.size() <= protectedMax) return;
+        Map.Entry<K, V> demoted = eldest(protectedSegment);
+        protectedSegment.remove(demoted.getKey());
+        probation.put(demoted.getKey(), demoted.getValue());
+    }
+
+    private static <K, V> Map.Entry<K, V> eldest(LinkedHashMap<K, V> segment) {
+        // the least recently used entry; it stays valid once removed from the segment
+        return segment.entrySet().iterator().next();
+    }
+
+    synchronized int size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Count-min sketch of the recent frequency of the keys, with four 4-bit
+     * counters per key. All the counters are halved once the number of
+     * increments reaches ten times the size of the cache, so old popularity fades.
+     */
+    private static final class FrequencySketch {
+
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int slots = Integer.highestOneBit(Math.max(maximumSize, 16) - 1) << 1;
+            table = new long[slots];
+            mask = slots - 1;
+            sampleSize = 10 * maximumSize;
+        }
+
+        int frequency(Object key) {
+            int h = spread(key.hashCode());
+            int min = 15;
+            for (int i = 0; i < 4; i++) min = Math.min(min, counter(h, i));
+            return min;
+        }
+
+        void increment(Object key) {
+            int h = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = index(h, i);
+                int shift = shift(h, i);
+                if (((table[index] >>> shift) & 0xf) != 0xf) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) reset();
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & RESET_MASK;
+            additions /= 2;
+        }
+
+        private int counter(int h, int i) {
+            return (int) ((table[index(h, i)] >>> shift(h, i)) & 0xf);
+        }
+
+        private int index(int h, int i) {
+            long x = (h + SEEDS[i]) * SEEDS[i];
+            return (int) (x >>> 32) & mask;
+        }
+
+        private static int shift(int h, int i) {
+            // each key uses a different 4-bit counter of the 16 in the long, for every function
+            return (((h >>> (i << 3)) & 3) << 2 | i) << 2 & 63;
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 17;
+            h *= 0xed5ad4bb;
+            h ^= h >>> 11;
+            return h;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package it.polito.emergency;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import it.polito.emergency.EmergencyApp.PatientStatus;
+
+/**
+ * Patients waiting to be visited, one priority queue per specialization.
+ * Patients are ordered by severity (1 is the most urgent, 5 the least), then
+ * by acceptance date, then by order of arrival in the queue. All the
+ * operations are O(log n) and lock free: the queue of a specialization is a
+ * skip list with a counter of its patients, and the entry of each waiting
+ * patient is kept in a map so that it can be found, replaced or removed
+ * without scanning the queue. An entry taken from the queue only counts if it
+ * is still the current entry of its patient, so concurrent re-prioritizations
+ * and removals never hand out the same patient twice.
+ */
+class TriageQueue {
+
+    static final int MOST_URGENT = 1;
+    static final int LEAST_URGENT = 5;
+
+    // the first rule with a keyword among the words of the reason gives the severity
+    private static final int[] SEVERITIES = {1, 2, 3, 4};
+    private static final String[][] KEYWORDS = {
+        {"cardiac arrest", "respiratory arrest", "unconscious", "stroke", "shock", "hemorrhage", "haemorrhage"},
+        {"chest pain", "bleeding", "breath", "breathing", "poison", "poisoning", "seizure", "seizures",
+         "burn", "burns", "trauma"},
+        {"fracture", "fractures", "abdominal pain", "fever", "vomit", "vomiting", "head"},
+        {"sprain", "wound", "wounds", "cut", "cuts", "pain"},
+    };
+    // the keywords split in words as the reasons are
+    private static final String[][][] PHRASES = new String[KEYWORDS.length][][];
+
+    static {
+        for (int r = 0; r < KEYWORDS.length; r++) {
+            PHRASES[r] = new String[KEYWORDS[r].length][];
+            for (int k = 0; k < KEYWORDS[r].length; k++) {
+                PHRASES[r][k] = TextIndex.tokenize(KEYWORDS[r][k]).toArray(new String[0]);
+            }
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator.comparingInt((Entry e) -> e.severity)
+                                                             .thenComparingInt(e -> e.acceptanceDay)
+                                                             .thenComparingLong(e -> e.arrival);
+
+    private final Map<String, Queue> bySpecialization = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Entry> byPatient = new ConcurrentHashMap<>();
+    private final AtomicLong arrivals = new AtomicLong();
+
+    private static final class Queue {
+        final NavigableSet<Entry> entries = new ConcurrentSkipListSet<>(ORDER);
+        // the patients whose current entry is in this queue
+        final AtomicInteger waiting = new AtomicInteger();
+    }
+
+    private static final class Entry {
+        final Patient patient;
+        final Queue queue;
+        final int severity;
+        final int acceptanceDay;
+        final long arrival;
+
+        Entry(Patient patient, Queue queue, int severity, long arrival) {
+            this.patient = patient;
+            this.queue = queue;
+            this.severity = severity;
+            this.acceptanceDay = patient.getAcceptanceEpochDay();
+            this.arrival = arrival;
+        }
+    }
+
+    /**
+     * Derives the severity of a patient from the reason of the admission.
+     *
+     * @param reason The reason.
+     * @return The severity, from {@link #MOST_URGENT} to {@link #LEAST_URGENT}.
+     */
+    static int severityOf(String reason) {
+        List<String> words = TextIndex.tokenize(reason);
+        for (int r = 0; r < PHRASES.length; r++) {
+            for (String[] phrase : PHRASES[r]) {
+                if (contains(words, phrase)) return SEVERITIES[r];
+            }
+        }
+        return LEAST_URGENT;
+    }
+
+    /**
+     * @return true if the words of the phrase appear in a row among the words.
+     */
+    private static boolean contains(List<String> words, String[] phrase) {
+        for (int i = 0; i + phrase.length <= words.size(); i++) {
+            int j = 0;
+            while (j < phrase.length && words.get(i + j).equals(phrase[j])) j++;
+            if (j == phrase.length) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Puts a patient in the queue of a specialization, replacing its previous place, if any.
+     *
+     * @param patient The patient.
+     * @param specialization The specialization, compared ignoring case.
+     * @param severity The severity.
+     */
+    void enqueue(Patient patient, String specialization, int severity) {
+        Queue queue = bySpecialization.computeIfAbsent(specialization, s -> new Queue());
+        Entry entry = new Entry(patient, queue, severity, arrivals.incrementAndGet());
+        Entry previous = byPatient.put(patient.getFiscalCode(), entry);
+        queue.waiting.incrementAndGet();
+        if (previous != null) {
+            previous.queue.waiting.decrementAndGet();
+            previous.queue.entries.remove(previous);
+        }
+        queue.entries.add(entry);
+    }
+
+    /**
+     * Changes the severity of a waiting patient, keeping its arrival order.
+     *
+     * @param fiscalCode The fiscal code of the patient.
+     * @param severity The new severity.
+     * @return false if the patient is not waiting.
+     */
+    boolean reprioritize(String fiscalCode, int severity) {
+        while (true) {
+            Entry current = byPatient.get(fiscalCode);
+            if (current == null) return false;
+            Entry updated = new Entry(current.patient, current.queue, severity, current.arrival);
+            if (byPatient.replace(fiscalCode, current, updated)) {
+                current.queue.entries.remove(current);
+                updated.queue.entries.add(updated);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes a patient from the queue it is waiting in.
+     *
+     * @param fiscalCode The fiscal code of the patient.
+     */
+    void remove(String fiscalCode) {
+        Entry entry = byPatient.remove(fiscalCode);
+        if (entry != null) {
+            entry.queue.waiting.decrementAndGet();
+            entry.queue.entries.remove(entry);
+        }
+    }
+
+    /**
+     * Takes the most urgent patient waiting for a specialization.
+     * Patients that are no longer admitted are dropped on the way.
+     *
+     * @param specialization The specialization, compared ignoring case.
+     * @return The patient, or null if nobody is waiting.
+     */
+    Patient next(String specialization) {
+        Queue queue = bySpecialization.get(specialization);
+        if (queue == null) return null;
+        while (true) {
+            Entry first = queue.entries.pollFirst();
+            if (first == null) return null;
+            if (!byPatient.remove(first.patient.getFiscalCode(), first)) continue;
+            queue.waiting.decrementAndGet();
+            if (first.patient.getStatus() == PatientStatus.ADMITTED) return first.patient;
+        }
+    }
+
+    /**
+     * @return The number of patients waiting for a specialization, read from its counter.
+     */
+    int size(String specialization) {
+        Queue queue = bySpecialization.get(specialization);
+        return queue == null ? 0 : queue.waiting.get();
+    }
+}
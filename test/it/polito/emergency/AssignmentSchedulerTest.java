@@ -0,0 +1,69 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import it.polito.emergency.EmergencyApp.AssignmentPolicy;
+
+public class AssignmentSchedulerTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 3, 1);
+
+    private final ProfessionalIndex index = new ProfessionalIndex();
+    private final AssignmentScheduler scheduler = new AssignmentScheduler(index);
+    private Professional[] staff;
+
+    @Before
+    public void setUp() {
+        // only the last one is in service on DAY
+        staff = new Professional[4 * AssignmentScheduler.WALK];
+        for (int i = 0; i < staff.length; i++) {
+            String period = i == staff.length - 1 ? "2024-01-01 to 2024-12-31" : "2023-01-01 to 2023-12-31";
+            staff[i] = new Professional(String.format("P%04d", i), "Name", period, "Cardiology", "Surname", "24");
+            index.add(staff[i]);
+            scheduler.add(staff[i]);
+        }
+        scheduler.setPolicy(AssignmentPolicy.LEAST_LOADED);
+    }
+
+    @Test
+    public void picksLeastLoadedInService() {
+        Professional on = staff[staff.length - 1];
+        assertSame(on, scheduler.select("Cardiology", DAY.toEpochDay()));
+        for (int i = 0; i < 10; i++) on.changeCaseload(1);
+        assertSame(on, scheduler.select("cardiology", DAY.toEpochDay()));
+    }
+
+    @Test
+    public void neverMissesTheOnlyOneInService() throws Exception {
+        Professional on = staff[staff.length - 1];
+        for (int i = 0; i < 8; i++) on.changeCaseload(1);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread churn = new Thread(() -> {
+            for (int round = 0; round < 20_000; round++) {
+                int delta = round % 2 == 0 ? -1 : 1;
+                on.changeCaseload(delta);
+                staff[round % (staff.length - 1)].changeCaseload(1);
+            }
+            done.set(true);
+        });
+        AtomicInteger missed = new AtomicInteger();
+        Thread select = new Thread(() -> {
+            while (!done.get()) {
+                if (scheduler.select("Cardiology", DAY.toEpochDay()) != on) missed.incrementAndGet();
+            }
+        });
+        churn.start();
+        select.start();
+        churn.join();
+        select.join();
+        assertEquals(0, missed.get());
+    }
+}
@@ -0,0 +1,110 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColumnStoreTest {
+
+    // more than a chunk of rows, so the counts of several workers are summed
+    private static final int PATIENTS = 70_000;
+    private static final int DAYS = 14;
+    private static final List<String> REASONS = List.of("fever", "chest pain", "fracture");
+    private static final int FIRST_DAY = (int) LocalDate.parse("2024-03-04").toEpochDay();
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("columns", ".bin");
+        EmergencyApp app = new EmergencyApp();
+        app.readFromFileProfessionals(new StringReader("id,name,surname,specialization,period\n"
+                + "P1,Ann,Rossi,Cardiology,2024-01-01 to 2024-12-31\n"));
+        app.readFromFileDepartments(new StringReader("departmentName,maxPatients\nWard,10\n"));
+        for (int i = 0; i < PATIENTS; i++) {
+            app.addPatient("FC" + i, "Name", "Surname" + i % 5, "1980-01-01", REASONS.get(i % REASONS.size()),
+                           LocalDate.ofEpochDay(FIRST_DAY + i % DAYS).toString());
+        }
+        for (int i = 0; i < 20; i++) {
+            app.assignPatientToProfessional("FC" + i, "Cardiology");
+            app.dischargeOrHospitalize("FC" + i, "Ward");
+        }
+        app.saveReport("P1", "FC0", "2024-03-04", "stable");
+        app.exportColumns(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static long expected(int reasonIndex, int fromDay, int toDay) {
+        long n = 0;
+        for (int i = 0; i < PATIENTS; i++) {
+            int day = FIRST_DAY + i % DAYS;
+            if (i % REASONS.size() == reasonIndex && day >= fromDay && day <= toDay) n++;
+        }
+        return n;
+    }
+
+    private static void check(ColumnStore store) {
+        assertEquals(List.of("patients", "assignments", "reports"), store.getTables());
+        ColumnStore.Table patients = store.table("patients");
+        assertEquals(PATIENTS, patients.getRows());
+        assertEquals(PATIENTS, patients.query().countAll());
+
+        assertEquals(expected(1, FIRST_DAY, FIRST_DAY + 6),
+                     patients.query().in("reason", "chest pain").between("acceptance_day", FIRST_DAY, FIRST_DAY + 6).countAll());
+        assertEquals(1, patients.query().in("fiscal_code", "FC123").countAll());
+        assertEquals(0, patients.query().in("fiscal_code", "nobody").countAll());
+        assertEquals(10, patients.query().in("status", "HOSPITALIZED").countAll());
+        assertEquals(10, patients.query().in("department", "Ward").countAll());
+
+        Map<List<Object>, Long> weekly = patients.query().groupBy("reason").groupBy("acceptance_day", 7).count();
+        assertEquals(REASONS.size() * 2, weekly.size());
+        for (int r = 0; r < REASONS.size(); r++) {
+            for (int week = 0; week < 2; week++) {
+                int from = FIRST_DAY + week * 7;
+                assertEquals(Long.valueOf(expected(r, from, from + 6)), weekly.get(List.of(REASONS.get(r), from)));
+            }
+        }
+        Map<List<Object>, Long> byStatus = patients.query().groupBy("status").count();
+        assertEquals(Long.valueOf(PATIENTS - 20), byStatus.get(List.of("ADMITTED")));
+        assertEquals(Long.valueOf(10), byStatus.get(List.of("DISCHARGED")));
+
+        // too many groups for an array of counters
+        Map<List<Object>, Long> byPatient = patients.query().groupBy("fiscal_code").groupBy("reason").count();
+        assertEquals(PATIENTS, byPatient.size());
+        assertEquals(Long.valueOf(1), byPatient.get(List.of("FC5", "fracture")));
+
+        ColumnStore.Table assignments = store.table("assignments");
+        assertEquals(Map.of(List.of("Cardiology", "P1"), 20L),
+                     assignments.query().groupBy("specialization").groupBy("professional_id").count());
+        assertEquals(1, store.table("reports").query().in("professional_id", "P1").countAll());
+
+        assertThrows(IllegalArgumentException.class, () -> patients.query().between("reason", 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> patients.query().groupBy("reason", 7));
+        assertThrows(IllegalArgumentException.class, () -> store.table("visits"));
+    }
+
+    @Test
+    public void queriesMappedFile() throws IOException {
+        check(ColumnStore.open(file, true));
+    }
+
+    @Test
+    public void queriesFileReadInMemory() throws IOException {
+        check(ColumnStore.open(file, false));
+    }
+}
@@ -0,0 +1,84 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Many reception desks working on one registry at once. Their throughput
+ * is measured by the DeskBenchmark of the bench module.
+ */
+public class ConcurrentDesksTest {
+
+    private static final int DESKS = 16;
+    private static final int PATIENTS_PER_DESK = 5_000;
+    private static final int BEDS = 1_000;
+    private static final String[] DEPARTMENTS = {"Cardiology", "Orthopedics", "Neurology"};
+
+    private EmergencyApp app;
+
+    @Before
+    public void setUp() throws IOException {
+        app = new EmergencyApp();
+        app.readFromFileProfessionals(new StringReader("id,name,surname,specialization,period\n"
+                + "P1,Ann,Rossi,Cardiology,2024-01-01 to 2024-12-31\n"
+                + "P2,Bob,Bianchi,Cardiology,2024-01-01 to 2024-12-31\n"));
+        for (String d : DEPARTMENTS) app.addDepartment(d, BEDS);
+    }
+
+    @Test
+    public void desksNeverOverbook() throws Exception {
+        Set<String> reportIds = ConcurrentHashMap.newKeySet();
+        AtomicInteger hospitalized = new AtomicInteger();
+        AtomicInteger discharged = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> desks = new ArrayList<>();
+        for (int d = 0; d < DESKS; d++) {
+            int desk = d;
+            desks.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < PATIENTS_PER_DESK; i++) {
+                        String fc = "FC" + desk + "-" + i;
+                        String department = DEPARTMENTS[i % DEPARTMENTS.length];
+                        app.addPatient(fc, "Name", "Surname", "1980-01-01", "chest pain", "2024-03-01");
+                        app.assignPatientToProfessional(fc, "Cardiology");
+                        reportIds.add(app.saveReport("P1", fc, "2024-03-01", "visited").getId());
+                        app.dischargeOrHospitalize(fc, department);
+                        if (app.verifyPatient(fc) == 0) discharged.incrementAndGet();
+                        else hospitalized.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    // a desk thread cannot fail the test itself
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread t : desks) t.start();
+        start.countDown();
+        for (Thread t : desks) t.join();
+        if (failure.get() != null) throw new AssertionError("A desk failed", failure.get());
+
+        int patients = DESKS * PATIENTS_PER_DESK;
+        assertEquals(DEPARTMENTS.length * BEDS, hospitalized.get());
+        assertEquals(patients - DEPARTMENTS.length * BEDS, discharged.get());
+        assertEquals(discharged.get(), app.getNumberOfPatientsDischarged());
+        for (String d : DEPARTMENTS) {
+            assertEquals(BEDS, app.getOccupiedBeds(d));
+            assertEquals(BEDS, app.getNumberOfPatientsHospitalizedByDepartment(d));
+        }
+        assertEquals(patients, reportIds.size());
+    }
+}
@@ -0,0 +1,84 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import it.polito.emergency.EmergencyApp.PatientStatus;
+
+public class EmergencyNetworkTest {
+
+    private static final List<String> SITES = List.of("North", "East", "South", "West");
+    private static final int PATIENTS = 4_000;
+    private static final int BEDS = 500;
+
+    private EmergencyNetwork network;
+
+    @Before
+    public void setUp() throws EmergencyException {
+        network = new EmergencyNetwork(SITES, 2);
+        // the only department and the only professional are at one site
+        network.addDepartment("South", "Ward", BEDS);
+        network.addProfessional("East", "P1", "Ann", "Rossi", "Cardiology", "2024-01-01 to 2024-12-31");
+        List<CompletableFuture<Patient>> added = new ArrayList<>();
+        for (int i = 0; i < PATIENTS; i++) {
+            added.add(network.addPatient("FC" + i, "Name", "Surname", "1980-01-01", "fever", "2024-03-01"));
+        }
+        for (CompletableFuture<Patient> f : added) f.join();
+    }
+
+    @After
+    public void tearDown() {
+        network.close();
+    }
+
+    private int snapshots(PatientStatus status) throws EmergencyException {
+        int n = 0;
+        for (String site : SITES) {
+            n += (int) network.getSite(site).getSnapshot().patients().filter(r -> r.getStatus() == status).count();
+        }
+        return n;
+    }
+
+    @Test
+    public void concurrentRequestsTakeOneBedPerPatient() throws EmergencyException {
+        // every patient asks twice at once, from the desks of two sites
+        List<CompletableFuture<Void>> requests = new ArrayList<>();
+        for (int i = 0; i < PATIENTS; i++) {
+            requests.add(network.dischargeOrHospitalize("FC" + i, "Ward"));
+            requests.add(network.dischargeOrHospitalize("FC" + i, "Ward"));
+        }
+        for (CompletableFuture<Void> f : requests) f.join();
+
+        assertEquals(BEDS, network.getNumberOfPatientsHospitalizedByDepartment("Ward"));
+        assertEquals(BEDS, network.getSite("South").getOccupiedBeds("Ward"));
+        // the home sites see the outcome of the visits in their snapshots
+        assertEquals(BEDS, snapshots(PatientStatus.HOSPITALIZED));
+        assertEquals(PATIENTS - BEDS, snapshots(PatientStatus.DISCHARGED));
+        int discharged = 0;
+        for (String site : SITES) discharged += network.getSite(site).getSnapshot().getNumberOfPatientsDischarged();
+        assertEquals(network.getNumberOfPatientsDischarged(), discharged);
+        assertTrue(discharged >= PATIENTS - BEDS);
+    }
+
+    @Test
+    public void assignmentsReachTheSiteOfThePatient() throws EmergencyException {
+        List<CompletableFuture<String>> assigned = new ArrayList<>();
+        for (int i = 0; i < PATIENTS; i++) assigned.add(network.assignPatientToProfessional("FC" + i, "Cardiology"));
+        for (CompletableFuture<String> f : assigned) assertEquals("P1", f.join());
+
+        for (int i = 0; i < PATIENTS; i++) {
+            String fc = "FC" + i;
+            RegistrySnapshot snapshot = network.getSite(network.siteOf(fc)).getSnapshot();
+            assertEquals(List.of("P1"), snapshot.getPatient(fc).getProfessionalIds());
+            assertEquals("Cardiology", snapshot.getSpecialization("P1"));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Local load generator: thousands of terminals, each on its own kept-alive
+ * connection, admitting patients and reading them back. It runs only with
+ * {@code -Dloadtest=true}. The clients and the server share the JVM, so it
+ * needs two file descriptors per client: raise {@code ulimit -n} above 20k,
+ * or lower the clients with {@code -Dloadtest.clients=<n>}.
+ */
+public class EmergencyServerLoadTest {
+
+    private static final int CLIENTS = Integer.getInteger("loadtest.clients", 10_000);
+    private static final int ROUNDS = 3;
+
+    private EmergencyApp app;
+    private EmergencyServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue(Boolean.getBoolean("loadtest"));
+        app = new EmergencyApp();
+        server = new EmergencyServer(app, new InetSocketAddress("127.0.0.1", 0), Duration.ofSeconds(10));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server == null) return;
+        server.close();
+        app.close();
+    }
+
+    @Test
+    public void manyClients() throws Exception {
+        InetSocketAddress address = server.getAddress();
+        long[] latencies = new long[CLIENTS * ROUNDS * 2];
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch connected = new CountDownLatch(CLIENTS);
+        List<Future<?>> clients = new ArrayList<>(CLIENTS);
+        try (ExecutorService terminals = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < CLIENTS; c++) {
+                int client = c;
+                clients.add(terminals.submit(() -> {
+                    try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+                        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(60));
+                        OutputStream out = socket.getOutputStream();
+                        InputStream in = new BufferedInputStream(socket.getInputStream());
+                        connected.countDown();
+                        // every terminal is connected before the first request
+                        connected.await();
+                        for (int r = 0; r < ROUNDS; r++) {
+                            String fc = "FC" + client + "-" + r;
+                            int at = (client * ROUNDS + r) * 2;
+                            latencies[at] = call(out, in, "POST", "/patients", "fiscalCode=" + fc
+                                    + "&name=Name&surname=Surname&dateOfBirth=1980-01-01&reason=fever&dateTimeAccepted=2024-03-01");
+                            latencies[at + 1] = call(out, in, "GET", "/patients/" + fc, null);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failures.incrementAndGet();
+                        connected.countDown();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : clients) f.get();
+        }
+
+        assertEquals(0, failures.get());
+        Arrays.sort(latencies);
+        long p50 = latencies[latencies.length / 2];
+        long p99 = latencies[latencies.length * 99 / 100];
+        System.out.printf("%d clients, %d requests: p50 %.2f ms, p99 %.2f ms%n",
+                          CLIENTS, latencies.length, p50 / 1e6, p99 / 1e6);
+        // every answer was a 200: none timed out, and no connection was dropped
+        assertEquals(CLIENTS * ROUNDS, app.getNumberOfPatients());
+    }
+
+    /**
+     * Sends a request on a kept-alive connection and reads the whole answer.
+     *
+     * @return The latency, in nanoseconds.
+     */
+    private static long call(OutputStream out, InputStream in, String method, String path, String form) throws IOException {
+        byte[] body = form == null ? new byte[0] : form.getBytes(StandardCharsets.UTF_8);
+        String head = method + " " + path + " HTTP/1.1\r\nHost: localhost\r\n"
+                + (form == null ? "" : "Content-Type: application/x-www-form-urlencoded\r\n")
+                + "Content-Length: " + body.length + "\r\n\r\n";
+        byte[] request = Arrays.copyOf(head.getBytes(StandardCharsets.US_ASCII), head.length() + body.length);
+        System.arraycopy(body, 0, request, head.length(), body.length);
+        long t0 = System.nanoTime();
+        out.write(request);
+        out.flush();
+        String status = line(in);
+        if (!status.startsWith("HTTP/1.1 200")) throw new IllegalStateException(status);
+        int length = -1;
+        for (String h = line(in); !h.isEmpty(); h = line(in)) {
+            if (h.regionMatches(true, 0, "Content-Length:", 0, 15)) length = Integer.parseInt(h.substring(15).trim());
+        }
+        if (length < 0 || in.readNBytes(length).length < length) throw new IllegalStateException("Truncated answer");
+        return System.nanoTime() - t0;
+    }
+
+    private static String line(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) throw new IOException("Connection closed");
+            if (b != '\r') sb.append((char) b);
+        }
+        return sb.toString();
+    }
+}
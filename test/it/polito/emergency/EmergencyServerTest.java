@@ -0,0 +1,130 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import it.polito.emergency.EmergencyApp.BackpressurePolicy;
+
+public class EmergencyServerTest {
+
+    private EmergencyApp app;
+    private EmergencyServer server;
+    private Socket socket;
+    private OutputStream out;
+    private InputStream in;
+
+    @Before
+    public void setUp() {
+        app = new EmergencyApp();
+    }
+
+    private void start(Duration timeout) throws IOException {
+        server = new EmergencyServer(app, new InetSocketAddress("127.0.0.1", 0), timeout);
+        InetSocketAddress address = server.getAddress();
+        socket = new Socket(address.getAddress(), address.getPort());
+        socket.setSoTimeout(10_000);
+        out = socket.getOutputStream();
+        in = new BufferedInputStream(socket.getInputStream());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            socket.close();
+            server.close();
+        }
+        app.close();
+    }
+
+    private static String request(String method, String path, String form) {
+        String body = form == null ? "" : form;
+        return method + " " + path + " HTTP/1.1\r\nHost: localhost\r\n"
+                + (form == null ? "" : "Content-Type: application/x-www-form-urlencoded\r\n")
+                + "Content-Length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n" + body;
+    }
+
+    /**
+     * @return The status line and the body of the next answer on the connection.
+     */
+    private String[] answer() throws IOException {
+        String status = line();
+        int length = -1;
+        for (String h = line(); !h.isEmpty(); h = line()) {
+            if (h.regionMatches(true, 0, "Content-Length:", 0, 15)) length = Integer.parseInt(h.substring(15).trim());
+        }
+        return new String[] {status, new String(in.readNBytes(length), StandardCharsets.UTF_8)};
+    }
+
+    private String line() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) throw new IOException("Connection closed");
+            if (b != '\r') sb.append((char) b);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void answersPipelinedRequestsInOrder() throws IOException {
+        start(Duration.ofSeconds(10));
+        // both requests are on the wire before the first answer is read
+        out.write((request("POST", "/patients", "fiscalCode=FC1&name=Ann&surname=Rossi&dateOfBirth=1980-01-01"
+                           + "&reason=fever&dateTimeAccepted=2024-03-01")
+                   + request("GET", "/patients/FC1", null)).getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        String[] added = answer();
+        String[] read = answer();
+        assertEquals("HTTP/1.1 200 OK", added[0]);
+        assertTrue(added[1], added[1].startsWith("{\"fiscalCode\":\"FC1\""));
+        assertEquals("HTTP/1.1 200 OK", read[0]);
+        assertEquals("[" + added[1] + "]", read[1]);
+    }
+
+    @Test
+    public void answersSlowOperationWithTimeout() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        app.subscribe(events -> {
+            try {
+                stalled.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        // fills the ring of the events behind the stalled listener, then makes the next admission wait for it
+        app.setBackpressurePolicy(BackpressurePolicy.DROP);
+        for (int i = 0; i <= EventStream.CAPACITY + EventStream.MAX_BATCH; i++) {
+            app.addPatient("FC" + i, "Ann", "Rossi", "1980-01-01", "fever", "2024-03-01");
+        }
+        app.setBackpressurePolicy(BackpressurePolicy.BLOCK);
+        start(Duration.ofMillis(20));
+        try {
+            out.write(request("POST", "/patients", "fiscalCode=SLOW&name=Ann&surname=Rossi&dateOfBirth=1980-01-01"
+                              + "&reason=fever&dateTimeAccepted=2024-03-01").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String[] timedOut = answer();
+            assertEquals("HTTP/1.1 503 Service Unavailable", timedOut[0]);
+            assertEquals("\"Timed out\"", timedOut[1]);
+        } finally {
+            stalled.countDown();
+        }
+        // the admission completes anyway, once the publisher gives up waiting
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (app.getSnapshot().getPatient("SLOW") == null && System.nanoTime() < deadline) Thread.sleep(10);
+        assertEquals("SLOW", app.getPatient("SLOW").get(0).getFiscalCode());
+    }
+}
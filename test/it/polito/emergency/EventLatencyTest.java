@@ -0,0 +1,108 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import it.polito.emergency.EmergencyApp.BackpressurePolicy;
+
+/**
+ * Admissions go on while a listener is stalled. The latency that publishing
+ * the events adds is measured by the EventBenchmark of the bench module.
+ */
+public class EventLatencyTest {
+
+    private EmergencyApp app;
+    private int next;
+    private final CountDownLatch stalled = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        app = new EmergencyApp();
+        app.addDepartment("Ward", 10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        stalled.countDown();
+        app.close();
+    }
+
+    private void add() {
+        int i = next++;
+        app.addPatient("FC" + i, "Name", "Surname", "1980-01-01", "chest pain", "2024-03-01");
+    }
+
+    /**
+     * Subscribes a listener that does not return until the end of the test.
+     */
+    private void stallListener() {
+        app.subscribe(events -> {
+            try {
+                stalled.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    /**
+     * Admits patients on a desk thread.
+     *
+     * @return true if the desk completed them all in time.
+     */
+    private boolean admit(int patients) throws InterruptedException {
+        Thread desk = new Thread(() -> {
+            for (int i = 0; i < patients; i++) add();
+        });
+        desk.start();
+        desk.join(TimeUnit.SECONDS.toMillis(30));
+        return !desk.isAlive();
+    }
+
+    @Test
+    public void droppingPublisherIgnoresStalledListener() throws Exception {
+        app.setBackpressurePolicy(BackpressurePolicy.DROP);
+        stallListener();
+        assertTrue(admit(2 * EventStream.CAPACITY));
+        assertEquals(2 * EventStream.CAPACITY, app.getNumberOfPatients());
+        assertTrue(app.getDroppedEvents() > 0);
+    }
+
+    @Test
+    public void blockingPublisherGivesUp() throws Exception {
+        stallListener();
+        // fills the ring without waiting, then every admission waits for room in vain
+        app.setBackpressurePolicy(BackpressurePolicy.DROP);
+        assertTrue(admit(EventStream.CAPACITY + EventStream.MAX_BATCH));
+        app.setBackpressurePolicy(BackpressurePolicy.BLOCK);
+        long dropped = app.getDroppedEvents();
+        assertTrue(admit(3));
+        assertEquals(dropped + 3, app.getDroppedEvents());
+    }
+
+    @Test
+    public void listenerUpdatingTheRegistryDoesNotStall() throws Exception {
+        app.addPatient("FC", "Name", "Surname", "1980-01-01", "fracture", "2024-03-01");
+        app.dischargeOrHospitalize("FC", "Ward");
+        // the listener publishes from the dispatcher, while the ring is full
+        app.subscribe(events -> {
+            for (RegistryEvent e : events) {
+                if (e.getType() == RegistryEvent.Type.PATIENT_ADMITTED) {
+                    try {
+                        app.dischargeOrHospitalize(e.getFiscalCode(), "Ward");
+                    } catch (EmergencyException x) {
+                        throw new AssertionError(x);
+                    }
+                }
+            }
+        });
+        assertTrue(admit(4 * EventStream.CAPACITY));
+    }
+}
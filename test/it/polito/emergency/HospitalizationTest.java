@@ -0,0 +1,129 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import it.polito.emergency.EmergencyApp.PatientStatus;
+
+public class HospitalizationTest {
+
+    private static final int ROUNDS = 500;
+    private static final int DESKS = 8;
+
+    private EmergencyApp app;
+
+    @Before
+    public void setUp() {
+        app = new EmergencyApp();
+        app.addDepartment("Ward", ROUNDS);
+    }
+
+    private void concurrently(Runnable task) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(DESKS);
+        List<Thread> desks = new ArrayList<>();
+        for (int d = 0; d < DESKS; d++) {
+            desks.add(new Thread(() -> {
+                try {
+                    start.await();
+                    task.run();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }));
+        }
+        for (Thread t : desks) t.start();
+        for (Thread t : desks) t.join();
+    }
+
+    @Test
+    public void patientGetsOneBed() throws Exception {
+        for (int i = 0; i < ROUNDS; i++) {
+            String fc = "FC" + i;
+            app.addPatient(fc, "Name", "Surname", "1980-01-01", "fracture", "2024-03-01");
+            concurrently(() -> {
+                try {
+                    app.dischargeOrHospitalize(fc, "Ward");
+                } catch (EmergencyException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            assertEquals(i + 1, app.getOccupiedBeds("Ward"));
+            assertEquals(i + 1, app.getNumberOfPatientsHospitalizedByDepartment("Ward"));
+        }
+        assertEquals(0, app.getNumberOfPatientsDischarged());
+    }
+
+    @Test
+    public void bedIsReleasedOnce() throws Exception {
+        for (int i = 0; i < ROUNDS; i++) {
+            String fc = "FC" + i;
+            app.addPatient(fc, "Name", "Surname", "1980-01-01", "fracture", "2024-03-01");
+            app.dischargeOrHospitalize(fc, "Ward");
+            AtomicInteger released = new AtomicInteger();
+            concurrently(() -> {
+                try {
+                    app.releasePatient(fc);
+                    released.incrementAndGet();
+                } catch (EmergencyException e) {
+                    // already released by another desk
+                }
+            });
+            assertEquals(1, released.get());
+        }
+        assertEquals(0, app.getOccupiedBeds("Ward"));
+        assertEquals(ROUNDS, app.getNumberOfPatientsDischarged());
+    }
+
+    @Test
+    public void secondReleaseFails() throws Exception {
+        app.addPatient("FC", "Name", "Surname", "1980-01-01", "fracture", "2024-03-01");
+        app.dischargeOrHospitalize("FC", "Ward");
+        assertNull(app.releasePatient("FC"));
+        assertThrows(EmergencyException.class, () -> app.releasePatient("FC"));
+        assertEquals(1, app.getNumberOfPatientsDischarged());
+    }
+
+    @Test
+    public void releasedBedPassesToTheNextPatientAtOnce() throws Exception {
+        app.addDepartment("Single", 1);
+        for (int i = 0; i < ROUNDS; i++) {
+            app.addPatient("W" + i, "Name", "Surname", "1980-01-01", "fracture", "2024-03-01");
+            app.hospitalizeOrWait("W" + i, "Single");
+        }
+        // a reader of the snapshot must never find the bed free while someone waits for it
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger done = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            try {
+                while (done.get() == 0) {
+                    long hospitalized = app.getSnapshot().patients()
+                                           .filter(r -> r.getStatus() == PatientStatus.HOSPITALIZED).count();
+                    if (hospitalized != 1) throw new AssertionError("Hospitalized: " + hospitalized);
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < ROUNDS - 1; i++) {
+            assertEquals("W" + (i + 1), app.releasePatient("W" + i));
+            RegistrySnapshot snapshot = app.getSnapshot();
+            assertEquals(PatientStatus.DISCHARGED, snapshot.getPatient("W" + i).getStatus());
+            assertEquals(PatientStatus.HOSPITALIZED, snapshot.getPatient("W" + (i + 1)).getStatus());
+        }
+        done.set(1);
+        reader.join();
+        if (failure.get() != null) throw new AssertionError(failure.get());
+        assertEquals(ROUNDS - 1, app.getNumberOfPatientsDischarged());
+    }
+}
@@ -0,0 +1,37 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ProfessionalIndexTest {
+
+    private static final long DAY = LocalDate.of(2024, 3, 1).toEpochDay();
+
+    @Test
+    public void addedProfessionalIsFoundRightAway() throws Exception {
+        ProfessionalIndex index = new ProfessionalIndex();
+        AtomicBoolean done = new AtomicBoolean();
+        // keeps rebuilding the layout while the professionals are added
+        Thread reader = new Thread(() -> {
+            while (!done.get()) index.getInService("Cardiology", DAY);
+        });
+        reader.start();
+        try {
+            for (int i = 0; i < 5_000; i++) {
+                Professional p = new Professional(String.format("P%05d", i), "Name", "2024-01-01 to 2024-12-31",
+                                                  "Cardiology", "Surname", "24");
+                index.add(p);
+                assertTrue(index.getInService("Cardiology", DAY).contains(p));
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+        assertEquals(5_000, index.getIdsInService("cardiology", DAY, DAY).size());
+    }
+}
@@ -0,0 +1,68 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ProfessionalTest {
+
+    private static Professional professional(String period) {
+        return new Professional("P1", "Ann", period, "Cardiology", "Rossi", "08:00-16:00");
+    }
+
+    @Test
+    public void multiDayPeriodIncludesItsLastDay() {
+        Professional p = professional("2024-01-10 to 2024-01-20");
+
+        assertTrue(p.isInService(LocalDate.of(2024, 1, 10)));
+        assertTrue(p.isInService(LocalDate.of(2024, 1, 20)));
+        assertFalse(p.isInService(LocalDate.of(2024, 1, 21)));
+        assertFalse(p.isInService(LocalDate.of(2024, 1, 9)));
+        assertTrue(p.isInService("2024-01-15 to 2024-01-20"));
+        assertFalse(p.isInService("2024-01-15 to 2024-01-21"));
+    }
+
+    @Test
+    public void separateShiftsLeaveAGap() {
+        Professional p = professional("2024-03-01 to 2024-03-31; 2024-01-01 to 2024-01-31");
+
+        assertEquals(List.of(Period.parse("2024-01-01 to 2024-01-31"), Period.parse("2024-03-01 to 2024-03-31")),
+                p.getShifts());
+        assertTrue(p.isInService(LocalDate.of(2024, 1, 31)));
+        assertTrue(p.isInService(LocalDate.of(2024, 3, 1)));
+        assertFalse(p.isInService(LocalDate.of(2024, 2, 1)));
+        assertFalse(p.isInService(LocalDate.of(2024, 2, 29)));
+        assertTrue(p.isInService("2024-03-05 to 2024-03-10"));
+        // no single shift covers a period across the gap
+        assertFalse(p.isInService("2024-01-20 to 2024-03-10"));
+    }
+
+    @Test
+    public void adjacentShiftsAreMerged() {
+        Professional p = professional("2024-01-01 to 2024-01-31;2024-02-01 to 2024-02-29");
+
+        assertEquals(List.of(Period.parse("2024-01-01 to 2024-02-29")), p.getShifts());
+        assertTrue(p.isInService("2024-01-20 to 2024-02-10"));
+    }
+
+    @Test
+    public void cachedPeriodsAnswerLikeParsedOnes() {
+        String text = "2024-05-01 to 2024-05-03";
+        Period first = Period.parse(text);
+
+        assertSame(first, Period.parse(text));
+        assertEquals(Period.of(LocalDate.of(2024, 5, 1), LocalDate.of(2024, 5, 3)), first);
+        Professional p = professional("2024-05-03 to 2024-05-10");
+        // the same text asked again goes through the cache and gives the same answer
+        assertFalse(p.isInService(text));
+        assertFalse(p.isInService(text));
+        assertTrue(p.isInService("2024-05-03 to 2024-05-03"));
+        assertTrue(p.isInService("2024-05-03 to 2024-05-03"));
+    }
+}
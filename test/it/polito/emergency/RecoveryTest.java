@@ -0,0 +1,176 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecoveryTest {
+
+    private static final int PATIENTS = 2000;
+    private static final int DESKS = 4;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("registry");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path f : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(f);
+        }
+    }
+
+    private static String fiscalCode(int i) {
+        return String.format("FC%010d", i);
+    }
+
+    @Test
+    public void reopensAfterConcurrentAdmissions() throws Exception {
+        int hospitalized;
+        int discharged;
+        int cardiology;
+        try (EmergencyApp app = EmergencyApp.open(directory)) {
+            app.readFromFileProfessionals(new StringReader("id,name,surname,specialization,period\n"
+                    + "P1,Ann,Rossi,Cardiology,2024-01-01 to 2024-12-31\n"));
+            app.readFromFileDepartments(new StringReader("departmentName,maxPatients\nWard,100\n"));
+
+            // the other desks act on each patient as soon as it can be seen
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> desks = new ArrayList<>();
+            for (int d = 0; d < DESKS; d++) {
+                int desk = d;
+                desks.add(new Thread(() -> {
+                    try {
+                        start.await();
+                        for (int i = desk; i < PATIENTS; i += DESKS) {
+                            app.addPatient(fiscalCode(i), "Name", "Surname", "1980-01-01", "chest pain", "2024-03-01");
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+                desks.add(new Thread(() -> {
+                    try {
+                        start.await();
+                        for (int i = desk; i < PATIENTS; i += DESKS) {
+                            while (app.getPatient(fiscalCode(i)).isEmpty()) Thread.onSpinWait();
+                            if (i % 2 == 0) app.assignPatientToProfessional(fiscalCode(i), "Cardiology");
+                            app.dischargeOrHospitalize(fiscalCode(i), "Ward");
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (EmergencyException e) {
+                        throw new AssertionError(e);
+                    }
+                }));
+            }
+            for (Thread t : desks) t.start();
+            start.countDown();
+            for (Thread t : desks) t.join();
+
+            hospitalized = app.getNumberOfPatientsHospitalizedByDepartment("Ward");
+            discharged = app.getNumberOfPatientsDischarged();
+            cardiology = app.getNumberOfPatientsAssignedToProfessionalDischarged("Cardiology");
+            assertEquals(100, hospitalized);
+            assertEquals(PATIENTS - 100, discharged);
+        }
+
+        try (EmergencyApp app = EmergencyApp.open(directory)) {
+            assertEquals(PATIENTS, app.getPatientsByDate("2024-03-01").size());
+            assertEquals(hospitalized, app.getNumberOfPatientsHospitalizedByDepartment("Ward"));
+            assertEquals(discharged, app.getNumberOfPatientsDischarged());
+            assertEquals(cardiology, app.getNumberOfPatientsAssignedToProfessionalDischarged("Cardiology"));
+        }
+    }
+
+    @Test
+    public void recoversPatientWithoutReason() throws Exception {
+        try (EmergencyApp app = EmergencyApp.open(directory)) {
+            app.addProfessional("P1", "Ann", "Rossi", "Cardiology", "2024-01-01 to 2024-12-31");
+            app.addPatient("FC1", "Name", "Surname", "1980-01-01", null, "2024-03-01");
+            app.checkpoint();
+            app.addPatient("FC2", "Name", "Surname", "1980-01-01", null, "2024-03-01");
+            app.saveReport("P1", "FC2", "2024-03-01", null);
+        }
+        try (EmergencyApp app = EmergencyApp.open(directory)) {
+            assertNull(app.getPatient("FC1").get(0).getReason());
+            assertNull(app.getPatient("FC2").get(0).getReason());
+            assertNull(app.getReportsByPatient("FC2", null, 10).get(0).getDescription());
+        }
+    }
+
+    @Test
+    public void snapshotCountsArchivedPatients() throws Exception {
+        try (EmergencyApp app = EmergencyApp.open(directory)) {
+            app.readFromFileProfessionals(new StringReader("id,name,surname,specialization,period\n"
+                    + "P1,Ann,Rossi,Cardiology,2024-01-01 to 2024-12-31\n"));
+            app.addDepartment("Ward", 1);
+            for (int i = 0; i < 10; i++) {
+                app.addPatient(fiscalCode(i), "Name", "Surname", "1980-01-01", "fever", "2024-03-01");
+                app.assignPatientToProfessional(fiscalCode(i), "Cardiology");
+                app.dischargeOrHospitalize(fiscalCode(i), "Ward");
+            }
+            assertEquals(9, app.archivePatients("2024-03-02"));
+            assertArchivedCounted(app);
+
+            app.getPatient(fiscalCode(1));
+            app.getPatient(fiscalCode(1));
+            MetricsSnapshot metrics = app.getMetrics();
+            assertEquals(1L, (long) metrics.getCounters().get("archive_cache_misses"));
+            assertEquals(1L, (long) metrics.getCounters().get("archive_cache_hits"));
+            assertEquals(0.5, metrics.getRatios().get("archive_cache_hit_ratio"), 1e-9);
+            assertTrue(metrics.toText().contains("# TYPE emergency_archive_cache_hits_total counter"));
+        }
+        try (EmergencyApp app = EmergencyApp.open(directory)) {
+            assertArchivedCounted(app);
+        }
+    }
+
+    private static void assertArchivedCounted(EmergencyApp app) throws EmergencyException {
+        RegistrySnapshot snapshot = app.getSnapshot();
+        assertEquals(9, app.getNumberOfPatientsAssignedToProfessionalDischarged("Cardiology"));
+        assertEquals(9, snapshot.getNumberOfPatientsAssignedToProfessionalDischarged("cardiology"));
+        assertEquals(10, app.getNumberOfPatientsByDate("2024-03-01"));
+        assertEquals(10, snapshot.getNumberOfPatientsByDate("2024-03-01"));
+        assertEquals(app.getNumberOfPatientsDischarged(), snapshot.getNumberOfPatientsDischarged());
+    }
+
+    @Test
+    public void rejectsRecordOfUnknownPatient() throws IOException {
+        try (EmergencyApp app = EmergencyApp.open(directory)) {
+            app.addDepartment("Ward", 10);
+        }
+        RegistryJournal journal = RegistryJournal.open(directory, new RegistryJournal.Target() {
+            @Override
+            public void readSnapshot(java.io.DataInputStream in) {
+            }
+
+            @Override
+            public void replay(byte type, String[] fields) {
+            }
+        });
+        journal.await(journal.append(RegistryJournal.HOSPITALIZED, "FCX", "Ward"));
+        journal.close();
+
+        IOException e = assertThrows(IOException.class, () -> EmergencyApp.open(directory).close());
+        assertTrue(e.getMessage(), e.getMessage().contains("Unknown patient: FCX"));
+    }
+}
@@ -0,0 +1,31 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class RegistryMetricsTest {
+
+    @Test
+    public void timesReadsAndStatistics() throws Exception {
+        EmergencyApp app = new EmergencyApp();
+        app.readFromFileDepartments(new StringReader("departmentName,maxPatients\nWard,10\n"));
+        app.getNumberOfPatients();
+        app.getNumberOfPatientsHospitalizedByDepartment("Ward");
+        assertThrows(EmergencyException.class, () -> app.getProfessionalById("P1"));
+        app.getExpectedAdmissions(null);
+
+        Map<String, MetricsSnapshot.Timer> timers = app.getMetrics().getTimers();
+        assertEquals(1, timers.get("readFromFileDepartments").getCalls());
+        assertEquals(1, timers.get("getNumberOfPatients").getCalls());
+        assertEquals(1, timers.get("getNumberOfPatientsHospitalizedByDepartment").getCalls());
+        // failed calls are timed too
+        assertEquals(1, timers.get("getProfessionalById").getCalls());
+        assertEquals(1, timers.get("getExpectedAdmissions").getCalls());
+        app.close();
+    }
+}
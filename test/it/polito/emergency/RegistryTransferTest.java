@@ -0,0 +1,116 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import it.polito.emergency.EmergencyApp.PatientStatus;
+
+public class RegistryTransferTest {
+
+    private static final int PATIENTS = 10;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("registry");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path f : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(f);
+        }
+    }
+
+    private static String describe(List<Patient> found) {
+        return found.stream().map(p -> String.join("|", p.getFiscalCode(), p.getName(), p.getSurname(),
+                String.valueOf(p.getReason()), p.getDateOfBirth(), p.getDateTimeAccepted(), p.getStatus().name(),
+                p.getProfessionalsSeen().stream().map(Professional::getId).collect(Collectors.joining(","))))
+                .collect(Collectors.joining("\n"));
+    }
+
+    private static String describeReports(List<Report> reports) {
+        return reports.stream().map(r -> String.join("|", r.getId(), r.getProfessionalId(), r.getFiscalCode(),
+                r.getDate(), r.getDescription())).collect(Collectors.joining("\n"));
+    }
+
+    @Test
+    public void importedRegistryMatchesTheExportedOne() throws Exception {
+        Path file = directory.resolve("registry.bin");
+        try (EmergencyApp app = EmergencyApp.open(directory.resolve("journal"))) {
+            app.readFromFileProfessionals(new StringReader("id,name,surname,specialization,period\n"
+                    + "P1,Ann,Rossi,Cardiology,2024-01-01 to 2024-12-31\n"
+                    + "P2,Bob,Verdi,Orthopedics,2024-01-01 to 2024-01-31; 2024-03-01 to 2024-03-31\n"));
+            app.readFromFileDepartments(new StringReader("departmentName,maxPatients\nWard,2\nICU,1\n"));
+            for (int i = 0; i < PATIENTS; i++) {
+                // the first four are accepted early, the ones discharged among them get archived
+                app.addPatient("FC" + i, "Name" + i, "Surname" + i, "1980-01-0" + (i % 9 + 1),
+                               i == 1 ? null : "chest pain", i < 4 ? "2024-01-05" : "2024-03-01");
+            }
+            assertEquals("P1", app.assignPatientToProfessional("FC0", "Cardiology"));
+            assertEquals("P2", app.assignPatientToProfessional("FC1", "Orthopedics"));
+            assertEquals("P1", app.assignPatientToProfessional("FC5", "Cardiology"));
+            app.saveReport("P1", "FC0", "2024-01-06", "chest pain resolved");
+            app.saveReport("P1", "FC5", "2024-03-02", "follow-up in a week");
+
+            app.dischargeOrHospitalize("FC4", "ICU");
+            for (int i = 0; i < 3; i++) app.dischargeOrHospitalize("FC" + i, "ICU");
+            assertTrue(app.hospitalizeOrWait("FC5", "Ward"));
+            assertTrue(app.hospitalizeOrWait("FC6", "Ward"));
+            assertFalse(app.hospitalizeOrWait("FC7", "Ward"));
+            assertFalse(app.hospitalizeOrWait("FC8", "Ward"));
+            assertEquals(3, app.archivePatients("2024-02-01"));
+
+            app.exportRegistry(file);
+
+            try (EmergencyApp copy = EmergencyApp.importRegistry(file)) {
+                assertEquals(app.getNumberOfPatients(), copy.getNumberOfPatients());
+                assertEquals(app.getNumberOfPatientsDischarged(), copy.getNumberOfPatientsDischarged());
+                assertEquals(app.getNumberOfPatientsAssignedToProfessionalDischarged("Cardiology"),
+                             copy.getNumberOfPatientsAssignedToProfessionalDischarged("Cardiology"));
+                assertEquals(app.getProfessionals("Orthopedics"), copy.getProfessionals("Orthopedics"));
+                assertEquals(app.getProfessionalsInService("Orthopedics", "2024-03-05 to 2024-03-06"),
+                             copy.getProfessionalsInService("Orthopedics", "2024-03-05 to 2024-03-06"));
+                assertThrows(EmergencyException.class,
+                             () -> copy.getProfessionalsInService("Orthopedics", "2024-02-05 to 2024-02-06"));
+                for (String d : List.of("Ward", "ICU")) {
+                    assertEquals(app.getOccupiedBeds(d), copy.getOccupiedBeds(d));
+                    assertEquals(app.getWaitlistSize(d), copy.getWaitlistSize(d));
+                    assertEquals(app.getNumberOfPatientsHospitalizedByDepartment(d),
+                                 copy.getNumberOfPatientsHospitalizedByDepartment(d));
+                }
+                assertEquals(2, copy.getWaitlistSize("Ward"));
+                for (int i = 0; i < PATIENTS; i++) {
+                    String fc = "FC" + i;
+                    assertEquals(describe(app.getPatient(fc)), describe(copy.getPatient(fc)));
+                    assertEquals(describeReports(app.getReportsByPatient(fc, null, 10)),
+                                 describeReports(copy.getReportsByPatient(fc, null, 10)));
+                }
+                assertNull(copy.getPatient("FC1").get(0).getReason());
+                assertEquals(PatientStatus.DISCHARGED, copy.getPatient("FC0").get(0).getStatus());
+
+                // the waitlist keeps its order and new reports continue the numbering
+                assertEquals(app.releasePatient("FC5"), copy.releasePatient("FC5"));
+                assertEquals(app.saveReport("P1", "FC3", "2024-03-03", "stable").getId(),
+                             copy.saveReport("P1", "FC3", "2024-03-03", "stable").getId());
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ReportTest {
+
+    @Test
+    public void keepsTextualIds() {
+        Report r = new Report("2024-03-01", "visited", "FC1", "P1", "D1");
+        assertEquals("P1", r.getId());
+        assertEquals(-1, r.getNumericId());
+        assertEquals("007", new Report("2024-03-01", "visited", "FC1", "007", "D1").getId());
+    }
+
+    @Test
+    public void storesNumericIdsAsNumbers() {
+        Report r = new Report("2024-03-01", "visited", "FC1", "42", "D1");
+        assertEquals("42", r.getId());
+        assertEquals(42, r.getNumericId());
+        assertEquals("2024-03-01", r.getDate());
+    }
+
+    @Test
+    public void unknownCursorEndsThePages() throws Exception {
+        EmergencyApp app = new EmergencyApp();
+        app.readFromFileProfessionals(new StringReader("id,name,surname,specialization,period\n"
+                + "D1,Ann,Rossi,Cardiology,2024-01-01 to 2024-12-31\n"));
+        app.addPatient("FC1", "Name", "Surname", "1980-01-01", "fever", "2024-03-01");
+        Report first = app.saveReport("D1", "FC1", "2024-03-01", "visited");
+        Report second = app.saveReport("D1", "FC1", "2024-03-02", "visited again");
+
+        // the reports of a patient come newest first
+        assertEquals(List.of(first), app.getReportsByPatient("FC1", second.getId(), 10));
+        for (String cursor : List.of("999", "abc", "", "1e3")) {
+            assertEquals(List.of(), app.getReportsByPatient("FC1", cursor, 10));
+            assertEquals(List.of(), app.getReportsByProfessional("D1", "2024-01-01", "2024-12-31", cursor, 10));
+            assertEquals(List.of(), app.getReportsByDate("2024-01-01", "2024-12-31", cursor, 10));
+        }
+    }
+}
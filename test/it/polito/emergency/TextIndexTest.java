@@ -0,0 +1,67 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class TextIndexTest {
+
+    private static final int DESKS = 8;
+    private static final int TEXTS = 20_000;
+
+    @Test
+    public void concurrentDesksLoseNoText() throws Exception {
+        TextIndex<String> index = new TextIndex<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> desks = new ArrayList<>();
+        for (int d = 0; d < DESKS; d++) {
+            int desk = d;
+            desks.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < TEXTS; i++) {
+                    index.add(desk + "-" + i, i, (i % 2 == 0 ? "chest pain" : "broken finger") + " desk" + desk);
+                }
+            }));
+        }
+        for (Thread t : desks) t.start();
+        start.countDown();
+        for (Thread t : desks) t.join();
+
+        assertEquals(DESKS * TEXTS, index.size());
+        assertEquals(DESKS * TEXTS / 2, index.search("chest", 0, TEXTS, Integer.MAX_VALUE).size());
+        assertEquals(TEXTS, index.search("desk3", 0, TEXTS, Integer.MAX_VALUE).size());
+        assertEquals(TEXTS / 2, index.search("finger desk5", 0, TEXTS, Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    public void nullIsTheEmptyText() {
+        TextIndex<String> index = new TextIndex<>();
+        index.add("a", 0, null);
+        assertEquals(1, index.size());
+        assertEquals(List.of(), TextIndex.tokenize(null));
+    }
+
+    @Test
+    public void patientsAndReportsWithoutText() throws EmergencyException {
+        EmergencyApp app = new EmergencyApp();
+        app.addProfessional("P1", "Ann", "Rossi", "Cardiology", "2024-01-01 to 2024-12-31");
+        app.setReportCompression(true);
+        app.addPatient("FC1", "Name", "Surname", "1980-01-01", null, "2024-03-01");
+        app.saveReport("P1", "FC1", "2024-03-01", null);
+
+        assertEquals(1, app.getPatient("FC1").size());
+        assertNull(app.getPatient("FC1").get(0).getReason());
+        assertEquals(List.of("FC1"), app.getPatientsByDate("2024-03-01"));
+        assertEquals(1, app.getReportsByPatient("FC1", null, 10).size());
+        assertEquals(1.0, app.getAverageAdmissions("", 1), 0);
+    }
+}
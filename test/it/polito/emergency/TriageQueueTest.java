@@ -0,0 +1,68 @@
+package it.polito.emergency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TriageQueueTest {
+
+    private static Patient patient(int i) {
+        return new Patient("FC" + i, "1980-01-01", "Name", "fever", EmergencyApp.PatientStatus.ADMITTED, "Surname", "2024-03-01");
+    }
+
+    @Test
+    public void countsEachWaitingPatientOnce() {
+        TriageQueue queue = new TriageQueue();
+        Patient a = patient(1);
+        Patient b = patient(2);
+        queue.enqueue(a, "Cardiology", 3);
+        queue.enqueue(b, "cardiology", 2);
+        // moving a patient to another queue leaves the first one
+        queue.enqueue(a, "Neurology", 3);
+        assertEquals(1, queue.size("Cardiology"));
+        assertEquals(1, queue.size("Neurology"));
+        queue.reprioritize("FC2", 1);
+        assertEquals(1, queue.size("Cardiology"));
+        assertSame(b, queue.next("Cardiology"));
+        assertEquals(0, queue.size("Cardiology"));
+        queue.remove("FC1");
+        assertEquals(0, queue.size("Neurology"));
+    }
+
+    @Test
+    public void matchesWholeWords() {
+        assertEquals(1, TriageQueue.severityOf("Cardiac arrest at home"));
+        assertEquals(2, TriageQueue.severityOf("severe chest pain"));
+        assertEquals(2, TriageQueue.severityOf("burns on the arm"));
+        assertEquals(3, TriageQueue.severityOf("hit on the head"));
+        // the keywords inside other words do not count
+        assertEquals(TriageQueue.LEAST_URGENT, TriageQueue.severityOf("heartburn"));
+        assertEquals(TriageQueue.LEAST_URGENT, TriageQueue.severityOf("forehead rash"));
+        assertEquals(4, TriageQueue.severityOf("acute headache pain"));
+        assertEquals(TriageQueue.LEAST_URGENT, TriageQueue.severityOf(null));
+    }
+
+    @Test
+    public void concurrentEnqueuesKeepTheCount() throws Exception {
+        TriageQueue queue = new TriageQueue();
+        List<Patient> patients = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) patients.add(patient(i));
+        List<Thread> desks = new ArrayList<>();
+        for (int d = 0; d < 4; d++) {
+            desks.add(new Thread(() -> {
+                for (Patient p : patients) queue.enqueue(p, "Cardiology", TriageQueue.severityOf(p.getReason()));
+            }));
+        }
+        for (Thread t : desks) t.start();
+        for (Thread t : desks) t.join();
+        assertEquals(patients.size(), queue.size("Cardiology"));
+        int taken = 0;
+        while (queue.next("Cardiology") != null) taken++;
+        assertEquals(patients.size(), taken);
+        assertEquals(0, queue.size("Cardiology"));
+    }
+}